@@ -0,0 +1,232 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences;
+
+/**
+ * <p>Encodes arrays into compact Strings, to store them as a single preference.</p>
+ * <p>The elements of int and long arrays are written as zig-zag encoded variable length numbers, so
+ * small values like ids only take a byte or two. The bytes are then encoded as Base64 without padding.
+ * {@code null} is encoded as {@code null}, an empty array as an empty String.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ * @see PreferenceType#isEncoded()
+ */
+public final class ArrayCodec {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int[] DECODE = new int[128];
+
+    static {
+        java.util.Arrays.fill(DECODE, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = i;
+        }
+    }
+
+    private ArrayCodec() {
+    }
+
+    /**
+     * Encodes the ints as zig-zag encoded variable length numbers.
+     *
+     * @param values the values to encode, may be {@code null}
+     * @return the encoded values, or {@code null} for {@code null}
+     */
+    public static String encodeInts(int[] values) {
+        if (values == null)
+            return null;
+        byte[] bytes = new byte[values.length * 5];
+        int length = 0;
+        for (int value : values) {
+            length = writeVarLong(bytes, length, ((value << 1) ^ (value >> 31)) & 0xffffffffL);
+        }
+        return encodeBytes(bytes, length);
+    }
+
+    /**
+     * Decodes ints encoded by {@link #encodeInts(int[])}.
+     *
+     * @param encoded the encoded values, may be {@code null}
+     * @return the decoded values, or {@code null} for {@code null}
+     * @throws IllegalArgumentException if the String is not valid Base64 or holds numbers out of the int range
+     */
+    public static int[] decodeInts(String encoded) {
+        if (encoded == null)
+            return null;
+        byte[] bytes = decodeBytes(encoded);
+        int[] values = new int[countVarLongs(bytes)];
+        int position = 0;
+        for (int i = 0; i < values.length; i++) {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (shift > 35 || value >>> 32 != 0)
+                throw new IllegalArgumentException("Invalid encoded ints");
+            final int zigZag = (int) value;
+            values[i] = (zigZag >>> 1) ^ -(zigZag & 1);
+        }
+        return values;
+    }
+
+    /**
+     * Encodes the longs as zig-zag encoded variable length numbers.
+     *
+     * @param values the values to encode, may be {@code null}
+     * @return the encoded values, or {@code null} for {@code null}
+     */
+    public static String encodeLongs(long[] values) {
+        if (values == null)
+            return null;
+        byte[] bytes = new byte[values.length * 10];
+        int length = 0;
+        for (long value : values) {
+            length = writeVarLong(bytes, length, (value << 1) ^ (value >> 63));
+        }
+        return encodeBytes(bytes, length);
+    }
+
+    /**
+     * Decodes longs encoded by {@link #encodeLongs(long[])}.
+     *
+     * @param encoded the encoded values, may be {@code null}
+     * @return the decoded values, or {@code null} for {@code null}
+     * @throws IllegalArgumentException if the String is not valid Base64 or holds numbers out of the long range
+     */
+    public static long[] decodeLongs(String encoded) {
+        if (encoded == null)
+            return null;
+        byte[] bytes = decodeBytes(encoded);
+        long[] values = new long[countVarLongs(bytes)];
+        int position = 0;
+        for (int i = 0; i < values.length; i++) {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (shift > 63)
+                    throw new IllegalArgumentException("Invalid encoded longs");
+                b = bytes[position++];
+                // the 10th byte only holds the highest bit
+                if (shift == 63 && (b & 0x7e) != 0)
+                    throw new IllegalArgumentException("Invalid encoded longs");
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            values[i] = (value >>> 1) ^ -(value & 1);
+        }
+        return values;
+    }
+
+    /**
+     * Encodes the bytes as Base64 without padding.
+     *
+     * @param bytes the bytes to encode, may be {@code null}
+     * @return the encoded bytes, or {@code null} for {@code null}
+     */
+    public static String encodeBytes(byte[] bytes) {
+        if (bytes == null)
+            return null;
+        return encodeBytes(bytes, bytes.length);
+    }
+
+    /**
+     * Decodes bytes encoded by {@link #encodeBytes(byte[])}.
+     *
+     * @param encoded the encoded bytes, may be {@code null}
+     * @return the decoded bytes, or {@code null} for {@code null}
+     * @throws IllegalArgumentException if the String is not valid Base64 without padding
+     */
+    public static byte[] decodeBytes(String encoded) {
+        if (encoded == null)
+            return null;
+        final int length = encoded.length();
+        if (length % 4 == 1)
+            throw new IllegalArgumentException("Invalid encoded length " + length);
+        byte[] bytes = new byte[length * 3 / 4];
+        int position = 0;
+        int buffer = 0;
+        int bits = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = encoded.charAt(i);
+            final int value = c < 128 ? DECODE[c] : -1;
+            if (value < 0)
+                throw new IllegalArgumentException("Invalid encoded character " + c);
+            buffer = (buffer << 6) | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                bytes[position++] = (byte) (buffer >> bits);
+            }
+        }
+        return bytes;
+    }
+
+    private static String encodeBytes(byte[] bytes, int length) {
+        char[] chars = new char[(length * 4 + 2) / 3];
+        int position = 0;
+        int i = 0;
+        for (; i + 2 < length; i += 3) {
+            final int block = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            chars[position++] = ALPHABET[block >>> 18];
+            chars[position++] = ALPHABET[(block >>> 12) & 0x3f];
+            chars[position++] = ALPHABET[(block >>> 6) & 0x3f];
+            chars[position++] = ALPHABET[block & 0x3f];
+        }
+        if (i < length) {
+            final int block = (bytes[i] & 0xff) << 16 | (i + 1 < length ? (bytes[i + 1] & 0xff) << 8 : 0);
+            chars[position++] = ALPHABET[block >>> 18];
+            chars[position++] = ALPHABET[(block >>> 12) & 0x3f];
+            if (i + 1 < length)
+                chars[position++] = ALPHABET[(block >>> 6) & 0x3f];
+        }
+        return new String(chars, 0, position);
+    }
+
+    private static int writeVarLong(byte[] bytes, int position, long value) {
+        while ((value & ~0x7fL) != 0) {
+            bytes[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    private static int countVarLongs(byte[] bytes) {
+        int count = 0;
+        for (byte b : bytes) {
+            if (b >= 0)
+                count++;
+        }
+        if (bytes.length > 0 && bytes[bytes.length - 1] < 0)
+            throw new IllegalArgumentException("Invalid encoded numbers");
+        return count;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences;
+
+/**
+ * Holds a value derived from a stored String together with that String, e.g. a decoded array, a converted
+ * object or a decrypted String, so generated classes only have to derive it again when the stored String changes.
+ *
+ * @param <T> the type of the derived value
+ * @author David Medenjak
+ * @version 1.0
+ */
+public final class CachedValue<T> {
+    private final String mStored;
+    private final T mValue;
+
+    /**
+     * @param stored the stored String the value was derived from
+     * @param value  the derived value
+     */
+    public CachedValue(String stored, T value) {
+        mStored = stored;
+        mValue = value;
+    }
+
+    /**
+     * @param stored the currently stored String
+     * @return true if the value was derived from the String
+     */
+    public boolean isDerivedFrom(String stored) {
+        // SharedPreferences return the same instance as long as the value did not change
+        return mStored == stored || mStored.equals(stored);
+    }
+
+    /**
+     * @return the derived value, which must not be modified
+     */
+    public T getValue() {
+        return mValue;
+    }
+}
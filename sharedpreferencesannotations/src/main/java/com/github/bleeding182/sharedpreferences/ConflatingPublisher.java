@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Publishes the current value on subscription and after each {@link #publish()}.</p>
+ * <p>Changes are conflated: a subscriber without outstanding demand only remembers that the value changed,
+ * and receives the value current at the time of its next request. A burst of writes thus results in at
+ * most one item per request, and no subscriber builds up a queue.</p>
+ * <p>Items are delivered on the thread calling {@link #publish()}, {@link #subscribe(Flow.Subscriber)}
+ * or {@link Flow.Subscription#request(long)}, one at a time for each subscriber.</p>
+ *
+ * @param <T> the type of the value
+ * @author David Medenjak
+ * @version 1.0
+ */
+public abstract class ConflatingPublisher<T> implements Flow.Publisher<T> {
+
+    private final List<ConflatingSubscription> mSubscriptions =
+            new CopyOnWriteArrayList<ConflatingSubscription>();
+
+    /**
+     * Reads the value to emit, called once for each item delivered.
+     *
+     * @return the current value
+     */
+    protected abstract T read();
+
+    /**
+     * Called after a subscriber was added or removed.
+     */
+    protected void onSubscribersChanged() {
+    }
+
+    /**
+     * @return true if at least one subscriber did not cancel yet.
+     */
+    public boolean hasSubscribers() {
+        return !mSubscriptions.isEmpty();
+    }
+
+    /**
+     * Signals a change of the value to all subscribers.
+     */
+    public void publish() {
+        for (ConflatingSubscription subscription : mSubscriptions) {
+            subscription.mChanged.set(true);
+            subscription.drain();
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("subscriber == null");
+        ConflatingSubscription subscription = new ConflatingSubscription(subscriber);
+        // added first, so no change after the first read gets lost
+        mSubscriptions.add(subscription);
+        onSubscribersChanged();
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    private final class ConflatingSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> mSubscriber;
+        private final AtomicLong mRequested = new AtomicLong();
+        private final AtomicInteger mDraining = new AtomicInteger();
+        /**
+         * Set while the subscriber did not receive the current value, initially to emit it on subscription.
+         */
+        private final AtomicBoolean mChanged = new AtomicBoolean(true);
+        private volatile boolean mCancelled;
+
+        ConflatingSubscription(Flow.Subscriber<? super T> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (mCancelled)
+                return;
+            if (n <= 0) {
+                cancel();
+                mSubscriber.onError(new IllegalArgumentException("non-positive request " + n));
+                return;
+            }
+            long requested;
+            long updated;
+            do {
+                requested = mRequested.get();
+                updated = requested + n;
+                if (updated < 0)
+                    updated = Long.MAX_VALUE;
+            } while (!mRequested.compareAndSet(requested, updated));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (mCancelled)
+                return;
+            mCancelled = true;
+            if (mSubscriptions.remove(this))
+                onSubscribersChanged();
+        }
+
+        /**
+         * Delivers the current value if it changed and there is demand. Only one thread delivers at a time,
+         * others leave a note to check again.
+         */
+        void drain() {
+            if (mDraining.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            while (true) {
+                if (!mCancelled && mRequested.get() > 0 && mChanged.compareAndSet(true, false)) {
+                    final T value;
+                    try {
+                        value = read();
+                    } catch (RuntimeException ex) {
+                        cancel();
+                        mSubscriber.onError(ex);
+                        return;
+                    }
+                    if (mRequested.get() != Long.MAX_VALUE)
+                        mRequested.decrementAndGet();
+                    mSubscriber.onNext(value);
+                    // check for more demand and changes before giving up
+                    continue;
+                }
+                missed = mDraining.addAndGet(-missed);
+                if (missed == 0)
+                    return;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences;
+
+/**
+ * <p>The interfaces of {@code java.util.concurrent.Flow}, which is not available before Java 9 or Android
+ * API 30. They declare the same methods, so adapting them takes a single delegating class.</p>
+ * <p>Unlike reactive streams, publishers of preferences may emit {@code null} for values which are not set
+ * and have no default.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ * @see ConflatingPublisher
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * A producer of items received by subscribers.
+     *
+     * @param <T> the type of the items
+     */
+    public interface Publisher<T> {
+        /**
+         * Adds the subscriber, which will receive {@link Subscriber#onSubscribe(Subscription)} first.
+         *
+         * @param subscriber the subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items, which requests them with its {@link Subscription}.
+     *
+     * @param <T> the type of the items
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * Links a publisher and a subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Adds demand for {@code n} more items.
+         *
+         * @param n the number of items, has to be positive
+         */
+        void request(long n);
+
+        /**
+         * Stops receiving items.
+         */
+        void cancel();
+    }
+}
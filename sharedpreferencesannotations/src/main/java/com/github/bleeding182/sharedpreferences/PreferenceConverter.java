@@ -0,0 +1,50 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences;
+
+/**
+ * <p>Converts the values of a {@link PreferenceType#CONVERTED} preference from and to the String they are stored as.</p>
+ * <p>The generated class keeps the last decoded value along with the String it was decoded from, and only
+ * decodes again once the stored String changes. The same instance is returned by repeated reads, so the
+ * values should be immutable.</p>
+ *
+ * @param <T> the type of the values
+ * @author David Medenjak
+ * @version 1.0
+ * @see com.github.bleeding182.sharedpreferences.annotations.Type#converter()
+ */
+public interface PreferenceConverter<T> {
+    /**
+     * @param value the value to store, never null
+     * @return the String to store
+     */
+    String encode(T value);
+
+    /**
+     * @param value the stored String, never null
+     * @return the decoded value
+     */
+    T decode(String value);
+}
@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * <p>Encrypts the values of fields annotated with
+ * {@link com.github.bleeding182.sharedpreferences.annotations.Encrypted} with AES/GCM.</p>
+ * <p>Each value gets a random IV and is bound to its preference key, so it can be neither read nor moved to
+ * another key without the secret key. The IV, the encrypted value and its tag are stored as a single String
+ * encoded by {@link ArrayCodec#encodeBytes(byte[])}.</p>
+ * <p>The secret keys are requested once per alias from the {@link KeyProvider} which has to be set before the
+ * first encrypted value is accessed, e.g. in {@code Application.onCreate()}. Ciphers are kept per thread
+ * and only initialized again for each value. The generated classes only decrypt a value again once the
+ * stored String changes.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ * @see #setKeyProvider(KeyProvider)
+ */
+public final class PreferenceEncryption {
+
+    /**
+     * The transformation used to encrypt the values.
+     */
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile KeyProvider sKeyProvider;
+    private static final ConcurrentHashMap<String, SecretKey> sKeys = new ConcurrentHashMap<String, SecretKey>();
+    private static final ThreadLocal<Cipher> sCiphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+            }
+        }
+    };
+
+    private PreferenceEncryption() {
+    }
+
+    /**
+     * Supplies the secret keys to encrypt the values with, e.g. from the {@code AndroidKeyStore}.
+     */
+    public interface KeyProvider {
+        /**
+         * Called once per alias, the key is kept until another provider is set.
+         *
+         * @param alias the alias set by {@link com.github.bleeding182.sharedpreferences.annotations.Encrypted#value()}
+         * @return the AES key to use for the alias
+         * @throws GeneralSecurityException if the key is not available
+         */
+        SecretKey getKey(String alias) throws GeneralSecurityException;
+    }
+
+    /**
+     * Sets the provider of the secret keys, dropping all keys requested from the previous one.
+     *
+     * @param provider the provider to use
+     */
+    public static void setKeyProvider(KeyProvider provider) {
+        sKeyProvider = provider;
+        sKeys.clear();
+    }
+
+    /**
+     * Encrypts a value.
+     *
+     * @param alias the alias of the secret key
+     * @param key   the preference key the value gets stored under
+     * @param value the value to encrypt, may be null
+     * @return the encrypted value, null if value is null
+     * @throws IllegalStateException if no key is available or the value could not be encrypted
+     */
+    public static String encrypt(String alias, String key, String value) {
+        if (value == null)
+            return null;
+        try {
+            final Cipher cipher = sCiphers.get();
+            // the cipher picks the IV, keys of the AndroidKeyStore don't accept one from the caller
+            cipher.init(Cipher.ENCRYPT_MODE, getKey(alias));
+            cipher.updateAAD(key.getBytes(UTF_8));
+            final byte[] iv = cipher.getIV();
+            final byte[] plain = value.getBytes(UTF_8);
+            byte[] encrypted = new byte[1 + iv.length + cipher.getOutputSize(plain.length)];
+            encrypted[0] = (byte) iv.length;
+            System.arraycopy(iv, 0, encrypted, 1, iv.length);
+            final int length = cipher.doFinal(plain, 0, plain.length, encrypted, 1 + iv.length);
+            if (1 + iv.length + length != encrypted.length) {
+                byte[] trimmed = new byte[1 + iv.length + length];
+                System.arraycopy(encrypted, 0, trimmed, 0, trimmed.length);
+                encrypted = trimmed;
+            }
+            return ArrayCodec.encodeBytes(encrypted);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not encrypt " + key, e);
+        }
+    }
+
+    /**
+     * Decrypts a value.
+     *
+     * @param alias     the alias of the secret key
+     * @param key       the preference key the value is stored under
+     * @param encrypted the value as returned by {@link #encrypt(String, String, String)}, may be null
+     * @return the decrypted value, null if encrypted is null or could not be decrypted with the key,
+     * e.g. because it was tampered with or the key changed
+     * @throws IllegalStateException if no key is available
+     */
+    public static String decrypt(String alias, String key, String encrypted) {
+        if (encrypted == null)
+            return null;
+        final SecretKey secretKey = getKey(alias);
+        try {
+            final byte[] bytes = ArrayCodec.decodeBytes(encrypted);
+            if (bytes.length == 0)
+                return null;
+            final int ivLength = bytes[0] & 0xFF;
+            if (bytes.length < 1 + ivLength)
+                return null;
+            final Cipher cipher = sCiphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BITS, bytes, 1, ivLength));
+            cipher.updateAAD(key.getBytes(UTF_8));
+            return new String(cipher.doFinal(bytes, 1 + ivLength, bytes.length - 1 - ivLength), UTF_8);
+        } catch (GeneralSecurityException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            // not encoded by encrypt()
+            return null;
+        }
+    }
+
+    private static SecretKey getKey(String alias) {
+        SecretKey secretKey = sKeys.get(alias);
+        if (secretKey != null)
+            return secretKey;
+        final KeyProvider provider = sKeyProvider;
+        if (provider == null)
+            throw new IllegalStateException("No KeyProvider set");
+        try {
+            secretKey = provider.getKey(alias);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("No key for " + alias, e);
+        }
+        if (secretKey == null)
+            throw new IllegalStateException("No key for " + alias);
+        final SecretKey existing = sKeys.putIfAbsent(alias, secretKey);
+        return existing != null ? existing : secretKey;
+    }
+}
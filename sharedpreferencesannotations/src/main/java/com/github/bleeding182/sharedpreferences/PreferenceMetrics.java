@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences;
+
+/**
+ * <p>Sink for the metrics reported by the generated classes: reads and writes per key, how often
+ * and how long each preferences file gets written by {@code apply()} and {@code commit()}, and the time
+ * it took to load it. Comparing the writes of the keys with the applies and commits of their file shows
+ * the write amplification, since each of those rewrites the whole file.</p>
+ * <p>Reporting is disabled unless the system property {@value #PROPERTY} is set to {@code true} before
+ * this class gets loaded, e.g. first thing in {@code Application.onCreate()}. The generated code checks
+ * the constant {@link #ENABLED} which lets the JIT remove the instrumentation entirely.</p>
+ * <p>Files are reported by the name they were opened with, which is the {@code PREFERENCES_NAME} of the
+ * generated class unless another one was supplied to its constructor. Fields of a {@code @Group} are reported by
+ * the file of their group. Callbacks may be invoked on any thread, so implementations have to be thread safe.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ * @see #setSink(PreferenceMetrics)
+ */
+public abstract class PreferenceMetrics {
+
+    /**
+     * The system property enabling the metrics.
+     */
+    public static final String PROPERTY = "com.github.bleeding182.sharedpreferences.metrics";
+
+    /**
+     * Whether the generated code reports any metrics, read once from {@link #PROPERTY}.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+    private static volatile PreferenceMetrics sSink;
+
+    /**
+     * Sets the sink receiving the metrics, only used if {@link #ENABLED}.
+     *
+     * @param sink the sink to use, or null to drop all metrics
+     */
+    public static void setSink(PreferenceMetrics sink) {
+        sSink = sink;
+    }
+
+    /**
+     * @return the time to pass to {@link #reportApply(String, long)} or {@link #reportCommit(String, long)},
+     * 0 if disabled
+     */
+    public static long startTime() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    public static void reportRead(String name, String key) {
+        final PreferenceMetrics sink = sSink;
+        if (sink != null)
+            sink.onRead(name, key);
+    }
+
+    public static void reportWrite(String name, String key) {
+        final PreferenceMetrics sink = sSink;
+        if (sink != null)
+            sink.onWrite(name, key);
+    }
+
+    public static void reportApply(String name, long startTime) {
+        final PreferenceMetrics sink = sSink;
+        if (sink != null)
+            sink.onApply(name, System.nanoTime() - startTime);
+    }
+
+    public static void reportCommit(String name, long startTime) {
+        final PreferenceMetrics sink = sSink;
+        if (sink != null)
+            sink.onCommit(name, System.nanoTime() - startTime);
+    }
+
+    public static void reportLoad(String name, long nanos) {
+        final PreferenceMetrics sink = sSink;
+        if (sink != null)
+            sink.onLoad(name, nanos);
+    }
+
+    /**
+     * Called for each call to a generated getter.
+     *
+     * @param name the name of the preferences file
+     * @param key  the key read
+     */
+    public void onRead(String name, String key) {
+    }
+
+    /**
+     * Called for each value set by a generated setter or editor, skipped writes are not reported.
+     *
+     * @param name the name of the preferences file
+     * @param key  the key written
+     */
+    public void onWrite(String name, String key) {
+    }
+
+    /**
+     * Called after each {@code apply()}, which schedules a rewrite of the file.
+     *
+     * @param name  the name of the preferences file
+     * @param nanos the time {@code apply()} blocked the caller
+     */
+    public void onApply(String name, long nanos) {
+    }
+
+    /**
+     * Called after each {@code commit()}, which rewrites the file.
+     *
+     * @param name  the name of the preferences file
+     * @param nanos the time {@code commit()} blocked the caller
+     */
+    public void onCommit(String name, long nanos) {
+    }
+
+    /**
+     * Called once the file has been loaded.
+     *
+     * @param name  the name of the preferences file
+     * @param nanos the time it took to open and load the file
+     */
+    public void onLoad(String name, long nanos) {
+    }
+}
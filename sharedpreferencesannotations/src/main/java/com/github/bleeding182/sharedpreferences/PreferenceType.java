@@ -33,7 +33,12 @@ package com.github.bleeding182.sharedpreferences;
  * {@link #INTEGER}</p><p>
  * {@link #LONG}</p><p>
  * {@link #STRING}</p><p>
- * {@link #STRING_SET}</p>
+ * {@link #STRING_SET}</p><p>
+ * {@link #INT_ARRAY}</p><p>
+ * {@link #LONG_ARRAY}</p><p>
+ * {@link #BYTES}</p><p>
+ * {@link #ENUM}</p><p>
+ * {@link #CONVERTED}</p>
  *
  * @author David Medenjak
  * @version 1.0
@@ -75,10 +80,41 @@ public enum PreferenceType {
      * @see java.lang.String
      * @see java.util.Set
      */
-    STRING_SET;
+    STRING_SET,
+    /**
+     * An ordered array of ints, stored as a single encoded String.
+     *
+     * @see ArrayCodec#encodeInts(int[])
+     */
+    INT_ARRAY,
+    /**
+     * An ordered array of longs, stored as a single encoded String.
+     *
+     * @see ArrayCodec#encodeLongs(long[])
+     */
+    LONG_ARRAY,
+    /**
+     * Binary data, stored as a single encoded String.
+     *
+     * @see ArrayCodec#encodeBytes(byte[])
+     */
+    BYTES,
+    /**
+     * A constant of the enum set by {@link com.github.bleeding182.sharedpreferences.annotations.Type#enumType()},
+     * stored as an int. Every constant has to declare its
+     * {@link com.github.bleeding182.sharedpreferences.annotations.EnumId}, unless the field opts into storing
+     * the ordinal with {@link com.github.bleeding182.sharedpreferences.annotations.Type#storeByOrdinal()}.
+     */
+    ENUM,
+    /**
+     * Any type, stored as a String by the {@link PreferenceConverter} set by
+     * {@link com.github.bleeding182.sharedpreferences.annotations.Type#converter()}.
+     */
+    CONVERTED;
 
     /**
      * Method to supply the spelling for the type as a return type.
+     * {@link #ENUM} and {@link #CONVERTED} use the class of their values instead.
      *
      * @return the type as String usable for method declarations.
      */
@@ -96,12 +132,19 @@ public enum PreferenceType {
                 return "String";
             case STRING_SET:
                 return "Set<String>";
+            case INT_ARRAY:
+                return "int[]";
+            case LONG_ARRAY:
+                return "long[]";
+            case BYTES:
+                return "byte[]";
         }
         return "Object";
     }
 
     /**
      * Method to supply the type as a String used for the getter methods. e.g. <em>getString()</em>
+     * Encoded types use the methods of the String they are stored as.
      *
      * @return the type as String, CamelCase.
      */
@@ -112,14 +155,29 @@ public enum PreferenceType {
             case FLOAT:
                 return "Float";
             case INTEGER:
+            case ENUM:
                 return "Int";
             case LONG:
                 return "Long";
             case STRING:
+            case INT_ARRAY:
+            case LONG_ARRAY:
+            case BYTES:
+            case CONVERTED:
                 return "String";
             case STRING_SET:
                 return "StringSet";
         }
         return "Object";
     }
+
+    /**
+     * Types not supported by SharedPreferences are stored as a String encoded by {@link ArrayCodec}
+     * or a {@link PreferenceConverter}.
+     *
+     * @return true if the values are stored encoded.
+     */
+    public boolean isEncoded() {
+        return this == INT_ARRAY || this == LONG_ARRAY || this == BYTES || this == CONVERTED;
+    }
 }
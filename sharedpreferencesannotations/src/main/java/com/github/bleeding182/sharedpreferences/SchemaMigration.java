@@ -0,0 +1,259 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences;
+
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * <p>Converts the stored values of migrated preferences, used by the generated {@code migrate(PreferenceStore)}.</p>
+ * Values are converted as they are stored, thus {@link PreferenceType#ENUM} is an int id and the other types
+ * not supported by SharedPreferences are their encoded Strings.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ * @see com.github.bleeding182.sharedpreferences.annotations.MigratedFrom
+ */
+public final class SchemaMigration {
+
+    private SchemaMigration() {
+    }
+
+    /**
+     * <p>Converts a stored value to be stored as another type.</p>
+     * Numbers are converted if they fit the new type without loss, Strings are parsed, and a String becomes
+     * a set holding only itself. Encoded types can only be converted from and to {@link PreferenceType#STRING}
+     * and between {@link PreferenceType#INT_ARRAY} and {@link PreferenceType#LONG_ARRAY}, Strings are only
+     * converted to arrays or bytes if they hold values encoded by {@link ArrayCodec}. The ids of enums are
+     * only converted to numbers, see {@link #toEnum(Object, Class)} to convert the names of constants.
+     *
+     * @param value the stored value, may be null
+     * @param from  the type the value was stored as
+     * @param to    the type to store the value as
+     * @return the value to store, or null if it could not be converted
+     */
+    public static Object convert(Object value, PreferenceType from, PreferenceType to) {
+        if (!isStoredAs(value, from))
+            return null;
+        if (from == to || (from == PreferenceType.ENUM && to == PreferenceType.INTEGER)
+                || (from == PreferenceType.INTEGER && to == PreferenceType.ENUM))
+            return value;
+        if (from == PreferenceType.ENUM && to != PreferenceType.LONG)
+            return null;
+        try {
+            switch (to) {
+                case BOOLEAN:
+                    return toBoolean(value);
+                case FLOAT:
+                    return toFloat(value);
+                case INTEGER:
+                case ENUM:
+                    return toInt(value);
+                case LONG:
+                    return toLong(value);
+                case STRING:
+                    return from.isEncoded() || !(value instanceof Set) ? String.valueOf(value) : null;
+                case STRING_SET:
+                    return value instanceof String ? Collections.singleton((String) value) : null;
+                case INT_ARRAY:
+                    if (from == PreferenceType.LONG_ARRAY)
+                        return ArrayCodec.encodeInts(toInts(ArrayCodec.decodeLongs((String) value)));
+                    if (from != PreferenceType.STRING)
+                        return null;
+                    // only a String holding encoded values can be kept, decoding throws for any other
+                    ArrayCodec.decodeInts((String) value);
+                    return value;
+                case LONG_ARRAY:
+                    if (from == PreferenceType.INT_ARRAY)
+                        return ArrayCodec.encodeLongs(toLongs(ArrayCodec.decodeInts((String) value)));
+                    if (from != PreferenceType.STRING)
+                        return null;
+                    ArrayCodec.decodeLongs((String) value);
+                    return value;
+                case BYTES:
+                    if (from != PreferenceType.STRING)
+                        return null;
+                    ArrayCodec.decodeBytes((String) value);
+                    return value;
+                default:
+                    // converted values can only be checked by their converter
+                    return from == PreferenceType.STRING ? value : null;
+            }
+        } catch (IllegalArgumentException e) {
+            // unparseable Strings and corrupt encodings
+            return null;
+        }
+    }
+
+    /**
+     * Looks up an enum constant by its name.
+     *
+     * @param value the stored value
+     * @param type  the class of the enum
+     * @param <E>   the type of the enum
+     * @return the constant named by value, or null if value is no String or no such constant exists
+     */
+    public static <E extends Enum<E>> E toEnum(Object value, Class<E> type) {
+        if (!(value instanceof String))
+            return null;
+        try {
+            return Enum.valueOf(type, ((String) value).trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param value the stored value, may be null
+     * @param type  the type to check
+     * @return true if value is stored like values of type, thus is no value of another type
+     */
+    public static boolean isStoredAs(Object value, PreferenceType type) {
+        return value != null && getStoredClass(type).isInstance(value);
+    }
+
+    /**
+     * Puts a value as returned by {@link #convert(Object, PreferenceType, PreferenceType)}.
+     *
+     * @param editor the editor to put the value with
+     * @param key    the key to store the value under
+     * @param value  the value, removing the key if null
+     */
+    @SuppressWarnings("unchecked")
+    public static void put(PreferenceStore.Editor editor, String key, Object value) {
+        if (value == null)
+            editor.remove(key);
+        else if (value instanceof String)
+            editor.putString(key, (String) value);
+        else if (value instanceof Integer)
+            editor.putInt(key, (Integer) value);
+        else if (value instanceof Long)
+            editor.putLong(key, (Long) value);
+        else if (value instanceof Float)
+            editor.putFloat(key, (Float) value);
+        else if (value instanceof Boolean)
+            editor.putBoolean(key, (Boolean) value);
+        else if (value instanceof Set)
+            editor.putStringSet(key, (Set<String>) value);
+        else
+            throw new IllegalArgumentException("Unsupported value " + value.getClass().getName());
+    }
+
+    private static Class<?> getStoredClass(PreferenceType type) {
+        switch (type) {
+            case BOOLEAN:
+                return Boolean.class;
+            case FLOAT:
+                return Float.class;
+            case INTEGER:
+            case ENUM:
+                return Integer.class;
+            case LONG:
+                return Long.class;
+            case STRING_SET:
+                return Set.class;
+            default:
+                return String.class;
+        }
+    }
+
+    private static Boolean toBoolean(Object value) {
+        if (value instanceof Boolean)
+            return (Boolean) value;
+        if (value instanceof Integer || value instanceof Long)
+            return ((Number) value).longValue() != 0;
+        if (value instanceof String) {
+            final String string = ((String) value).trim();
+            if (string.equalsIgnoreCase("true"))
+                return Boolean.TRUE;
+            if (string.equalsIgnoreCase("false"))
+                return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    private static Float toFloat(Object value) {
+        if (value instanceof Integer || value instanceof Long) {
+            final long longValue = ((Number) value).longValue();
+            final float f = longValue;
+            // large numbers are rounded to the nearest float
+            if (f >= Long.MAX_VALUE || (long) f != longValue)
+                return null;
+            return f;
+        }
+        if (value instanceof Boolean)
+            return (Boolean) value ? 1f : 0f;
+        if (value instanceof String)
+            return Float.parseFloat(((String) value).trim());
+        return null;
+    }
+
+    private static Integer toInt(Object value) {
+        final Long longValue = toLong(value);
+        if (longValue == null || longValue < Integer.MIN_VALUE || longValue > Integer.MAX_VALUE)
+            return null;
+        return longValue.intValue();
+    }
+
+    private static Long toLong(Object value) {
+        if (value instanceof Integer || value instanceof Long)
+            return ((Number) value).longValue();
+        if (value instanceof Float) {
+            final float f = (Float) value;
+            // only whole numbers are converted
+            if (f != Math.rint(f) || f < Long.MIN_VALUE || f >= Long.MAX_VALUE)
+                return null;
+            return (long) f;
+        }
+        if (value instanceof Boolean)
+            return (Boolean) value ? 1L : 0L;
+        if (value instanceof String)
+            return Long.parseLong(((String) value).trim());
+        return null;
+    }
+
+    private static int[] toInts(long[] values) {
+        if (values == null)
+            return null;
+        int[] ints = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] < Integer.MIN_VALUE || values[i] > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Value out of range " + values[i]);
+            ints[i] = (int) values[i];
+        }
+        return ints;
+    }
+
+    private static long[] toLongs(int[] values) {
+        if (values == null)
+            return null;
+        long[] longs = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            longs[i] = values[i];
+        }
+        return longs;
+    }
+}
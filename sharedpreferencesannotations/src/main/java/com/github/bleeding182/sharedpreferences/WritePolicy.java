@@ -0,0 +1,50 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences;
+
+/**
+ * Defines how the generated setters of the annotated fields write their values.
+ * <p>
+ * {@link #IMMEDIATE}</p><p>
+ * {@link #COALESCE}</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ * @see com.github.bleeding182.sharedpreferences.annotations.SharedPreference#writePolicy()
+ */
+public enum WritePolicy {
+    /**
+     * Every call to a setter edits the preferences and applies the change on its own.
+     */
+    IMMEDIATE,
+    /**
+     * Setters buffer their values, which will be written together with a single {@code apply()}
+     * once no other value has been set for
+     * {@link com.github.bleeding182.sharedpreferences.annotations.SharedPreference#flushDelayMs()}
+     * milliseconds, or when {@code flush()} gets called. Buffered values are visible to all reads
+     * of the generated class.
+     */
+    COALESCE
+}
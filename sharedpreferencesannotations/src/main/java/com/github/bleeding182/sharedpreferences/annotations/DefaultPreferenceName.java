@@ -40,7 +40,7 @@ import java.lang.annotation.Target;
  * <p>Probable use for using the same preference file on multiple locations.</p>
  */
 
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 @Target(ElementType.TYPE)
 public @interface DefaultPreferenceName {
     /**
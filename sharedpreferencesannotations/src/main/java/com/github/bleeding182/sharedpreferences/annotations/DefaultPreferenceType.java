@@ -39,7 +39,7 @@ import java.lang.annotation.Target;
  * @author David Medenjak
  * @version 1.0
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 @Target(ElementType.TYPE)
 public @interface DefaultPreferenceType {
     /**
@@ -39,12 +39,13 @@ import java.lang.annotation.Target;
  * @author David Medenjak
  * @version 1.0
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 @Target(ElementType.FIELD)
 public @interface DefaultValue {
     /**
      * <p>Supplies the default value to use for a preference in String format. e.g. "3.0f", "hi", ...</p>
      * Currently the support is somewhat limited, as it will not parse or check the entered text.
+     * Only the names of enum constants are checked, e.g. "FAST".
      *
      * @return the value to use as String.
      */
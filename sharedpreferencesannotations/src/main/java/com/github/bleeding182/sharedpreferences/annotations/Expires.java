@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Lets the value of the annotated field expire after the set duration.</p>
+ * <p>The setters store the time of the write under the key of the field with {@link #TIMESTAMP_SUFFIX} appended,
+ * within the same edit as the value. Once the duration passed the getters return the default value, and the
+ * generated {@code evictExpired()} removes the value with the next batch. Values without a time of their write,
+ * e.g. stored before the field expired or by the untyped methods, are expired.</p>
+ * {@code @Expires(value = 30, unit = TimeUnit.MINUTES)}
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Expires {
+    /**
+     * Appended to the key of the field to get the key of the time of the write.
+     */
+    String TIMESTAMP_SUFFIX = "__written_at";
+
+    /**
+     * The duration after which the value expires.
+     *
+     * @return the duration, in {@link #unit()}
+     */
+    long value();
+
+    /**
+     * The unit of {@link #value()}.
+     *
+     * @return the unit, milliseconds by default.
+     */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations;
+
+import com.github.bleeding182.sharedpreferences.PreferenceType;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Declares where the value of the annotated field was stored by an older version of the schema.
+ * Requires a {@link SchemaVersion} on the interface.</p>
+ * <p>On migration a value stored under {@link #key()} as {@link #type()} is converted to the type of the field
+ * and moved to the key of the field, unless the field already has a value. Values which cannot be converted,
+ * e.g. a String which is no number, are removed. Enums are converted from the name of a constant or
+ * its stored id.</p>
+ * {@code @MigratedFrom(key = "user_name", type = PreferenceType.STRING)}
+ *
+ * @author David Medenjak
+ * @version 1.0
+ * @see com.github.bleeding182.sharedpreferences.SchemaMigration
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface MigratedFrom {
+    /**
+     * The key the value was stored under.
+     *
+     * @return the old key, the key of the field if not set, to change only the type.
+     */
+    String key() default SharedPreference.EMPTY;
+
+    /**
+     * The type the value was stored as.
+     *
+     * @return the old type
+     */
+    PreferenceType type();
+}
@@ -24,6 +24,8 @@
 
 package com.github.bleeding182.sharedpreferences.annotations;
 
+import com.github.bleeding182.sharedpreferences.WritePolicy;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -39,7 +41,7 @@ import java.lang.annotation.Target;
  * or {@link #editorSuffix()}.</p>
  */
 
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 @Target(ElementType.TYPE)
 public @interface SharedPreference {
     /**
@@ -78,4 +80,42 @@ public @interface SharedPreference {
      * @return the packagename of the generated class. By default the package of the annotated interface will be used.
      */
     String packagename() default EMPTY;
+
+    /**
+     * <p>Set this property to cache the values of the annotated fields in the generated class.</p>
+     * <p>A value is read from the preferences on first access and kept in a typed field until it
+     * changes, so a repeated read is just a field access. A single internal
+     * {@code OnSharedPreferenceChangeListener} invalidates the cached values.</p>
+     * <p>Sets returned by cached {@code STRING_SET} getters are unmodifiable.</p>
+     *
+     * @return true to cache the values, false by default.
+     */
+    boolean cacheValues() default false;
+
+    /**
+     * <p>Set this property to change how the generated setters write their values.</p>
+     * <p>By using {@link WritePolicy#COALESCE} a burst of calls to the setters will be written
+     * with a single {@code apply()}.</p>
+     *
+     * @return the policy to use, {@link WritePolicy#IMMEDIATE} by default.
+     */
+    WritePolicy writePolicy() default WritePolicy.IMMEDIATE;
+
+    /**
+     * The time in milliseconds without any further call to a setter after which buffered values
+     * get written. Only used with {@link WritePolicy#COALESCE}.
+     *
+     * @return the delay, {@code 100} by default.
+     */
+    long flushDelayMs() default 100;
+
+    /**
+     * <p>Set this property to drop writes of values the preferences already hold.</p>
+     * <p>The setters and the editor compare each new value with the current one, using the cached
+     * values if {@link #cacheValues()} is set. If no value changed, {@code apply()} and {@code commit()}
+     * of the editor neither write nor notify any listeners.</p>
+     *
+     * @return true to skip unchanged values, false by default.
+     */
+    boolean skipUnchangedWrites() default false;
 }
@@ -34,12 +34,14 @@ import java.lang.annotation.Target;
 /**
  * <p>The preferences type of this single property.
  * The getter and setter will be genereated with the supplied type.</p>
- * Supported types are of {@link com.github.bleeding182.sharedpreferences.PreferenceType}
+ * Supported types are of {@link com.github.bleeding182.sharedpreferences.PreferenceType}, enums are
+ * declared by {@code @Type(value = PreferenceType.ENUM, enumType = Mode.class)}, any other class by
+ * {@code @Type(value = PreferenceType.CONVERTED, converter = ProfileConverter.class)}.
  *
  * @author David Medenjak
  * @version 1.0
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 @Target(ElementType.FIELD)
 public @interface Type {
     /**
@@ -55,4 +57,33 @@ public @interface Type {
      * @return the prefix for the getter, "is" by default.
      */
     String booleanPrefix() default "is";
+
+    /**
+     * <p><b>if</b> the type is {@link PreferenceType#ENUM}, the enum class of the values.</p>
+     * <p>The value for {@link DefaultValue} has to be the name of one of its constants.</p>
+     *
+     * @return the enum class, {@code Void.class} if not set.
+     * @see EnumId
+     */
+    Class<?> enumType() default Void.class;
+
+    /**
+     * <p><b>if</b> the type is {@link PreferenceType#ENUM}, stores the ordinal of the constants instead of
+     * their {@link EnumId}.</p>
+     * <p>Reordering or inserting constants then changes the meaning of stored values, so this is only meant
+     * for values stored this way before.</p>
+     *
+     * @return true to store the ordinal, false by default.
+     */
+    boolean storeByOrdinal() default false;
+
+    /**
+     * <p><b>if</b> the type is {@link PreferenceType#CONVERTED}, the
+     * {@link com.github.bleeding182.sharedpreferences.PreferenceConverter} of the values.
+     * It needs a public constructor without parameters.</p>
+     * <p>The value for {@link DefaultValue} is inserted as a Java expression.</p>
+     *
+     * @return the converter class, {@code Void.class} if not set.
+     */
+    Class<?> converter() default Void.class;
 }
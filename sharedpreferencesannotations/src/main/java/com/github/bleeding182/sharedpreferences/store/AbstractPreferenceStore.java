@@ -0,0 +1,186 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>Base class for stores, handling the listeners and the collection of changes by the editor.</p>
+ * Subclasses implement the reads and {@link #write(boolean, Map, boolean, List)}.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public abstract class AbstractPreferenceStore implements PreferenceStore {
+
+    private final List<OnChangeListener> mListeners = new CopyOnWriteArrayList<OnChangeListener>();
+
+    /**
+     * Writes the changes collected by an editor.
+     *
+     * @param clear       whether all values have to be removed before applying the changes
+     * @param changes     the new values by key, {@code null} for values to remove. Only valid during the call.
+     * @param commit      true if called by {@link Editor#commit()}, thus the changes have to be persisted before returning
+     * @param changedKeys the keys of the values that actually changed have to be added here,
+     *                    {@code null} if the store was cleared
+     * @return true if the new values were successfully persisted
+     */
+    protected abstract boolean write(boolean clear, Map<String, Object> changes, boolean commit, List<String> changedKeys);
+
+    @Override
+    public PreferenceStore.Editor edit() {
+        return new Editor();
+    }
+
+    @Override
+    public void registerOnChangeListener(OnChangeListener listener) {
+        if (!mListeners.contains(listener))
+            mListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterOnChangeListener(OnChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Notifies the listeners about changed values, on the calling thread.
+     *
+     * @param changedKeys the keys of the values that changed, {@code null} if the store was cleared
+     */
+    protected void notifyListeners(List<String> changedKeys) {
+        if (mListeners.isEmpty())
+            return;
+        for (String key : changedKeys) {
+            for (OnChangeListener listener : mListeners) {
+                listener.onChanged(this, key);
+            }
+        }
+    }
+
+    /**
+     * Checks that a value is of a type supported by stores, copying sets into unmodifiable ones.
+     *
+     * @param value the value to check
+     * @return the value to store
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    protected static Object checkValue(Object value) {
+        if (value instanceof Set) {
+            Set<String> set = new HashSet<String>();
+            for (Object item : (Set<?>) value) {
+                set.add((String) item);
+            }
+            return Collections.unmodifiableSet(set);
+        }
+        if (value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Float || value instanceof Boolean)
+            return value;
+        throw new IllegalArgumentException("Unsupported value " + value);
+    }
+
+    private class Editor implements PreferenceStore.Editor {
+        private final Map<String, Object> mModified = new HashMap<String, Object>();
+        private boolean mClear;
+
+        private synchronized PreferenceStore.Editor put(String key, Object value) {
+            mModified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public PreferenceStore.Editor putString(String key, String value) {
+            return put(key, value);
+        }
+
+        @Override
+        public PreferenceStore.Editor putStringSet(String key, Set<String> values) {
+            return put(key, values != null ? checkValue(values) : null);
+        }
+
+        @Override
+        public PreferenceStore.Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+
+        @Override
+        public PreferenceStore.Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+
+        @Override
+        public PreferenceStore.Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+
+        @Override
+        public PreferenceStore.Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+
+        @Override
+        public PreferenceStore.Editor remove(String key) {
+            return put(key, null);
+        }
+
+        @Override
+        public synchronized PreferenceStore.Editor clear() {
+            mClear = true;
+            return this;
+        }
+
+        private boolean write(boolean commit) {
+            final List<String> changedKeys = new ArrayList<String>();
+            final boolean result;
+            synchronized (this) {
+                // the changes are only used while writing, so they do not need to be copied
+                try {
+                    result = AbstractPreferenceStore.this.write(mClear, mModified, commit, changedKeys);
+                } finally {
+                    mModified.clear();
+                    mClear = false;
+                }
+            }
+            notifyListeners(changedKeys);
+            return result;
+        }
+
+        @Override
+        public boolean commit() {
+            return write(true);
+        }
+
+        @Override
+        public void apply() {
+            write(false);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>A {@link PreferenceStore} loading the store it delegates to on an {@link Executor}.</p>
+ * <p>Creating it does not block. Reads and {@link #edit()} wait until the loading finished,
+ * so they only block if called too early. Listeners registered before are kept and registered
+ * once the store is loaded, they receive the loaded store when notified.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class DeferredPreferenceStore implements PreferenceStore {
+
+    private final FutureTask<PreferenceStore> mTask;
+    private final List<OnChangeListener> mPendingListeners = new ArrayList<OnChangeListener>();
+    private volatile PreferenceStore mStore;
+    private volatile long mLoadTimeNanos = -1;
+
+    /**
+     * Starts loading the store.
+     *
+     * @param loader   the task creating the store, e.g. {@link SharedPreferencesStore#loader(android.content.Context, String)}
+     * @param executor the executor to run the loader on
+     */
+    public DeferredPreferenceStore(final Callable<? extends PreferenceStore> loader, Executor executor) {
+        mTask = new FutureTask<PreferenceStore>(new Callable<PreferenceStore>() {
+            @Override
+            public PreferenceStore call() throws Exception {
+                final long start = System.nanoTime();
+                PreferenceStore store = loader.call();
+                if (store == null)
+                    throw new NullPointerException("loader returned null");
+                mLoadTimeNanos = System.nanoTime() - start;
+                synchronized (mPendingListeners) {
+                    for (OnChangeListener listener : mPendingListeners) {
+                        store.registerOnChangeListener(listener);
+                    }
+                    mPendingListeners.clear();
+                    mStore = store;
+                }
+                return store;
+            }
+        });
+        executor.execute(mTask);
+    }
+
+    /**
+     * @return true if the store is loaded, thus calls will not block.
+     */
+    public boolean isLoaded() {
+        return mStore != null;
+    }
+
+    /**
+     * @return the time in nanoseconds the loader took, or {@code -1} if it has not yet finished.
+     */
+    public long getLoadTimeNanos() {
+        return mLoadTimeNanos;
+    }
+
+    /**
+     * Waits for the loaded store. Interrupts get deferred until it is available, like the
+     * SharedPreferences do when waiting for their file.
+     *
+     * @return the loaded store
+     * @throws IllegalStateException if loading failed
+     */
+    public PreferenceStore getStore() {
+        PreferenceStore store = mStore;
+        if (store != null)
+            return store;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return mTask.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Loading the preferences failed", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return getStore().getAll();
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return getStore().getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return getStore().getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return getStore().getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return getStore().getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return getStore().getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return getStore().getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return getStore().contains(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return getStore().edit();
+    }
+
+    @Override
+    public void registerOnChangeListener(OnChangeListener listener) {
+        synchronized (mPendingListeners) {
+            if (mStore == null) {
+                if (!mPendingListeners.contains(listener))
+                    mPendingListeners.add(listener);
+                return;
+            }
+        }
+        mStore.registerOnChangeListener(listener);
+    }
+
+    @Override
+    public void unregisterOnChangeListener(OnChangeListener listener) {
+        synchronized (mPendingListeners) {
+            if (mStore == null) {
+                mPendingListeners.remove(listener);
+                return;
+            }
+        }
+        mStore.unregisterOnChangeListener(listener);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Assignment of preference keys to groups, each of them kept in a store of its own.</p>
+ * <p>Keys without a group belong to the {@link #DEFAULT_GROUP}. Generated classes provide their
+ * layout by {@code createGroupLayout()}, as declared by
+ * {@link com.github.bleeding182.sharedpreferences.annotations.Group}, to be used with a
+ * {@link GroupedPreferenceStore}.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public final class GroupLayout {
+
+    /**
+     * The name of the group holding all keys without a group.
+     */
+    public static final String DEFAULT_GROUP = "";
+
+    private final List<String> mGroups;
+    private final Map<String, Integer> mKeys;
+
+    private GroupLayout(List<String> groups, Map<String, Integer> keys) {
+        mGroups = Collections.unmodifiableList(groups);
+        mKeys = keys;
+    }
+
+    /**
+     * Creates a builder for a new layout.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The name of the file holding a group.
+     *
+     * @param name  the name of the file of the default group
+     * @param group the name of the group
+     * @return {@code name} for the default group, {@code name_group} otherwise
+     */
+    public static String getFileName(String name, String group) {
+        return group.equals(DEFAULT_GROUP) ? name : name + "_" + group;
+    }
+
+    /**
+     * Checks whether the name can be used for a group, thus as part of a file name.
+     *
+     * @param group the name of the group
+     * @return true if it is not empty and consists of letters, digits and underscores
+     */
+    public static boolean isValidName(String group) {
+        if (group.isEmpty())
+            return false;
+        for (int i = 0; i < group.length(); i++) {
+            final char c = group.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_'))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the names of the groups, starting with the {@link #DEFAULT_GROUP}
+     */
+    public List<String> getGroups() {
+        return mGroups;
+    }
+
+    /**
+     * @param key the key of the preference
+     * @return the name of the group of the key
+     */
+    public String getGroup(String key) {
+        return mGroups.get(indexOf(key));
+    }
+
+    int indexOf(String key) {
+        Integer index = mKeys.get(key);
+        return index != null ? index : 0;
+    }
+
+    int indexOfGroup(String group) {
+        return mGroups.indexOf(group);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof GroupLayout))
+            return false;
+        GroupLayout layout = (GroupLayout) o;
+        return mGroups.equals(layout.mGroups) && mKeys.equals(layout.mKeys);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mGroups.hashCode() + mKeys.hashCode();
+    }
+
+    /**
+     * Builder for a {@link GroupLayout}.
+     */
+    public static final class Builder {
+        private final List<String> mGroups = new ArrayList<String>();
+        private final Map<String, Integer> mKeys = new LinkedHashMap<String, Integer>();
+
+        private Builder() {
+            mGroups.add(DEFAULT_GROUP);
+        }
+
+        /**
+         * Adds a key to a group, creating the group if it does not exist yet.
+         *
+         * @param key   the key of the preference
+         * @param group the name of the group, letters, digits and underscores only
+         * @return this builder
+         * @throws IllegalArgumentException if the key was already added or the name is invalid
+         */
+        public Builder add(String key, String group) {
+            if (mKeys.containsKey(key))
+                throw new IllegalArgumentException("Duplicate key " + key);
+            if (!isValidName(group))
+                throw new IllegalArgumentException("Invalid group name " + group);
+            int index = mGroups.indexOf(group);
+            if (index < 0) {
+                index = mGroups.size();
+                mGroups.add(group);
+            }
+            mKeys.put(key, index);
+            return this;
+        }
+
+        /**
+         * @return the layout of the added keys
+         */
+        public GroupLayout build() {
+            return new GroupLayout(new ArrayList<String>(mGroups), new HashMap<String, Integer>(mKeys));
+        }
+    }
+}
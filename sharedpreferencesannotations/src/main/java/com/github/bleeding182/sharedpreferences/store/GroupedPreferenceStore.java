@@ -0,0 +1,246 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>A {@link PreferenceStore} keeping each group of a {@link GroupLayout} in a store of its own.</p>
+ * <p>The store of a group is opened on the first access to one of its keys, so values which are
+ * not needed are never loaded. An editor only writes to the stores of the groups it changes,
+ * thus a frequently changing value does not rewrite the rarely changing ones of other groups.
+ * Changes spanning several groups are written group by group, {@link Editor#commit()} returns
+ * false if any of them failed.</p>
+ * <p>Listeners are notified about the changes of every opened group, {@code null} if one
+ * of them was cleared. {@link #getAll()} and {@link Editor#clear()} open all groups.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class GroupedPreferenceStore extends AbstractPreferenceStore {
+
+    /**
+     * Opens the store of a group.
+     */
+    public interface Factory {
+        /**
+         * Called once for every group, on the first access to one of its keys.
+         *
+         * @param group the name of the group, {@link GroupLayout#DEFAULT_GROUP} for keys without one
+         * @return the store of the group
+         * @throws IOException if the store can not be opened
+         */
+        PreferenceStore open(String group) throws IOException;
+    }
+
+    private final GroupLayout mLayout;
+    private final Factory mFactory;
+    private final AtomicReferenceArray<PreferenceStore> mStores;
+    private final OnChangeListener mListener = new OnChangeListener() {
+        @Override
+        public void onChanged(PreferenceStore store, String key) {
+            notifyListeners(Collections.singletonList(key));
+        }
+    };
+
+    /**
+     * Creates the store without opening any group.
+     *
+     * @param layout  the groups of the keys, e.g. {@code createGroupLayout()} of a generated class
+     * @param factory the factory opening the store of a group
+     */
+    public GroupedPreferenceStore(GroupLayout layout, Factory factory) {
+        mLayout = layout;
+        mFactory = factory;
+        mStores = new AtomicReferenceArray<PreferenceStore>(layout.getGroups().size());
+    }
+
+    /**
+     * @return the layout of the groups
+     */
+    public GroupLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Returns the store of a group, opening it if necessary.
+     *
+     * @param group the name of the group
+     * @return the store of the group
+     * @throws IllegalArgumentException if the group is not part of the layout
+     * @throws IllegalStateException    if opening the store failed
+     */
+    public PreferenceStore getGroup(String group) {
+        final int index = mLayout.indexOfGroup(group);
+        if (index < 0)
+            throw new IllegalArgumentException("Unknown group " + group);
+        return getStore(index);
+    }
+
+    /**
+     * @param group the name of the group
+     * @return true if the store of the group was opened
+     */
+    public boolean isOpened(String group) {
+        final int index = mLayout.indexOfGroup(group);
+        return index >= 0 && mStores.get(index) != null;
+    }
+
+    private PreferenceStore getStore(int index) {
+        PreferenceStore store = mStores.get(index);
+        if (store != null)
+            return store;
+        synchronized (mStores) {
+            store = mStores.get(index);
+            if (store != null)
+                return store;
+            final String group = mLayout.getGroups().get(index);
+            try {
+                store = mFactory.open(group);
+            } catch (IOException e) {
+                throw new IllegalStateException("Opening the preferences of group '" + group + "' failed", e);
+            }
+            if (store == null)
+                throw new NullPointerException("factory returned null");
+            store.registerOnChangeListener(mListener);
+            mStores.set(index, store);
+            return store;
+        }
+    }
+
+    private PreferenceStore getStore(String key) {
+        return getStore(mLayout.indexOf(key));
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (int i = 0; i < mStores.length(); i++) {
+            values.putAll(getStore(i).getAll());
+        }
+        return values;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return getStore(key).getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return getStore(key).getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return getStore(key).getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return getStore(key).getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return getStore(key).getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return getStore(key).getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return getStore(key).contains(key);
+    }
+
+    @Override
+    protected boolean write(boolean clear, Map<String, Object> changes, boolean commit, List<String> changedKeys) {
+        // the listeners get notified by the stores of the groups
+        final int count = mStores.length();
+        List<Map<String, Object>> groups = new ArrayList<Map<String, Object>>(Collections.<Map<String, Object>>nCopies(count, null));
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            final int index = mLayout.indexOf(entry.getKey());
+            Map<String, Object> group = groups.get(index);
+            if (group == null) {
+                group = new HashMap<String, Object>();
+                groups.set(index, group);
+            }
+            group.put(entry.getKey(), entry.getValue());
+        }
+        boolean result = true;
+        for (int i = 0; i < count; i++) {
+            final Map<String, Object> group = groups.get(i);
+            if (group == null && !clear)
+                continue;
+            final PreferenceStore.Editor editor;
+            try {
+                editor = getStore(i).edit();
+            } catch (IllegalStateException e) {
+                result = false;
+                continue;
+            }
+            if (clear)
+                editor.clear();
+            if (group != null) {
+                for (Map.Entry<String, Object> entry : group.entrySet()) {
+                    put(editor, entry.getKey(), entry.getValue());
+                }
+            }
+            if (commit)
+                result &= editor.commit();
+            else
+                editor.apply();
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(PreferenceStore.Editor editor, String key, Object value) {
+        if (value == null)
+            editor.remove(key);
+        else if (value instanceof String)
+            editor.putString(key, (String) value);
+        else if (value instanceof Integer)
+            editor.putInt(key, (Integer) value);
+        else if (value instanceof Long)
+            editor.putLong(key, (Long) value);
+        else if (value instanceof Float)
+            editor.putFloat(key, (Float) value);
+        else if (value instanceof Boolean)
+            editor.putBoolean(key, (Boolean) value);
+        else
+            editor.putStringSet(key, (Set<String>) value);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.store;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>A {@link PreferenceStore} keeping its values in memory only.</p>
+ * <p>Useful for tests and benchmarks on a plain JVM. Reads do not lock, since every change
+ * replaces the map of values. Listeners are notified on the thread committing the change.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class InMemoryPreferenceStore extends AbstractPreferenceStore {
+
+    private final Object mLock = new Object();
+    private volatile Map<String, Object> mValues;
+
+    /**
+     * Creates an empty store.
+     */
+    public InMemoryPreferenceStore() {
+        mValues = Collections.emptyMap();
+    }
+
+    /**
+     * Creates a store holding the supplied values.
+     *
+     * @param values the initial values, of the types supported by the store
+     */
+    public InMemoryPreferenceStore(Map<String, ?> values) {
+        Map<String, Object> copy = new HashMap<String, Object>();
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            copy.put(entry.getKey(), checkValue(entry.getValue()));
+        }
+        mValues = copy;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<String, Object>(mValues);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (String) value : defValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = mValues.get(key);
+        return value != null ? (Set<String>) value : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Integer) value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Long) value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Float) value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    protected boolean write(boolean clear, Map<String, Object> changes, boolean commit, List<String> changedKeys) {
+        synchronized (mLock) {
+            Map<String, Object> values;
+            if (clear) {
+                if (!mValues.isEmpty())
+                    changedKeys.add(null);
+                values = new HashMap<String, Object>();
+            } else {
+                values = new HashMap<String, Object>(mValues);
+            }
+            if (applyChanges(values, changes, changedKeys))
+                mValues = values;
+        }
+        return true;
+    }
+
+    /**
+     * Applies the changes to the map of values.
+     *
+     * @param values      the values to modify
+     * @param changes     the new values by key, {@code null} for values to remove
+     * @param changedKeys the keys of the values that actually changed get added here
+     * @return true if any value changed
+     */
+    static boolean applyChanges(Map<String, Object> values, Map<String, Object> changes, List<String> changedKeys) {
+        boolean changed = !changedKeys.isEmpty();
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            final String key = entry.getKey();
+            final Object value = entry.getValue();
+            if (value == null) {
+                if (values.remove(key) == null)
+                    continue;
+            } else if (value.equals(values.put(key, value))) {
+                continue;
+            }
+            changedKeys.add(key);
+            changed = true;
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * <p>A {@link PreferenceStore} appending every change to a log, instead of rewriting all values.</p>
+ * <p>Each {@link Editor#apply()} or {@link Editor#commit()} appends a single record holding only the
+ * values that changed, protected by a checksum. Opening the store reads the last snapshot of all
+ * values and replays the log. Records which were only partially written, e.g. because the process
+ * died while appending, are detected by their checksum and dropped, together with everything after them.</p>
+ * <p>Once the log grows past a threshold it is compacted on the supplied {@link Executor}: a new log
+ * is started and a snapshot of the values is written next to the file, replacing the old one,
+ * before the previous log gets deleted. Replaying a log onto a snapshot already containing its
+ * changes does not alter any value, so the store is consistent after a crash at any point.</p>
+ * <p>{@link Editor#apply()} leaves writing the record to the operating system, so the values are kept
+ * if the process dies. {@link Editor#commit()} additionally forces it to the device.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class LogPreferenceStore extends AbstractPreferenceStore {
+
+    /**
+     * The size in bytes of the log after which it gets compacted, unless specified otherwise.
+     */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 64 * 1024;
+
+    private static final int MAGIC = 0x53504c53;
+    private static final int LOG_MAGIC = 0x53504c4c;
+    private static final int VERSION = 1;
+    private static final int LOG_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte REMOVED = 0;
+    private static final byte PRESENT = 1;
+
+    private final File mFile;
+    private final File mLogFile;
+    private final File mOldLogFile;
+    private final Executor mExecutor;
+    private final long mThreshold;
+    private final Object mLock = new Object();
+    private volatile Map<String, Object> mValues;
+    private RandomAccessFile mLog;
+    private long mLogSize;
+    private boolean mCompacting;
+
+    /**
+     * Opens the store with the {@link #DEFAULT_COMPACTION_THRESHOLD}, creating the files if they do not exist.
+     *
+     * @param file     the file holding the snapshot, the log is kept in {@code file.log}
+     * @param executor the executor to compact the log on
+     * @throws IOException if the files can not be read or created, or are not valid
+     */
+    public LogPreferenceStore(File file, Executor executor) throws IOException {
+        this(file, executor, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the store, creating the files if they do not exist.
+     *
+     * @param file                the file holding the snapshot, the log is kept in {@code file.log}
+     * @param executor            the executor to compact the log on
+     * @param compactionThreshold the size of the log in bytes after which it gets compacted
+     * @throws IOException if the files can not be read or created, or are not valid
+     */
+    public LogPreferenceStore(File file, Executor executor, long compactionThreshold) throws IOException {
+        if (compactionThreshold <= 0)
+            throw new IllegalArgumentException("compactionThreshold must be positive");
+        mFile = file;
+        mLogFile = new File(file.getPath() + ".log");
+        mOldLogFile = new File(file.getPath() + ".log.old");
+        mExecutor = executor;
+        mThreshold = compactionThreshold;
+
+        Map<String, Object> values = file.exists() ? readSnapshot(file) : new HashMap<String, Object>();
+        if (mOldLogFile.exists())
+            replay(mOldLogFile, values);
+        mLogSize = mLogFile.exists() ? replay(mLogFile, values) : 0;
+        mValues = values;
+        if (mOldLogFile.exists()) {
+            // a compaction did not finish
+            writeSnapshot(values);
+            if (!mOldLogFile.delete())
+                throw new IOException("Could not delete " + mOldLogFile);
+        }
+        mLog = openLog(mLogFile, mLogSize);
+        mLogSize = mLog.length();
+    }
+
+    private static RandomAccessFile openLog(File file, long validSize) throws IOException {
+        RandomAccessFile log = new RandomAccessFile(file, "rw");
+        try {
+            if (validSize < LOG_HEADER_SIZE) {
+                log.setLength(0);
+                log.writeInt(LOG_MAGIC);
+                log.writeInt(VERSION);
+            } else {
+                // drop a partially written record
+                log.setLength(validSize);
+                log.seek(validSize);
+            }
+            return log;
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the log. The store must not be used afterwards.
+     *
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException {
+        synchronized (mLock) {
+            mLog.close();
+        }
+    }
+
+    /**
+     * @return the size in bytes of the current log
+     */
+    public long getLogSize() {
+        synchronized (mLock) {
+            return mLogSize;
+        }
+    }
+
+    private static Map<String, Object> readSnapshot(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a preference snapshot");
+            Map<String, Object> values = new HashMap<String, Object>();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = ValueCodec.readString(in);
+                values.put(key, ValueCodec.readValue(in));
+            }
+            return values;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeSnapshot(Map<String, Object> values) throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                ValueCodec.writeString(out, entry.getKey());
+                ValueCodec.writeValue(out, entry.getValue());
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Could not replace " + mFile);
+        }
+    }
+
+    /**
+     * Applies the records of a log to the values, stopping at the first incomplete or corrupt record.
+     *
+     * @param file   the log to read
+     * @param values the values to apply the records to
+     * @return the size of the valid part of the log, {@code 0} if not even its header is
+     */
+    private static long replay(File file, Map<String, Object> values) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            try {
+                if (in.readInt() != LOG_MAGIC || in.readInt() != VERSION)
+                    throw new IOException(file + " is not a preference log");
+            } catch (EOFException e) {
+                return 0;
+            }
+            long size = LOG_HEADER_SIZE;
+            final long length = file.length();
+            final CRC32 crc = new CRC32();
+            while (length - size >= RECORD_HEADER_SIZE) {
+                final int recordLength = in.readInt();
+                final int checksum = in.readInt();
+                if (recordLength <= 0 || recordLength > length - size - RECORD_HEADER_SIZE)
+                    break;
+                byte[] record = new byte[recordLength];
+                in.readFully(record);
+                crc.reset();
+                crc.update(record, 0, recordLength);
+                if ((int) crc.getValue() != checksum)
+                    break;
+                try {
+                    applyRecord(record, values);
+                } catch (IOException e) {
+                    break;
+                }
+                size += RECORD_HEADER_SIZE + recordLength;
+            }
+            return size;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void applyRecord(byte[] record, Map<String, Object> values) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        // decode the whole record first, so a corrupt one does not change any value
+        final boolean clear = in.readBoolean();
+        final int count = in.readInt();
+        Map<String, Object> changes = new HashMap<String, Object>();
+        for (int i = 0; i < count; i++) {
+            String key = ValueCodec.readString(in);
+            changes.put(key, in.readByte() == PRESENT ? ValueCodec.readValue(in) : null);
+        }
+        if (clear)
+            values.clear();
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            if (entry.getValue() != null)
+                values.put(entry.getKey(), entry.getValue());
+            else
+                values.remove(entry.getKey());
+        }
+    }
+
+    private static byte[] createRecord(boolean clear, List<String> keys, Map<String, Object> values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // room for the length and checksum
+        out.writeLong(0);
+        out.writeBoolean(clear);
+        out.writeInt(keys.size());
+        for (String key : keys) {
+            ValueCodec.writeString(out, key);
+            final Object value = values.get(key);
+            if (value != null) {
+                out.writeByte(PRESENT);
+                ValueCodec.writeValue(out, value);
+            } else {
+                out.writeByte(REMOVED);
+            }
+        }
+        out.flush();
+        byte[] record = bytes.toByteArray();
+        final int length = record.length - RECORD_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_SIZE, length);
+        writeInt(record, 0, length);
+        writeInt(record, 4, (int) crc.getValue());
+        return record;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Writes a snapshot of the values and starts a new log, on the calling thread.
+     *
+     * @throws IOException if writing the snapshot or starting the log fails
+     */
+    public void compact() throws IOException {
+        final Map<String, Object> values;
+        synchronized (mLock) {
+            while (mCompacting) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the compaction");
+                }
+            }
+            values = startCompaction();
+        }
+        finishCompaction(values);
+    }
+
+    /**
+     * Moves the current log aside and starts a new one, unless the old log of a failed compaction still
+     * exists. Its records are part of the current values as well. Has to be called holding the lock.
+     *
+     * @return the values of the snapshot to write
+     */
+    private Map<String, Object> startCompaction() throws IOException {
+        if (!mOldLogFile.exists()) {
+            mLog.close();
+            if (!mLogFile.renameTo(mOldLogFile)) {
+                mLog = openLog(mLogFile, mLogSize);
+                throw new IOException("Could not move " + mLogFile);
+            }
+            mLog = openLog(mLogFile, 0);
+            mLogSize = mLog.length();
+        }
+        mCompacting = true;
+        return mValues;
+    }
+
+    private void finishCompaction(Map<String, Object> values) throws IOException {
+        try {
+            writeSnapshot(values);
+            // the records of the old log are part of the snapshot now
+            if (!mOldLogFile.delete())
+                throw new IOException("Could not delete " + mOldLogFile);
+        } finally {
+            synchronized (mLock) {
+                mCompacting = false;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private class CompactionTask implements Runnable {
+        private final Map<String, Object> mSnapshot;
+
+        CompactionTask(Map<String, Object> snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public void run() {
+            try {
+                finishCompaction(mSnapshot);
+            } catch (IOException e) {
+                // the old log is still replayed, the next compaction tries again
+            }
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<String, Object>(mValues);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (String) value : defValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = mValues.get(key);
+        return value != null ? (Set<String>) value : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Integer) value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Long) value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Float) value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    protected boolean write(boolean clear, Map<String, Object> changes, boolean commit, List<String> changedKeys) {
+        Runnable compaction = null;
+        synchronized (mLock) {
+            List<String> changed = new ArrayList<String>();
+            Map<String, Object> values;
+            if (clear) {
+                if (!mValues.isEmpty())
+                    changed.add(null);
+                values = new HashMap<String, Object>();
+            } else {
+                values = new HashMap<String, Object>(mValues);
+            }
+            if (!InMemoryPreferenceStore.applyChanges(values, changes, changed))
+                return true;
+            List<String> keys = new ArrayList<String>(changed);
+            keys.removeAll(Collections.<String>singleton(null));
+            try {
+                byte[] record = createRecord(clear, keys, values);
+                mLog.write(record);
+                if (commit)
+                    mLog.getFD().sync();
+                mLogSize += record.length;
+            } catch (IOException e) {
+                try {
+                    // drop what was written of the record
+                    mLog.setLength(mLogSize);
+                    mLog.seek(mLogSize);
+                } catch (IOException ignored) {
+                }
+                return false;
+            }
+            mValues = values;
+            changedKeys.addAll(changed);
+            if (mLogSize > mThreshold && !mCompacting) {
+                try {
+                    compaction = new CompactionTask(startCompaction());
+                } catch (IOException e) {
+                    // the log keeps growing until the next write tries again
+                }
+            }
+        }
+        if (compaction != null) {
+            try {
+                mExecutor.execute(compaction);
+            } catch (RejectedExecutionException e) {
+                synchronized (mLock) {
+                    // the old log is still replayed, the next compaction writes its snapshot
+                    mCompacting = false;
+                    mLock.notifyAll();
+                }
+            }
+        }
+        return true;
+    }
+}
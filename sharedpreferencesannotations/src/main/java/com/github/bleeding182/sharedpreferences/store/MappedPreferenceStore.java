@@ -0,0 +1,544 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.store;
+
+import com.github.bleeding182.sharedpreferences.PreferenceType;
+import com.github.bleeding182.sharedpreferences.store.SlotLayout.Slot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>A {@link PreferenceStore} keeping primitive values in fixed slots of a memory mapped file.</p>
+ * <p>The keys of the {@link SlotLayout} are read and written at their offset, without parsing or
+ * rewriting the file, so changing a value only dirties the page holding its slot.
+ * Strings, sets and values of keys without a matching slot are kept in memory and written to an
+ * overflow file next to the mapped one, which gets replaced whenever one of them changes.</p>
+ * <p>The overflow file is replaced on the supplied {@link Executor} after an {@link Editor#apply()}, so the
+ * caller of {@code apply()} does not wait for the file, and right away by {@link Editor#commit()}.</p>
+ * <p>The file starts with a description of its layout. If it does not match the layout used to open
+ * the file, e.g. after fields got added, the values are copied into a new file with the new layout.
+ * Values of keys that lost their slot move to the overflow file.</p>
+ * <p>{@link Editor#apply()} leaves writing the dirty pages to the operating system, so the values
+ * are kept if the process dies. {@link Editor#commit()} additionally forces them to the device.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class MappedPreferenceStore extends AbstractPreferenceStore {
+
+    private static final int MAGIC = 0x53504d53;
+    private static final int OVERFLOW_MAGIC = 0x53504f46;
+    private static final int VERSION = 1;
+    private static final byte ABSENT = 0;
+    private static final byte PRESENT = 1;
+
+    private final File mOverflowFile;
+    private final SlotLayout mLayout;
+    private final MappedByteBuffer mBuffer;
+    private final int mSlotsStart;
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final Executor mExecutor;
+    private final Object mOverflowLock = new Object();
+    private final Runnable mOverflowTask = new OverflowTask();
+    private volatile Map<String, Object> mOverflow;
+    private boolean mOverflowDirty;
+    private boolean mOverflowScheduled;
+    private boolean mClosed;
+
+    /**
+     * Opens the store, creating the file if it does not exist.
+     *
+     * @param file     the file to map
+     * @param layout   the layout of the slots, e.g. {@code createSlotLayout()} of a generated class
+     * @param executor the executor to write the overflow file on after {@link Editor#apply()}
+     * @throws IOException if the files can not be read or created, or are not valid
+     */
+    public MappedPreferenceStore(File file, SlotLayout layout, Executor executor) throws IOException {
+        mLayout = layout;
+        mExecutor = executor;
+        mOverflowFile = new File(file.getPath() + ".overflow");
+        Map<String, Object> overflow = mOverflowFile.exists()
+                ? readOverflow(mOverflowFile) : new HashMap<String, Object>();
+
+        final byte[] header = writeHeader(layout);
+        SlotLayout fileLayout = file.exists() ? readHeader(file) : null;
+        if (!layout.equals(fileLayout) || file.length() != header.length + layout.getSize()) {
+            // move the values into a file with the new layout
+            Map<String, Object> values = new HashMap<String, Object>(overflow);
+            if (fileLayout != null) {
+                MappedByteBuffer old = map(file, FileChannel.MapMode.READ_ONLY, file.length());
+                final int start = writeHeader(fileLayout).length;
+                if (file.length() < start + fileLayout.getSize())
+                    throw new IOException(file + " is truncated");
+                for (Slot slot : fileLayout.getSlots()) {
+                    Object value = readSlot(old, start + slot.offset, slot);
+                    if (value != null)
+                        values.put(slot.key, value);
+                }
+            }
+            Map<String, Object> slotValues = new HashMap<String, Object>();
+            Map<String, Object> newOverflow = new HashMap<String, Object>();
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                Slot slot = layout.get(entry.getKey());
+                if (slot != null && slot.accepts(entry.getValue()))
+                    slotValues.put(entry.getKey(), entry.getValue());
+                else
+                    newOverflow.put(entry.getKey(), entry.getValue());
+            }
+            // values that only exist in the overflow file are still found in the old file if this fails
+            if (!newOverflow.equals(overflow)) {
+                writeOverflow(newOverflow);
+                overflow = newOverflow;
+            }
+            createFile(file, header, slotValues);
+        }
+        mOverflow = Collections.unmodifiableMap(overflow);
+        mSlotsStart = header.length;
+        mBuffer = map(file, FileChannel.MapMode.READ_WRITE, header.length + layout.getSize());
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            // the mapping stays valid after closing the file
+            return raf.getChannel().map(mode, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] writeHeader(SlotLayout layout) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(layout.getSlots().size());
+        for (Slot slot : layout.getSlots()) {
+            ValueCodec.writeString(out, slot.key);
+            out.writeByte(slot.type.ordinal());
+            out.writeInt(slot.offset);
+        }
+        out.writeInt(layout.getSize());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static SlotLayout readHeader(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a mapped preference file");
+            SlotLayout.Builder builder = SlotLayout.builder();
+            final int count = in.readInt();
+            final PreferenceType[] types = PreferenceType.values();
+            for (int i = 0; i < count; i++) {
+                String key = ValueCodec.readString(in);
+                final int type = in.readByte();
+                if (type < 0 || type >= types.length)
+                    throw new IOException(file + " has an unknown type " + type);
+                builder.add(key, types[type], in.readInt());
+            }
+            SlotLayout layout = builder.build();
+            if (in.readInt() != layout.getSize())
+                throw new IOException(file + " has an invalid layout");
+            return layout;
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + " has an invalid layout: " + e.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+
+    private void createFile(File file, byte[] header, Map<String, Object> values) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        ByteBuffer slots = ByteBuffer.allocate(mLayout.getSize());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            writeSlot(slots, mLayout.get(entry.getKey()).offset, mLayout.get(entry.getKey()), entry.getValue());
+        }
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(header);
+            out.write(slots.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        rename(temp, file);
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            from.delete();
+            throw new IOException("Could not replace " + to);
+        }
+    }
+
+    private static Map<String, Object> readOverflow(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != OVERFLOW_MAGIC)
+                throw new IOException(file + " is not a preference overflow file");
+            Map<String, Object> values = new HashMap<String, Object>();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = ValueCodec.readString(in);
+                values.put(key, ValueCodec.readValue(in));
+            }
+            return values;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeOverflow(Map<String, Object> values) throws IOException {
+        if (values.isEmpty()) {
+            if (mOverflowFile.exists() && !mOverflowFile.delete())
+                throw new IOException("Could not delete " + mOverflowFile);
+            return;
+        }
+        File temp = new File(mOverflowFile.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(OVERFLOW_MAGIC);
+            out.writeInt(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                ValueCodec.writeString(out, entry.getKey());
+                ValueCodec.writeValue(out, entry.getValue());
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        rename(temp, mOverflowFile);
+    }
+
+    /**
+     * Replaces the overflow file with the current overflow values, if they changed since it was written last.
+     */
+    private void flushOverflow() throws IOException {
+        synchronized (mOverflowLock) {
+            if (!mOverflowDirty)
+                return;
+            // later changes are part of the values as well
+            writeOverflow(mOverflow);
+            mOverflowDirty = false;
+        }
+    }
+
+    /**
+     * Marks the overflow values as changed, writing them on the executor.
+     *
+     * @param schedule false if the caller writes them right away
+     */
+    private void markOverflowDirty(boolean schedule) {
+        synchronized (mOverflowLock) {
+            mOverflowDirty = true;
+            if (!schedule || mOverflowScheduled)
+                return;
+            mOverflowScheduled = true;
+        }
+        try {
+            mExecutor.execute(mOverflowTask);
+        } catch (RejectedExecutionException e) {
+            // the values stay dirty for the next commit or close
+            synchronized (mOverflowLock) {
+                mOverflowScheduled = false;
+            }
+        }
+    }
+
+    private class OverflowTask implements Runnable {
+        @Override
+        public void run() {
+            synchronized (mOverflowLock) {
+                mOverflowScheduled = false;
+            }
+            try {
+                flushOverflow();
+            } catch (IOException e) {
+                // the values stay dirty for the next commit or close
+            }
+        }
+    }
+
+    /**
+     * <p>Writes pending changes of the overflow values and forces the slots to the device.
+     * The store must not be used afterwards.</p>
+     * The file handles are closed when the store is opened, the mapping is released once the store
+     * gets garbage collected.
+     *
+     * @throws IOException if writing the overflow file fails
+     */
+    public void close() throws IOException {
+        mLock.writeLock().lock();
+        try {
+            if (mClosed)
+                return;
+            flushOverflow();
+            mBuffer.force();
+            mClosed = true;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    private static Object readSlot(ByteBuffer buffer, int position, Slot slot) {
+        if (buffer.get(position) != PRESENT)
+            return null;
+        switch (slot.type) {
+            case BOOLEAN:
+                return buffer.get(position + 1) != 0;
+            case INTEGER:
+                return buffer.getInt(position + 1);
+            case FLOAT:
+                return buffer.getFloat(position + 1);
+            default:
+                return buffer.getLong(position + 1);
+        }
+    }
+
+    private static void writeSlot(ByteBuffer buffer, int position, Slot slot, Object value) {
+        switch (slot.type) {
+            case BOOLEAN:
+                buffer.put(position + 1, (Boolean) value ? (byte) 1 : (byte) 0);
+                break;
+            case INTEGER:
+                buffer.putInt(position + 1, (Integer) value);
+                break;
+            case FLOAT:
+                buffer.putFloat(position + 1, (Float) value);
+                break;
+            default:
+                buffer.putLong(position + 1, (Long) value);
+        }
+        buffer.put(position, PRESENT);
+    }
+
+    private Object get(String key) {
+        Slot slot = mLayout.get(key);
+        if (slot == null)
+            return mOverflow.get(key);
+        mLock.readLock().lock();
+        try {
+            Object value = readSlot(mBuffer, mSlotsStart + slot.offset, slot);
+            return value != null ? value : mOverflow.get(key);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        mLock.readLock().lock();
+        try {
+            Map<String, Object> values = new HashMap<String, Object>(mOverflow);
+            for (Slot slot : mLayout.getSlots()) {
+                Object value = readSlot(mBuffer, mSlotsStart + slot.offset, slot);
+                if (value != null)
+                    values.put(slot.key, value);
+            }
+            return values;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = mOverflow.get(key);
+        return value != null ? (String) value : defValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = mOverflow.get(key);
+        return value != null ? (Set<String>) value : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Slot slot = mLayout.get(key);
+        if (slot != null && slot.type == PreferenceType.INTEGER) {
+            final int position = mSlotsStart + slot.offset;
+            mLock.readLock().lock();
+            try {
+                if (mBuffer.get(position) == PRESENT)
+                    return mBuffer.getInt(position + 1);
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+        Object value = get(key);
+        return value != null ? (Integer) value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Slot slot = mLayout.get(key);
+        if (slot != null && slot.type == PreferenceType.LONG) {
+            final int position = mSlotsStart + slot.offset;
+            mLock.readLock().lock();
+            try {
+                if (mBuffer.get(position) == PRESENT)
+                    return mBuffer.getLong(position + 1);
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+        Object value = get(key);
+        return value != null ? (Long) value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Slot slot = mLayout.get(key);
+        if (slot != null && slot.type == PreferenceType.FLOAT) {
+            final int position = mSlotsStart + slot.offset;
+            mLock.readLock().lock();
+            try {
+                if (mBuffer.get(position) == PRESENT)
+                    return mBuffer.getFloat(position + 1);
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+        Object value = get(key);
+        return value != null ? (Float) value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Slot slot = mLayout.get(key);
+        if (slot != null && slot.type == PreferenceType.BOOLEAN) {
+            final int position = mSlotsStart + slot.offset;
+            mLock.readLock().lock();
+            try {
+                if (mBuffer.get(position) == PRESENT)
+                    return mBuffer.get(position + 1) != 0;
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+        Object value = get(key);
+        return value != null ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return get(key) != null;
+    }
+
+    @Override
+    protected boolean write(boolean clear, Map<String, Object> changes, boolean commit, List<String> changedKeys) {
+        mLock.writeLock().lock();
+        try {
+            if (mClosed)
+                throw new IllegalStateException("The store is closed");
+            Map<String, Object> overflow = new HashMap<String, Object>(mOverflow);
+            boolean overflowChanged = false;
+            if (clear) {
+                boolean hadValues = !overflow.isEmpty();
+                for (Slot slot : mLayout.getSlots()) {
+                    final int position = mSlotsStart + slot.offset;
+                    if (mBuffer.get(position) == PRESENT) {
+                        mBuffer.put(position, ABSENT);
+                        hadValues = true;
+                    }
+                }
+                if (!overflow.isEmpty()) {
+                    overflow.clear();
+                    overflowChanged = true;
+                }
+                if (hadValues)
+                    changedKeys.add(null);
+            }
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                final String key = entry.getKey();
+                final Object value = entry.getValue();
+                final Slot slot = mLayout.get(key);
+                Object old = slot != null ? readSlot(mBuffer, mSlotsStart + slot.offset, slot) : null;
+                if (old == null)
+                    old = overflow.get(key);
+                if (value == null ? old == null : value.equals(old))
+                    continue;
+                if (slot != null && value != null && slot.accepts(value)) {
+                    writeSlot(mBuffer, mSlotsStart + slot.offset, slot, value);
+                    overflowChanged |= overflow.remove(key) != null;
+                } else {
+                    if (slot != null)
+                        mBuffer.put(mSlotsStart + slot.offset, ABSENT);
+                    if (value != null) {
+                        overflow.put(key, value);
+                        overflowChanged = true;
+                    } else {
+                        // removing a value of a slot leaves the overflow file as it is
+                        overflowChanged |= overflow.remove(key) != null;
+                    }
+                }
+                changedKeys.add(key);
+            }
+            if (overflowChanged) {
+                mOverflow = Collections.unmodifiableMap(overflow);
+                // a commit writes the file right away
+                markOverflowDirty(!commit);
+            }
+            if (!commit)
+                return true;
+            mBuffer.force();
+            try {
+                flushOverflow();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>A {@link PreferenceStore} whose file can be shared by several processes.</p>
+ * <p>Next to the file of values a lock file holds a sequence number, which every write increments
+ * while holding an exclusive lock on it. The lock file is memory mapped, so each read compares the
+ * sequence with the one of the loaded values at the cost of a memory access. Only if another process
+ * wrote in the meantime the values get loaded again, holding a shared lock, and the listeners are
+ * notified about every key whose value differs.</p>
+ * <p>A write takes the exclusive lock, loads the latest values if necessary, applies the changes and
+ * replaces the file of values before publishing the new sequence. No changes of another process
+ * are lost and a process dying in the middle of a write leaves the previous file intact.</p>
+ * <p>Cached values of the generated classes are only invalidated when the store notices a change,
+ * so call {@link #refresh()} e.g. when an activity resumes to pick up the changes of other processes.
+ * Use a single instance per file and process, since file locks are held by the whole process.</p>
+ * <p>An interrupt closes the channel of the lock file, so the lock is taken with the interrupt status
+ * cleared, and the lock file opened again if an interrupt closed it anyway. The interrupt status is
+ * restored afterwards, and no write gets lost because of it.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class MultiProcessPreferenceStore extends AbstractPreferenceStore {
+
+    private static final int MAGIC = 0x53504d50;
+    private static final int LOCK_MAGIC = 0x53504d4c;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int SEQUENCE_OFFSET = 8;
+
+    private final File mFile;
+    private final MappedByteBuffer mHeader;
+    private final Object mLock = new Object();
+    // guarded by mLock, opened again if an interrupt closes the channel
+    private RandomAccessFile mLockFile;
+    private FileChannel mLockChannel;
+    private boolean mClosed;
+    private volatile Map<String, Object> mValues;
+    private volatile long mSequence;
+
+    /**
+     * Opens the store, creating the lock file if it does not exist.
+     *
+     * @param file the file holding the values, {@code file.lock} is used for locking
+     * @throws IOException if the files can not be read or created, or are not valid
+     */
+    public MultiProcessPreferenceStore(File file) throws IOException {
+        mFile = file;
+        mLockFile = new RandomAccessFile(getLockFile(file), "rw");
+        mLockChannel = mLockFile.getChannel();
+        boolean opened = false;
+        // the channel is used beyond the lock, so an interrupt must not close it until the file is mapped
+        final boolean interrupted = Thread.interrupted();
+        try {
+            FileLock lock = lock(false);
+            try {
+                if (mLockChannel.size() < HEADER_SIZE) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.putInt(LOCK_MAGIC).putInt(VERSION).putLong(0);
+                    header.flip();
+                    while (header.hasRemaining()) {
+                        mLockChannel.write(header, header.position());
+                    }
+                }
+                mHeader = mLockChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                if (mHeader.getInt(0) != LOCK_MAGIC || mHeader.getInt(4) != VERSION)
+                    throw new IOException(file + ".lock is not a preference lock file");
+                mSequence = mHeader.getLong(SEQUENCE_OFFSET);
+                mValues = read(file);
+            } finally {
+                lock.release();
+            }
+            opened = true;
+        } finally {
+            if (!opened)
+                mLockFile.close();
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes the lock file, waiting for a write in progress. The store must not be used afterwards,
+     * writes throw an {@link IllegalStateException}.
+     *
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException {
+        synchronized (mLock) {
+            mClosed = true;
+            mLockFile.close();
+        }
+    }
+
+    private static File getLockFile(File file) {
+        return new File(file.getPath() + ".lock");
+    }
+
+    /**
+     * Locks the whole lock file. Has to be called holding {@code mLock}, or from the constructor.
+     *
+     * @param shared true for a shared lock, false for an exclusive one
+     * @return the lock
+     * @throws IOException if locking fails
+     */
+    private FileLock lock(boolean shared) throws IOException {
+        // an interrupt would close the channel, so it is only restored once the lock is taken
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                if (mClosed)
+                    throw new IllegalStateException("The store is closed");
+                try {
+                    return mLockChannel.lock(0, Long.MAX_VALUE, shared);
+                } catch (IOException e) {
+                    if (mLockChannel.isOpen())
+                        throw e;
+                    // interrupted while waiting for the lock, which also sets the interrupt status again
+                    interrupted |= Thread.interrupted();
+                    mLockFile.close();
+                    mLockFile = new RandomAccessFile(getLockFile(mFile), "rw");
+                    mLockChannel = mLockFile.getChannel();
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loads the values again if another process changed them, notifying the listeners about
+     * every changed key. Called by every read, but the cached values of the generated classes
+     * only notice the changes of other processes once this got called.
+     *
+     * @return true if any value changed
+     */
+    public boolean refresh() {
+        if (mHeader.getLong(SEQUENCE_OFFSET) == mSequence)
+            return false;
+        final List<String> changedKeys = new ArrayList<String>();
+        synchronized (mLock) {
+            try {
+                FileLock lock = lock(true);
+                try {
+                    reload(changedKeys);
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                // keep the loaded values, the next read tries again
+                return false;
+            }
+        }
+        notifyListeners(changedKeys);
+        return !changedKeys.isEmpty();
+    }
+
+    /**
+     * Loads the values if the sequence changed. Has to be called holding a file lock.
+     *
+     * @param changedKeys the keys of values that differ from the loaded ones get added here
+     * @return the current sequence
+     */
+    private long reload(List<String> changedKeys) throws IOException {
+        final long sequence = mHeader.getLong(SEQUENCE_OFFSET);
+        if (sequence == mSequence)
+            return sequence;
+        Map<String, Object> values = read(mFile);
+        Map<String, Object> old = mValues;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (!entry.getValue().equals(old.get(entry.getKey())))
+                changedKeys.add(entry.getKey());
+        }
+        for (String key : old.keySet()) {
+            if (!values.containsKey(key))
+                changedKeys.add(key);
+        }
+        mValues = values;
+        mSequence = sequence;
+        return sequence;
+    }
+
+    private static Map<String, Object> read(File file) throws IOException {
+        Map<String, Object> values = new HashMap<String, Object>();
+        if (!file.exists())
+            return values;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a multi process preference file");
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = ValueCodec.readString(in);
+                values.put(key, ValueCodec.readValue(in));
+            }
+            return values;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeFile(Map<String, Object> values, boolean sync) throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                ValueCodec.writeString(out, entry.getKey());
+                ValueCodec.writeValue(out, entry.getValue());
+            }
+            out.flush();
+            if (sync)
+                stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Could not replace " + mFile);
+        }
+    }
+
+    private Map<String, Object> values() {
+        refresh();
+        return mValues;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<String, Object>(values());
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = values().get(key);
+        return value != null ? (String) value : defValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = values().get(key);
+        return value != null ? (Set<String>) value : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = values().get(key);
+        return value != null ? (Integer) value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = values().get(key);
+        return value != null ? (Long) value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = values().get(key);
+        return value != null ? (Float) value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = values().get(key);
+        return value != null ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return values().containsKey(key);
+    }
+
+    @Override
+    protected boolean write(boolean clear, Map<String, Object> changes, boolean commit, List<String> changedKeys) {
+        synchronized (mLock) {
+            try {
+                FileLock lock = lock(false);
+                try {
+                    // changes of other processes get notified as well
+                    final long sequence = reload(changedKeys);
+                    List<String> written = new ArrayList<String>();
+                    Map<String, Object> values;
+                    if (clear) {
+                        if (!mValues.isEmpty())
+                            written.add(null);
+                        values = new HashMap<String, Object>();
+                    } else {
+                        values = new HashMap<String, Object>(mValues);
+                    }
+                    if (!InMemoryPreferenceStore.applyChanges(values, changes, written))
+                        return true;
+                    writeFile(values, commit);
+                    mValues = values;
+                    mSequence = sequence + 1;
+                    mHeader.putLong(SEQUENCE_OFFSET, sequence + 1);
+                    if (commit)
+                        mHeader.force();
+                    changedKeys.addAll(written);
+                    return true;
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
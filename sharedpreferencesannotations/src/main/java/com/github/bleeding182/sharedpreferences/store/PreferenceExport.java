@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>The binary format of the {@code writeTo(OutputStream)} and {@code readFrom(InputStream)} methods of the
+ * generated classes.</p>
+ * <p>A header of {@link #MAGIC}, {@link #FORMAT_VERSION} and the schema version of the class is followed by one
+ * entry per stored field, each a tag byte naming the type, the key and the value as written by
+ * {@link ValueCodec}. A tag of {@code 0} ends the export. Values are written and read with the typed methods of
+ * the stores, so they are never boxed or collected into a map.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public final class PreferenceExport {
+
+    /**
+     * The first bytes of every export.
+     */
+    public static final int MAGIC = 0x53504558;
+
+    /**
+     * The version of the format, exports of other versions are rejected.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final byte TAG_END = 0;
+
+    private PreferenceExport() {
+    }
+
+    /**
+     * Writes the entries of an export, buffered until {@link #finish()}.
+     */
+    public static final class Writer {
+        private final DataOutputStream mOut;
+
+        /**
+         * Writes the header.
+         *
+         * @param out           the stream to write to, not closed by the writer
+         * @param schemaVersion the version of the schema of the exported values
+         * @throws IOException if writing fails
+         */
+        public Writer(OutputStream out, int schemaVersion) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream(out));
+            mOut.writeInt(MAGIC);
+            mOut.writeByte(FORMAT_VERSION);
+            mOut.writeInt(schemaVersion);
+        }
+
+        private void writeKey(byte tag, String key) throws IOException {
+            mOut.writeByte(tag);
+            ValueCodec.writeString(mOut, key);
+        }
+
+        public void writeBoolean(String key, boolean value) throws IOException {
+            writeKey(ValueCodec.TAG_BOOLEAN, key);
+            mOut.writeBoolean(value);
+        }
+
+        public void writeInt(String key, int value) throws IOException {
+            writeKey(ValueCodec.TAG_INT, key);
+            mOut.writeInt(value);
+        }
+
+        public void writeLong(String key, long value) throws IOException {
+            writeKey(ValueCodec.TAG_LONG, key);
+            mOut.writeLong(value);
+        }
+
+        public void writeFloat(String key, float value) throws IOException {
+            writeKey(ValueCodec.TAG_FLOAT, key);
+            mOut.writeFloat(value);
+        }
+
+        /**
+         * @param key   the key of the value
+         * @param value the value, nothing is written if null
+         * @throws IOException if writing fails
+         */
+        public void writeString(String key, String value) throws IOException {
+            if (value == null)
+                return;
+            writeKey(ValueCodec.TAG_STRING, key);
+            ValueCodec.writeString(mOut, value);
+        }
+
+        /**
+         * @param key    the key of the values
+         * @param values the values, nothing is written if null
+         * @throws IOException if writing fails
+         */
+        public void writeStringSet(String key, Set<String> values) throws IOException {
+            if (values == null)
+                return;
+            writeKey(ValueCodec.TAG_STRING_SET, key);
+            mOut.writeInt(values.size());
+            for (String value : values) {
+                ValueCodec.writeString(mOut, value);
+            }
+        }
+
+        /**
+         * Ends the export and flushes the stream.
+         *
+         * @throws IOException if writing fails
+         */
+        public void finish() throws IOException {
+            mOut.writeByte(TAG_END);
+            mOut.flush();
+        }
+    }
+
+    /**
+     * Reads the entries of an export into an editor. Only the bytes of the export are read from the stream,
+     * which should be buffered.
+     */
+    public static final class Reader {
+        private final DataInputStream mIn;
+        private final int mSchemaVersion;
+
+        /**
+         * Reads the header.
+         *
+         * @param in the stream to read from, not closed by the reader
+         * @throws IOException if reading fails or the stream holds no export of this format
+         */
+        public Reader(InputStream in) throws IOException {
+            mIn = new DataInputStream(in);
+            if (mIn.readInt() != MAGIC)
+                throw new IOException("Not a preferences export");
+            final int version = mIn.readUnsignedByte();
+            if (version != FORMAT_VERSION)
+                throw new IOException("Unsupported export format " + version);
+            mSchemaVersion = mIn.readInt();
+        }
+
+        /**
+         * @return the version of the schema of the exported values
+         */
+        public int getSchemaVersion() {
+            return mSchemaVersion;
+        }
+
+        /**
+         * Reads the next entry and puts its value into the editor.
+         *
+         * @param editor the editor to put the value with
+         * @return the key of the entry, or null if the export ended
+         * @throws IOException if reading fails or the export is corrupt
+         */
+        public String readEntry(PreferenceStore.Editor editor) throws IOException {
+            final byte tag = mIn.readByte();
+            if (tag == TAG_END)
+                return null;
+            final String key = ValueCodec.readString(mIn);
+            switch (tag) {
+                case ValueCodec.TAG_BOOLEAN:
+                    editor.putBoolean(key, mIn.readBoolean());
+                    break;
+                case ValueCodec.TAG_INT:
+                    editor.putInt(key, mIn.readInt());
+                    break;
+                case ValueCodec.TAG_LONG:
+                    editor.putLong(key, mIn.readLong());
+                    break;
+                case ValueCodec.TAG_FLOAT:
+                    editor.putFloat(key, mIn.readFloat());
+                    break;
+                case ValueCodec.TAG_STRING:
+                    editor.putString(key, ValueCodec.readString(mIn));
+                    break;
+                case ValueCodec.TAG_STRING_SET:
+                    final int size = mIn.readInt();
+                    if (size < 0)
+                        throw new IOException("Invalid set size " + size);
+                    // a corrupt size fails on reading, it must not allocate first
+                    Set<String> values = new HashSet<String>(Math.min(size, 1 << 16) * 4 / 3 + 1);
+                    for (int i = 0; i < size; i++) {
+                        values.add(ValueCodec.readString(mIn));
+                    }
+                    editor.putStringSet(key, values);
+                    break;
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+            return key;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.store;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Storage of the values accessed by the generated classes.</p>
+ * <p>The methods mirror the ones of {@code android.content.SharedPreferences}, so that
+ * the generated classes can be used on any implementation, e.g. {@link SharedPreferencesStore}
+ * for the platform preferences, or {@link InMemoryPreferenceStore} to run on a plain JVM.</p>
+ * Implementations have to be thread safe.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public interface PreferenceStore {
+
+    /**
+     * Retrieve all values from the store.
+     *
+     * @return a map containing a list of pairs key/value representing the preferences. The map must not be modified.
+     */
+    Map<String, ?> getAll();
+
+    /**
+     * Retrieve a String value from the store.
+     *
+     * @param key      the name of the preference to retrieve
+     * @param defValue value to return if this preference does not exist
+     * @return the value, or defValue
+     * @throws ClassCastException if there is a preference with this name that is not a String
+     */
+    String getString(String key, String defValue);
+
+    /**
+     * Retrieve a set of String values from the store.
+     *
+     * @param key       the name of the preference to retrieve
+     * @param defValues values to return if this preference does not exist
+     * @return the values, or defValues. The set must not be modified.
+     * @throws ClassCastException if there is a preference with this name that is not a Set
+     */
+    Set<String> getStringSet(String key, Set<String> defValues);
+
+    /**
+     * Retrieve an int value from the store.
+     *
+     * @param key      the name of the preference to retrieve
+     * @param defValue value to return if this preference does not exist
+     * @return the value, or defValue
+     * @throws ClassCastException if there is a preference with this name that is not an int
+     */
+    int getInt(String key, int defValue);
+
+    /**
+     * Retrieve a long value from the store.
+     *
+     * @param key      the name of the preference to retrieve
+     * @param defValue value to return if this preference does not exist
+     * @return the value, or defValue
+     * @throws ClassCastException if there is a preference with this name that is not a long
+     */
+    long getLong(String key, long defValue);
+
+    /**
+     * Retrieve a float value from the store.
+     *
+     * @param key      the name of the preference to retrieve
+     * @param defValue value to return if this preference does not exist
+     * @return the value, or defValue
+     * @throws ClassCastException if there is a preference with this name that is not a float
+     */
+    float getFloat(String key, float defValue);
+
+    /**
+     * Retrieve a boolean value from the store.
+     *
+     * @param key      the name of the preference to retrieve
+     * @param defValue value to return if this preference does not exist
+     * @return the value, or defValue
+     * @throws ClassCastException if there is a preference with this name that is not a boolean
+     */
+    boolean getBoolean(String key, boolean defValue);
+
+    /**
+     * Checks whether the store contains a preference.
+     *
+     * @param key the name of the preference to check
+     * @return true if the preference exists
+     */
+    boolean contains(String key);
+
+    /**
+     * Create a new Editor to modify the values of the store. Changes are only stored after
+     * calling {@link Editor#commit()} or {@link Editor#apply()}.
+     *
+     * @return a new editor
+     */
+    Editor edit();
+
+    /**
+     * Registers a callback to be invoked when a value of the store changes.
+     * Unlike {@code SharedPreferences} the store keeps a strong reference to the listener.
+     *
+     * @param listener the callback that will run
+     */
+    void registerOnChangeListener(OnChangeListener listener);
+
+    /**
+     * Unregisters a previous callback.
+     *
+     * @param listener the callback that should be unregistered
+     */
+    void unregisterOnChangeListener(OnChangeListener listener);
+
+    /**
+     * Interface used for modifying the values of a {@link PreferenceStore}. All changes are
+     * batched and written at once by {@link #commit()} or {@link #apply()}.
+     */
+    interface Editor {
+
+        /**
+         * Set a String value, {@code null} removes the preference.
+         *
+         * @param key   the name of the preference to modify
+         * @param value the new value for the preference
+         * @return this editor, to chain calls
+         */
+        Editor putString(String key, String value);
+
+        /**
+         * Set a set of String values, {@code null} removes the preference.
+         *
+         * @param key    the name of the preference to modify
+         * @param values the new values for the preference
+         * @return this editor, to chain calls
+         */
+        Editor putStringSet(String key, Set<String> values);
+
+        /**
+         * Set an int value.
+         *
+         * @param key   the name of the preference to modify
+         * @param value the new value for the preference
+         * @return this editor, to chain calls
+         */
+        Editor putInt(String key, int value);
+
+        /**
+         * Set a long value.
+         *
+         * @param key   the name of the preference to modify
+         * @param value the new value for the preference
+         * @return this editor, to chain calls
+         */
+        Editor putLong(String key, long value);
+
+        /**
+         * Set a float value.
+         *
+         * @param key   the name of the preference to modify
+         * @param value the new value for the preference
+         * @return this editor, to chain calls
+         */
+        Editor putFloat(String key, float value);
+
+        /**
+         * Set a boolean value.
+         *
+         * @param key   the name of the preference to modify
+         * @param value the new value for the preference
+         * @return this editor, to chain calls
+         */
+        Editor putBoolean(String key, boolean value);
+
+        /**
+         * Mark a preference to be removed.
+         *
+         * @param key the name of the preference to remove
+         * @return this editor, to chain calls
+         */
+        Editor remove(String key);
+
+        /**
+         * Mark all preferences to be removed. The removal is done first, regardless of the order of the calls.
+         *
+         * @return this editor, to chain calls
+         */
+        Editor clear();
+
+        /**
+         * Writes the changes synchronously.
+         *
+         * @return true if the new values were successfully written to persistent storage
+         */
+        boolean commit();
+
+        /**
+         * Writes the changes to memory immediately, persisting them may happen asynchronously.
+         */
+        void apply();
+    }
+
+    /**
+     * Interface definition for a callback to be invoked when a value of a {@link PreferenceStore} changes.
+     */
+    interface OnChangeListener {
+
+        /**
+         * Called when a value is added, changed, or removed.
+         *
+         * @param store the store that changed
+         * @param key   the key of the value that changed, or {@code null} if the store was cleared
+         */
+        void onChanged(PreferenceStore store, String key);
+    }
+}
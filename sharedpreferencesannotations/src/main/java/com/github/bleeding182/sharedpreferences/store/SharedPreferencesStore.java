@@ -0,0 +1,353 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.store;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.AsyncTask;
+
+import com.github.bleeding182.sharedpreferences.PreferenceMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * The default {@link PreferenceStore}, using the platform {@link SharedPreferences}.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class SharedPreferencesStore implements PreferenceStore {
+
+    private final SharedPreferences mPreferences;
+    private volatile long mLoadTimeNanos = -1;
+
+    /**
+     * The platform listeners, referenced here since SharedPreferences only keeps weak references.
+     */
+    private final Map<OnChangeListener, OnSharedPreferenceChangeListener> mListeners =
+            new HashMap<OnChangeListener, OnSharedPreferenceChangeListener>();
+
+    /**
+     * Creates a store using the supplied SharedPreferences.
+     *
+     * @param preferences the preferences to use
+     */
+    public SharedPreferencesStore(SharedPreferences preferences) {
+        if (preferences == null)
+            throw new NullPointerException("preferences == null");
+        mPreferences = preferences;
+    }
+
+    /**
+     * <p>Creates a task opening the preferences and waiting until their file got loaded,
+     * to be run on a background thread.</p>
+     * The time this took is available by {@link #getLoadTimeNanos()} of the created store.
+     *
+     * @param context the context to open the preferences with
+     * @param name    the name of the preferences file
+     * @return the task creating the store
+     */
+    public static Callable<SharedPreferencesStore> loader(final Context context, final String name) {
+        return new Callable<SharedPreferencesStore>() {
+            @Override
+            public SharedPreferencesStore call() {
+                return load(context, name);
+            }
+        };
+    }
+
+    /**
+     * <p>Opens the preferences like {@link Context#getSharedPreferences(String, int)} does, which loads the
+     * file in the background.</p>
+     * If {@link PreferenceMetrics#ENABLED} the time it took is reported once the file is loaded, waiting for it
+     * on {@link AsyncTask#THREAD_POOL_EXECUTOR} instead of the caller.
+     *
+     * @param context the context to open the preferences with
+     * @param name    the name of the preferences file
+     * @return the store
+     */
+    public static SharedPreferencesStore open(Context context, String name) {
+        final long start = PreferenceMetrics.startTime();
+        final SharedPreferencesStore store =
+                new SharedPreferencesStore(context.getSharedPreferences(name, Context.MODE_PRIVATE));
+        if (PreferenceMetrics.ENABLED)
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new LoadTimer(store, name, start));
+        return store;
+    }
+
+    /**
+     * Opens a store keeping each group in a preferences file of its own, named by
+     * {@link GroupLayout#getFileName(String, String)}. No file is opened before one of its keys gets accessed.
+     *
+     * @param context the context to open the preferences with
+     * @param name    the name of the preferences file of the default group
+     * @param layout  the groups of the keys
+     * @return the store
+     */
+    public static GroupedPreferenceStore open(Context context, String name, GroupLayout layout) {
+        return new GroupedPreferenceStore(layout, new GroupFactory(context.getApplicationContext(), name));
+    }
+
+    /**
+     * Creates a task opening a store keeping each group in a preferences file of its own,
+     * to be run on a background thread. The task waits until the file of the default group got loaded,
+     * the other groups are opened on first access.
+     *
+     * @param context the context to open the preferences with
+     * @param name    the name of the preferences file of the default group
+     * @param layout  the groups of the keys
+     * @return the task creating the store
+     */
+    public static Callable<GroupedPreferenceStore> loader(final Context context, final String name, final GroupLayout layout) {
+        return new Callable<GroupedPreferenceStore>() {
+            @Override
+            public GroupedPreferenceStore call() {
+                GroupedPreferenceStore store = open(context, name, layout);
+                // any read blocks until the file is loaded
+                store.getGroup(GroupLayout.DEFAULT_GROUP).contains(name);
+                return store;
+            }
+        };
+    }
+
+    private static SharedPreferencesStore load(Context context, String name) {
+        final long start = System.nanoTime();
+        SharedPreferences preferences = context.getSharedPreferences(name, Context.MODE_PRIVATE);
+        // any read blocks until the file is loaded
+        preferences.contains(name);
+        SharedPreferencesStore store = new SharedPreferencesStore(preferences);
+        store.onLoaded(name, start);
+        return store;
+    }
+
+    private void onLoaded(String name, long start) {
+        mLoadTimeNanos = System.nanoTime() - start;
+        if (PreferenceMetrics.ENABLED)
+            PreferenceMetrics.reportLoad(name, mLoadTimeNanos);
+    }
+
+    /**
+     * Wraps an editor of SharedPreferences.
+     *
+     * @param editor the editor to wrap
+     * @return the editor to use with a store
+     */
+    public static PreferenceStore.Editor wrap(SharedPreferences.Editor editor) {
+        return new EditorAdapter(editor);
+    }
+
+    /**
+     * @return the wrapped preferences.
+     */
+    public SharedPreferences getSharedPreferences() {
+        return mPreferences;
+    }
+
+    /**
+     * @return the time in nanoseconds it took to open and load the preferences file,
+     * or {@code -1} if the store was not created by {@link #loader(Context, String)}, or by
+     * {@link #open(Context, String)} with metrics enabled, or the file is still being loaded.
+     */
+    public long getLoadTimeNanos() {
+        return mLoadTimeNanos;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return mPreferences.getAll();
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return mPreferences.getString(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return mPreferences.getStringSet(key, defValues);
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return mPreferences.getInt(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return mPreferences.getLong(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return mPreferences.getFloat(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return mPreferences.getBoolean(key, defValue);
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mPreferences.contains(key);
+    }
+
+    @Override
+    public PreferenceStore.Editor edit() {
+        return new EditorAdapter(mPreferences.edit());
+    }
+
+    @Override
+    public void registerOnChangeListener(final OnChangeListener listener) {
+        OnSharedPreferenceChangeListener platformListener = new OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                listener.onChanged(SharedPreferencesStore.this, key);
+            }
+        };
+        synchronized (mListeners) {
+            if (mListeners.containsKey(listener))
+                return;
+            mListeners.put(listener, platformListener);
+        }
+        mPreferences.registerOnSharedPreferenceChangeListener(platformListener);
+    }
+
+    @Override
+    public void unregisterOnChangeListener(OnChangeListener listener) {
+        final OnSharedPreferenceChangeListener platformListener;
+        synchronized (mListeners) {
+            platformListener = mListeners.remove(listener);
+        }
+        if (platformListener != null)
+            mPreferences.unregisterOnSharedPreferenceChangeListener(platformListener);
+    }
+
+    /**
+     * Waits until the file of a store is loaded, to record the time it took.
+     */
+    private static class LoadTimer implements Runnable {
+        private final SharedPreferencesStore mStore;
+        private final String mName;
+        private final long mStart;
+
+        LoadTimer(SharedPreferencesStore store, String name, long start) {
+            mStore = store;
+            mName = name;
+            mStart = start;
+        }
+
+        @Override
+        public void run() {
+            // any read blocks until the file is loaded
+            mStore.mPreferences.contains(mName);
+            mStore.onLoaded(mName, mStart);
+        }
+    }
+
+    private static class GroupFactory implements GroupedPreferenceStore.Factory {
+        private final Context mContext;
+        private final String mName;
+
+        GroupFactory(Context context, String name) {
+            mContext = context;
+            mName = name;
+        }
+
+        @Override
+        public PreferenceStore open(String group) {
+            return SharedPreferencesStore.open(mContext, GroupLayout.getFileName(mName, group));
+        }
+    }
+
+    private static class EditorAdapter implements PreferenceStore.Editor {
+        private final SharedPreferences.Editor mEditor;
+
+        EditorAdapter(SharedPreferences.Editor editor) {
+            mEditor = editor;
+        }
+
+        @Override
+        public PreferenceStore.Editor putString(String key, String value) {
+            mEditor.putString(key, value);
+            return this;
+        }
+
+        @Override
+        public PreferenceStore.Editor putStringSet(String key, Set<String> values) {
+            mEditor.putStringSet(key, values);
+            return this;
+        }
+
+        @Override
+        public PreferenceStore.Editor putInt(String key, int value) {
+            mEditor.putInt(key, value);
+            return this;
+        }
+
+        @Override
+        public PreferenceStore.Editor putLong(String key, long value) {
+            mEditor.putLong(key, value);
+            return this;
+        }
+
+        @Override
+        public PreferenceStore.Editor putFloat(String key, float value) {
+            mEditor.putFloat(key, value);
+            return this;
+        }
+
+        @Override
+        public PreferenceStore.Editor putBoolean(String key, boolean value) {
+            mEditor.putBoolean(key, value);
+            return this;
+        }
+
+        @Override
+        public PreferenceStore.Editor remove(String key) {
+            mEditor.remove(key);
+            return this;
+        }
+
+        @Override
+        public PreferenceStore.Editor clear() {
+            mEditor.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return mEditor.commit();
+        }
+
+        @Override
+        public void apply() {
+            mEditor.apply();
+        }
+    }
+}
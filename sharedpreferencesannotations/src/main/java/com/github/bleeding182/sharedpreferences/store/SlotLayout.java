@@ -0,0 +1,202 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.store;
+
+import com.github.bleeding182.sharedpreferences.PreferenceType;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Fixed binary layout of primitive preferences, assigning every key a slot at a constant offset.</p>
+ * <p>A slot consists of one byte marking whether a value is present, followed by the value.
+ * Generated classes provide their layout by {@code createSlotLayout()} to be used with a
+ * {@link MappedPreferenceStore}.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public final class SlotLayout {
+
+    private final Map<String, Slot> mSlots;
+    private final int mSize;
+
+    private SlotLayout(Map<String, Slot> slots, int size) {
+        mSlots = Collections.unmodifiableMap(slots);
+        mSize = size;
+    }
+
+    /**
+     * Creates a builder for a new layout.
+     *
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The number of bytes a slot of the type occupies, including the byte marking its presence.
+     *
+     * @param type the type of the preference
+     * @return the size of the slot
+     * @throws IllegalArgumentException if the type has no fixed size
+     */
+    public static int getSlotSize(PreferenceType type) {
+        switch (type) {
+            case BOOLEAN:
+                return 2;
+            case INTEGER:
+            case FLOAT:
+                return 5;
+            case LONG:
+                return 9;
+            default:
+                throw new IllegalArgumentException(type + " has no fixed size");
+        }
+    }
+
+    /**
+     * @return the number of bytes of all the slots
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    Slot get(String key) {
+        return mSlots.get(key);
+    }
+
+    Collection<Slot> getSlots() {
+        return mSlots.values();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof SlotLayout))
+            return false;
+        SlotLayout layout = (SlotLayout) o;
+        return mSize == layout.mSize && mSlots.equals(layout.mSlots);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mSlots.hashCode() + mSize;
+    }
+
+    static final class Slot {
+        final String key;
+        final PreferenceType type;
+        final int offset;
+
+        Slot(String key, PreferenceType type, int offset) {
+            this.key = key;
+            this.type = type;
+            this.offset = offset;
+        }
+
+        boolean accepts(Object value) {
+            switch (type) {
+                case BOOLEAN:
+                    return value instanceof Boolean;
+                case INTEGER:
+                    return value instanceof Integer;
+                case FLOAT:
+                    return value instanceof Float;
+                default:
+                    return value instanceof Long;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Slot))
+                return false;
+            Slot slot = (Slot) o;
+            return offset == slot.offset && type == slot.type && key.equals(slot.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return (key.hashCode() * 31 + type.hashCode()) * 31 + offset;
+        }
+    }
+
+    /**
+     * Builder for a {@link SlotLayout}.
+     */
+    public static final class Builder {
+        private final Map<String, Slot> mSlots = new LinkedHashMap<String, Slot>();
+        private int mSize;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a slot at the end of the layout.
+         *
+         * @param key  the key of the preference
+         * @param type the type of the preference
+         * @return this builder
+         */
+        public Builder add(String key, PreferenceType type) {
+            return add(key, type, mSize);
+        }
+
+        /**
+         * Adds a slot at a fixed offset.
+         *
+         * @param key    the key of the preference
+         * @param type   the type of the preference
+         * @param offset the offset of the slot within the layout
+         * @return this builder
+         * @throws IllegalArgumentException if the key was already added or the slot overlaps another one
+         */
+        public Builder add(String key, PreferenceType type, int offset) {
+            if (mSlots.containsKey(key))
+                throw new IllegalArgumentException("Duplicate slot " + key);
+            final int size = getSlotSize(type);
+            if (offset < 0)
+                throw new IllegalArgumentException("Negative offset " + offset + " of " + key);
+            for (Slot slot : mSlots.values()) {
+                if (offset < slot.offset + getSlotSize(slot.type) && slot.offset < offset + size)
+                    throw new IllegalArgumentException("Slot " + key + " overlaps " + slot.key);
+            }
+            mSlots.put(key, new Slot(key, type, offset));
+            mSize = Math.max(mSize, offset + size);
+            return this;
+        }
+
+        /**
+         * @return the layout of the added slots
+         */
+        public SlotLayout build() {
+            return new SlotLayout(new LinkedHashMap<String, Slot>(mSlots), mSize);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Binary encoding of the values of a store, each prefixed by a tag byte naming its type.
+ * Strings are written as their length in bytes followed by UTF-8, so they are not
+ * limited in size like {@link DataOutput#writeUTF(String)}.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+final class ValueCodec {
+    static final byte TAG_BOOLEAN = 'Z';
+    static final byte TAG_INT = 'I';
+    static final byte TAG_LONG = 'J';
+    static final byte TAG_FLOAT = 'F';
+    static final byte TAG_STRING = 'S';
+    static final byte TAG_STRING_SET = 'T';
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The size of the buffer a String is read into first, before it grows with the bytes actually read.
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    private ValueCodec() {
+    }
+
+    static byte getTag(Object value) {
+        if (value instanceof Boolean)
+            return TAG_BOOLEAN;
+        if (value instanceof Integer)
+            return TAG_INT;
+        if (value instanceof Long)
+            return TAG_LONG;
+        if (value instanceof Float)
+            return TAG_FLOAT;
+        if (value instanceof String)
+            return TAG_STRING;
+        if (value instanceof Set)
+            return TAG_STRING_SET;
+        throw new IllegalArgumentException("Unsupported value " + value);
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            throw new IOException("Invalid string length " + length);
+        // a corrupt length fails on reading, it must not allocate first
+        byte[] bytes = new byte[Math.min(length, CHUNK_SIZE)];
+        in.readFully(bytes);
+        while (bytes.length < length) {
+            final int read = bytes.length;
+            bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * read));
+            in.readFully(bytes, read, bytes.length - read);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Writes the tag and the value.
+     *
+     * @param out   the output to write to
+     * @param value the value, of a type supported by the stores
+     * @throws IOException if writing fails
+     */
+    static void writeValue(DataOutput out, Object value) throws IOException {
+        byte tag = getTag(value);
+        out.writeByte(tag);
+        switch (tag) {
+            case TAG_BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case TAG_INT:
+                out.writeInt((Integer) value);
+                break;
+            case TAG_LONG:
+                out.writeLong((Long) value);
+                break;
+            case TAG_FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case TAG_STRING:
+                writeString(out, (String) value);
+                break;
+            default:
+                Set<?> set = (Set<?>) value;
+                out.writeInt(set.size());
+                for (Object item : set) {
+                    writeString(out, (String) item);
+                }
+        }
+    }
+
+    /**
+     * Reads a value written by {@link #writeValue(DataOutput, Object)}.
+     *
+     * @param in the input to read from
+     * @return the value, sets being unmodifiable
+     * @throws IOException if reading fails or the data is corrupt
+     */
+    static Object readValue(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+            case TAG_INT:
+                return in.readInt();
+            case TAG_LONG:
+                return in.readLong();
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_STRING:
+                return readString(in);
+            case TAG_STRING_SET:
+                int size = in.readInt();
+                if (size < 0)
+                    throw new IOException("Invalid set size " + size);
+                Set<String> set = new HashSet<String>();
+                for (int i = 0; i < size; i++) {
+                    set.add(readString(in));
+                }
+                return Collections.unmodifiableSet(set);
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Round-trips arrays through {@link ArrayCodec} and checks that malformed Strings are rejected.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class ArrayCodecTest {
+
+    private final Random mRandom = new Random(182);
+
+    @Test
+    public void intsRoundTrip() {
+        assertIntsRoundTrip(new int[0]);
+        assertIntsRoundTrip(new int[]{0});
+        assertIntsRoundTrip(new int[]{1, -1, 63, -64, 64, -65});
+        assertIntsRoundTrip(new int[]{Integer.MAX_VALUE, Integer.MIN_VALUE, 0, Integer.MIN_VALUE});
+        for (int length = 0; length < 20; length++) {
+            int[] values = new int[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = mRandom.nextInt() >> mRandom.nextInt(32);
+            }
+            assertIntsRoundTrip(values);
+        }
+    }
+
+    @Test
+    public void longsRoundTrip() {
+        assertLongsRoundTrip(new long[0]);
+        assertLongsRoundTrip(new long[]{0L, 1L, -1L});
+        assertLongsRoundTrip(new long[]{Long.MAX_VALUE, Long.MIN_VALUE, Integer.MIN_VALUE - 1L});
+        for (int length = 0; length < 20; length++) {
+            long[] values = new long[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = mRandom.nextLong() >> mRandom.nextInt(64);
+            }
+            assertLongsRoundTrip(values);
+        }
+    }
+
+    @Test
+    public void bytesRoundTrip() {
+        // every length modulo 3, as the last block is not padded
+        for (int length = 0; length < 10; length++) {
+            byte[] bytes = new byte[length];
+            mRandom.nextBytes(bytes);
+            final String encoded = ArrayCodec.encodeBytes(bytes);
+            assertEquals((length * 4 + 2) / 3, encoded.length());
+            assertArrayEquals(bytes, ArrayCodec.decodeBytes(encoded));
+        }
+    }
+
+    @Test
+    public void smallValuesTakeOneByte() {
+        assertEquals(4, ArrayCodec.encodeInts(new int[]{1, -1, 63}).length());
+        assertEquals("", ArrayCodec.encodeInts(new int[0]));
+    }
+
+    @Test
+    public void nullRoundTrips() {
+        assertNull(ArrayCodec.encodeInts(null));
+        assertNull(ArrayCodec.decodeInts(null));
+        assertNull(ArrayCodec.encodeLongs(null));
+        assertNull(ArrayCodec.decodeLongs(null));
+        assertNull(ArrayCodec.encodeBytes(null));
+        assertNull(ArrayCodec.decodeBytes(null));
+    }
+
+    @Test
+    public void malformedStringsAreRejected() {
+        // a length that no number of bytes encodes to
+        assertRejected("AAAAA");
+        // characters outside of the alphabet
+        assertRejected("AA=A");
+        assertRejected("1,2,3");
+        assertRejected("\u00e4AAA");
+        // a number whose last byte is missing
+        assertRejected(ArrayCodec.encodeBytes(new byte[]{1, (byte) 0x80}));
+    }
+
+    @Test
+    public void oversizedNumbersAreRejected() {
+        // 6 bytes for an int
+        try {
+            ArrayCodec.decodeInts(ArrayCodec.encodeBytes(new byte[]{-1, -1, -1, -1, -1, 1}));
+            fail("decoded an int of 6 bytes");
+        } catch (IllegalArgumentException expected) {
+        }
+        // 11 bytes for a long
+        try {
+            ArrayCodec.decodeLongs(ArrayCodec.encodeBytes(new byte[]{-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1}));
+            fail("decoded a long of 11 bytes");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void numbersOutOfRangeAreRejected() {
+        // 5 bytes can hold 35 bits, only 32 of them fit into an int
+        try {
+            ArrayCodec.decodeInts(ArrayCodec.encodeBytes(new byte[]{-1, -1, -1, -1, 0x1f}));
+            fail("decoded an int of 33 bits");
+        } catch (IllegalArgumentException expected) {
+        }
+        // 10 bytes can hold 70 bits, only 64 of them fit into a long
+        try {
+            ArrayCodec.decodeLongs(ArrayCodec.encodeBytes(new byte[]{-1, -1, -1, -1, -1, -1, -1, -1, -1, 3}));
+            fail("decoded a long of 65 bits");
+        } catch (IllegalArgumentException expected) {
+        }
+        // the largest numbers still fit
+        assertIntsRoundTrip(new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE});
+        assertLongsRoundTrip(new long[]{Long.MIN_VALUE, Long.MAX_VALUE});
+    }
+
+    private static void assertIntsRoundTrip(int[] values) {
+        assertArrayEquals(values, ArrayCodec.decodeInts(ArrayCodec.encodeInts(values)));
+    }
+
+    private static void assertLongsRoundTrip(long[] values) {
+        assertArrayEquals(values, ArrayCodec.decodeLongs(ArrayCodec.encodeLongs(values)));
+    }
+
+    private static void assertRejected(String encoded) {
+        try {
+            ArrayCodec.decodeInts(encoded);
+            fail("decoded ints from " + encoded);
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            ArrayCodec.decodeLongs(encoded);
+            fail("decoded longs from " + encoded);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
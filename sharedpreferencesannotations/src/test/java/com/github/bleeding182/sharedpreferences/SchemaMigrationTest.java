@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that {@link SchemaMigration} only converts values without loss and drops the others.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class SchemaMigrationTest {
+
+    @Test
+    public void stringsAreParsed() {
+        assertEquals(42, SchemaMigration.convert(" 42", PreferenceType.STRING, PreferenceType.INTEGER));
+        assertEquals(42L, SchemaMigration.convert("42", PreferenceType.STRING, PreferenceType.LONG));
+        assertEquals(1.5f, SchemaMigration.convert("1.5", PreferenceType.STRING, PreferenceType.FLOAT));
+        assertEquals(Boolean.TRUE, SchemaMigration.convert("TRUE", PreferenceType.STRING, PreferenceType.BOOLEAN));
+        assertEquals(Collections.singleton("a"),
+                SchemaMigration.convert("a", PreferenceType.STRING, PreferenceType.STRING_SET));
+        assertNull(SchemaMigration.convert("forty-two", PreferenceType.STRING, PreferenceType.INTEGER));
+        assertNull(SchemaMigration.convert("yes", PreferenceType.STRING, PreferenceType.BOOLEAN));
+    }
+
+    @Test
+    public void numbersAreConvertedWithoutLoss() {
+        assertEquals(7L, SchemaMigration.convert(7, PreferenceType.INTEGER, PreferenceType.LONG));
+        assertEquals(7, SchemaMigration.convert(7L, PreferenceType.LONG, PreferenceType.INTEGER));
+        assertEquals(3, SchemaMigration.convert(3f, PreferenceType.FLOAT, PreferenceType.INTEGER));
+        assertEquals(16777216f, SchemaMigration.convert(16777216, PreferenceType.INTEGER, PreferenceType.FLOAT));
+
+        assertNull(SchemaMigration.convert(1L << 31, PreferenceType.LONG, PreferenceType.INTEGER));
+        assertNull(SchemaMigration.convert(3.5f, PreferenceType.FLOAT, PreferenceType.INTEGER));
+        // the nearest float is 16777216
+        assertNull(SchemaMigration.convert(16777217, PreferenceType.INTEGER, PreferenceType.FLOAT));
+        assertNull(SchemaMigration.convert(Long.MAX_VALUE, PreferenceType.LONG, PreferenceType.FLOAT));
+    }
+
+    @Test
+    public void valuesOfAnotherTypeAreDropped() {
+        assertNull(SchemaMigration.convert("7", PreferenceType.INTEGER, PreferenceType.LONG));
+        assertNull(SchemaMigration.convert(null, PreferenceType.STRING, PreferenceType.INTEGER));
+    }
+
+    @Test
+    public void encodedStringsAreKept() {
+        final String ints = ArrayCodec.encodeInts(new int[]{1, -2, 3});
+        assertEquals(ints, SchemaMigration.convert(ints, PreferenceType.STRING, PreferenceType.INT_ARRAY));
+        final String longs = ArrayCodec.encodeLongs(new long[]{Long.MIN_VALUE, 0});
+        assertEquals(longs, SchemaMigration.convert(longs, PreferenceType.STRING, PreferenceType.LONG_ARRAY));
+        final String bytes = ArrayCodec.encodeBytes(new byte[]{1, 2, 3, 4});
+        assertEquals(bytes, SchemaMigration.convert(bytes, PreferenceType.STRING, PreferenceType.BYTES));
+        assertEquals(ints, SchemaMigration.convert(ints, PreferenceType.INT_ARRAY, PreferenceType.STRING));
+    }
+
+    @Test
+    public void unencodedStringsAreDropped() {
+        assertNull(SchemaMigration.convert("1,2,3", PreferenceType.STRING, PreferenceType.INT_ARRAY));
+        assertNull(SchemaMigration.convert("1,2,3", PreferenceType.STRING, PreferenceType.LONG_ARRAY));
+        assertNull(SchemaMigration.convert("1,2,3", PreferenceType.STRING, PreferenceType.BYTES));
+        assertNull(SchemaMigration.convert("AAAAA", PreferenceType.STRING, PreferenceType.BYTES));
+    }
+
+    @Test
+    public void arraysAreConvertedBetweenIntsAndLongs() {
+        final String ints = ArrayCodec.encodeInts(new int[]{1, -2, Integer.MAX_VALUE});
+        assertArrayEquals(new long[]{1, -2, Integer.MAX_VALUE}, ArrayCodec.decodeLongs(
+                (String) SchemaMigration.convert(ints, PreferenceType.INT_ARRAY, PreferenceType.LONG_ARRAY)));
+
+        final String longs = ArrayCodec.encodeLongs(new long[]{4, -5});
+        assertArrayEquals(new int[]{4, -5}, ArrayCodec.decodeInts(
+                (String) SchemaMigration.convert(longs, PreferenceType.LONG_ARRAY, PreferenceType.INT_ARRAY)));
+        assertNull(SchemaMigration.convert(ArrayCodec.encodeLongs(new long[]{1L << 40}),
+                PreferenceType.LONG_ARRAY, PreferenceType.INT_ARRAY));
+    }
+
+    @Test
+    public void enumIdsAreNumbers() {
+        assertEquals(3, SchemaMigration.convert(3, PreferenceType.ENUM, PreferenceType.INTEGER));
+        assertEquals(3L, SchemaMigration.convert(3, PreferenceType.ENUM, PreferenceType.LONG));
+        assertEquals(3, SchemaMigration.convert(3, PreferenceType.INTEGER, PreferenceType.ENUM));
+        assertNull(SchemaMigration.convert(3, PreferenceType.ENUM, PreferenceType.STRING));
+        assertEquals(PreferenceType.BYTES, SchemaMigration.toEnum(" BYTES", PreferenceType.class));
+        assertNull(SchemaMigration.toEnum("bytes", PreferenceType.class));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.store;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link GroupedPreferenceStore} opens the store of a group on first use and only writes the groups
+ * that an editor changed.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class GroupedPreferenceStoreTest {
+
+    private static final String ACCOUNT = "account";
+    private static final String SETTINGS = "settings";
+
+    private final Map<String, CountingStore> mStores = new HashMap<String, CountingStore>();
+    private final List<String> mOpened = new ArrayList<String>();
+    private GroupedPreferenceStore mStore;
+
+    @Before
+    public void setUp() {
+        GroupLayout layout = GroupLayout.builder()
+                .add("user", ACCOUNT)
+                .add("token", ACCOUNT)
+                .add("theme", SETTINGS)
+                .build();
+        mStore = new GroupedPreferenceStore(layout, new GroupedPreferenceStore.Factory() {
+            @Override
+            public PreferenceStore open(String group) throws IOException {
+                mOpened.add(group);
+                CountingStore store = new CountingStore();
+                mStores.put(group, store);
+                return store;
+            }
+        });
+    }
+
+    @Test
+    public void groupsAreOpenedOnFirstAccess() {
+        assertTrue(mOpened.isEmpty());
+        assertEquals(null, mStore.getString("user", null));
+        assertEquals(1, mOpened.size());
+        assertTrue(mStore.isOpened(ACCOUNT));
+        assertFalse(mStore.isOpened(SETTINGS));
+
+        mStore.getString("token", null);
+        mStore.getInt("theme", 0);
+        mStore.getInt("other", 0);
+        assertEquals(3, mOpened.size());
+        assertTrue(mStore.isOpened(GroupLayout.DEFAULT_GROUP));
+    }
+
+    @Test
+    public void onlyEditedGroupsAreWritten() {
+        assertTrue(mStore.edit().putString("user", "david").putString("token", "abc").commit());
+        assertEquals(1, mStores.get(ACCOUNT).mWrites);
+        assertFalse(mStore.isOpened(SETTINGS));
+        assertFalse(mStore.isOpened(GroupLayout.DEFAULT_GROUP));
+        assertEquals("david", mStores.get(ACCOUNT).getString("user", null));
+
+        mStore.edit().putInt("theme", 2).remove("token").apply();
+        assertEquals(2, mStores.get(ACCOUNT).mWrites);
+        assertEquals(1, mStores.get(SETTINGS).mWrites);
+        assertFalse(mStore.isOpened(GroupLayout.DEFAULT_GROUP));
+        assertFalse(mStores.get(ACCOUNT).contains("token"));
+        assertEquals(2, mStores.get(SETTINGS).getInt("theme", 0));
+    }
+
+    @Test
+    public void keysWithoutGroupGoToTheDefaultGroup() {
+        assertTrue(mStore.edit().putLong("other", 5L).commit());
+        assertEquals(5L, mStores.get(GroupLayout.DEFAULT_GROUP).getLong("other", 0L));
+        assertEquals(1, mOpened.size());
+    }
+
+    @Test
+    public void clearWritesEveryGroup() {
+        mStore.edit().putString("user", "david").putInt("theme", 2).commit();
+        assertTrue(mStore.edit().clear().putString("token", "abc").commit());
+        assertEquals(3, mOpened.size());
+        assertEquals(2, mStores.get(ACCOUNT).mWrites);
+        assertEquals(2, mStores.get(SETTINGS).mWrites);
+        assertEquals(1, mStores.get(GroupLayout.DEFAULT_GROUP).mWrites);
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("token", "abc");
+        assertEquals(expected, mStore.getAll());
+    }
+
+    @Test
+    public void changesOfGroupsAreNotified() {
+        final List<String> notified = new ArrayList<String>();
+        mStore.registerOnChangeListener(new PreferenceStore.OnChangeListener() {
+            @Override
+            public void onChanged(PreferenceStore store, String key) {
+                notified.add(key);
+            }
+        });
+        mStore.edit().putString("user", "david").commit();
+        mStore.getGroup(SETTINGS).edit().putInt("theme", 1).commit();
+        List<String> expected = new ArrayList<String>();
+        expected.add("user");
+        expected.add("theme");
+        assertEquals(expected, notified);
+    }
+
+    /**
+     * Counts how often its values are written.
+     */
+    private static class CountingStore extends InMemoryPreferenceStore {
+        int mWrites;
+
+        @Override
+        protected boolean write(boolean clear, Map<String, Object> changes, boolean commit, List<String> changedKeys) {
+            mWrites++;
+            return super.write(clear, changes, commit, changedKeys);
+        }
+    }
+}
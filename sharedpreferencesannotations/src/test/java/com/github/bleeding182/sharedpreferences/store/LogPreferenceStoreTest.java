@@ -0,0 +1,298 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.store;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link LogPreferenceStore} recovers the values of the last complete record after a crash,
+ * while appending to the log or at any step of a compaction.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class LogPreferenceStoreTest {
+
+    private static final String NAME = "prefs";
+    private static final int RECORDS = 40;
+    private static final int CRASHES = 200;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final Random mRandom = new Random(182);
+    private final HeldExecutor mExecutor = new HeldExecutor();
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mFolder.newFolder();
+    }
+
+    @Test
+    public void truncatedLogKeepsLastCompleteRecord() throws IOException {
+        List<Long> sizes = new ArrayList<Long>();
+        List<Map<String, Object>> states = writeRecords(sizes);
+
+        final File log = new File(mDir, NAME + ".log");
+        for (int i = 0; i < CRASHES; i++) {
+            final long length = mRandom.nextInt((int) log.length() + 1);
+            File crashed = copy(mDir);
+            RandomAccessFile file = new RandomAccessFile(new File(crashed, NAME + ".log"), "rw");
+            try {
+                file.setLength(length);
+            } finally {
+                file.close();
+            }
+            assertEquals("truncated to " + length, states.get(lastRecord(sizes, length)), reopen(crashed));
+        }
+    }
+
+    @Test
+    public void corruptRecordDropsTheRestOfTheLog() throws IOException {
+        List<Long> sizes = new ArrayList<Long>();
+        List<Map<String, Object>> states = writeRecords(sizes);
+
+        final File log = new File(mDir, NAME + ".log");
+        for (int i = 0; i < CRASHES; i++) {
+            // the header of the log is checked separately, a corrupt one fails to open
+            final long offset = sizes.get(0) + mRandom.nextInt((int) (log.length() - sizes.get(0)));
+            File crashed = copy(mDir);
+            RandomAccessFile file = new RandomAccessFile(new File(crashed, NAME + ".log"), "rw");
+            try {
+                file.seek(offset);
+                final int value = file.read();
+                file.seek(offset);
+                file.write(value ^ (1 + mRandom.nextInt(255)));
+            } finally {
+                file.close();
+            }
+            assertEquals("corrupted at " + offset, states.get(lastRecord(sizes, offset)), reopen(crashed));
+        }
+    }
+
+    @Test
+    public void crashAfterTheNewLogWasStarted() throws IOException {
+        LogPreferenceStore store = startCompaction();
+        Map<String, ?> expected = store.getAll();
+        assertTrue(new File(mDir, NAME + ".log.old").exists());
+        assertEquals(expected, reopen(copy(mDir)));
+    }
+
+    @Test
+    public void crashBeforeTheSnapshotWasRenamed() throws IOException {
+        LogPreferenceStore store = startCompaction();
+        Map<String, ?> expected = store.getAll();
+        File crashed = copy(mDir);
+        // a partially written snapshot
+        OutputStream out = new FileOutputStream(new File(crashed, NAME + ".tmp"));
+        try {
+            out.write(new byte[]{0x53, 0x50, 0x4c});
+        } finally {
+            out.close();
+        }
+        assertEquals(expected, reopen(crashed));
+    }
+
+    @Test
+    public void crashAfterTheSnapshotWasRenamed() throws IOException {
+        LogPreferenceStore store = startCompaction();
+        Map<String, ?> expected = store.getAll();
+        File oldLog = copy(mDir);
+        mExecutor.runAll();
+        assertFalse(new File(mDir, NAME + ".log.old").exists());
+        // the old log was not yet deleted
+        File crashed = copy(mDir);
+        copyFile(new File(oldLog, NAME + ".log.old"), new File(crashed, NAME + ".log.old"));
+        assertEquals(expected, reopen(crashed));
+    }
+
+    @Test
+    public void reopenAfterCompaction() throws IOException {
+        LogPreferenceStore store = startCompaction();
+        Map<String, ?> expected = store.getAll();
+        mExecutor.runAll();
+        assertEquals(expected, reopen(copy(mDir)));
+        store.close();
+        assertEquals(expected, reopen(mDir));
+    }
+
+    @Test(timeout = 10000)
+    public void rejectedCompactionIsDiscarded() throws IOException {
+        LogPreferenceStore store = new LogPreferenceStore(new File(mDir, NAME), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, 64);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.edit().putInt("key" + i, i).commit());
+        }
+        Map<String, ?> expected = store.getAll();
+        // waits for a compaction in progress
+        store.compact();
+        assertFalse(new File(mDir, NAME + ".log.old").exists());
+        store.close();
+        assertEquals(expected, reopen(mDir));
+    }
+
+    /**
+     * Writes records to a log that is never compacted.
+     *
+     * @param sizes the size of the log after its header and each record get added here
+     * @return the values after each record, starting with the empty store
+     */
+    private List<Map<String, Object>> writeRecords(List<Long> sizes) throws IOException {
+        LogPreferenceStore store = new LogPreferenceStore(new File(mDir, NAME), mExecutor, Long.MAX_VALUE);
+        List<Map<String, Object>> states = new ArrayList<Map<String, Object>>();
+        states.add(new HashMap<String, Object>(store.getAll()));
+        sizes.add(store.getLogSize());
+        for (int i = 0; i < RECORDS; i++) {
+            write(store, i);
+            states.add(new HashMap<String, Object>(store.getAll()));
+            sizes.add(store.getLogSize());
+        }
+        store.close();
+        return states;
+    }
+
+    private static void write(LogPreferenceStore store, int i) {
+        PreferenceStore.Editor editor = store.edit();
+        if (i % 7 == 6)
+            editor.remove("string" + (i % 3));
+        else
+            editor.putString("string" + (i % 3), "value " + i);
+        editor.putInt("int" + (i % 5), i)
+                .putLong("long", i * 1000000007L)
+                .putBoolean("boolean" + (i % 2), i % 4 == 0)
+                .putStringSet("set", Collections.singleton("element " + i));
+        if (i == RECORDS / 2)
+            editor.clear();
+        editor.apply();
+    }
+
+    /**
+     * Writes records until a compaction gets started, and some more while it is held by the executor.
+     */
+    private LogPreferenceStore startCompaction() throws IOException {
+        LogPreferenceStore store = new LogPreferenceStore(new File(mDir, NAME), mExecutor, 512);
+        int i = 0;
+        while (mExecutor.mTasks.isEmpty()) {
+            write(store, i++);
+        }
+        for (int j = 0; j < 3; j++) {
+            write(store, i++);
+        }
+        return store;
+    }
+
+    /**
+     * @return the index of the last record completely contained in the first bytes of the log
+     */
+    private static int lastRecord(List<Long> sizes, long length) {
+        int record = 0;
+        while (record + 1 < sizes.size() && sizes.get(record + 1) <= length) {
+            record++;
+        }
+        return record;
+    }
+
+    private static Map<String, ?> reopen(File dir) throws IOException {
+        LogPreferenceStore store = new LogPreferenceStore(new File(dir, NAME), new HeldExecutor());
+        try {
+            return store.getAll();
+        } finally {
+            store.close();
+        }
+    }
+
+    private File copy(File dir) throws IOException {
+        File copy = mFolder.newFolder();
+        for (File file : dir.listFiles()) {
+            copyFile(file, new File(copy, file.getName()));
+        }
+        return copy;
+    }
+
+    private static void copyFile(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Keeps the compactions until they are run, so the files can be copied in between.
+     */
+    private static class HeldExecutor implements Executor {
+        final List<Runnable> mTasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            for (Runnable task : mTasks) {
+                task.run();
+            }
+            mTasks.clear();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.store;
+
+import com.github.bleeding182.sharedpreferences.PreferenceType;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link MappedPreferenceStore} keeps the values of its slots and its overflow file when it is
+ * opened again, with the same or a changed layout.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class MappedPreferenceStoreTest {
+
+    private static final SlotLayout LAYOUT = SlotLayout.builder()
+            .add("count", PreferenceType.INTEGER)
+            .add("time", PreferenceType.LONG)
+            .add("ratio", PreferenceType.FLOAT)
+            .add("enabled", PreferenceType.BOOLEAN)
+            .build();
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final HeldExecutor mExecutor = new HeldExecutor();
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mFolder.newFolder(), "prefs");
+    }
+
+    @Test
+    public void valuesAreKeptWhenOpenedAgain() throws IOException {
+        MappedPreferenceStore store = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        store.edit()
+                .putInt("count", 3)
+                .putLong("time", 1L << 40)
+                .putFloat("ratio", 0.5f)
+                .putBoolean("enabled", true)
+                .putString("name", "david")
+                .putStringSet("tags", Collections.singleton("a"))
+                .apply();
+        final Map<String, ?> values = store.getAll();
+        assertEquals(6, values.size());
+        store.close();
+
+        store = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        assertEquals(values, store.getAll());
+        assertEquals(3, store.getInt("count", 0));
+        assertEquals(1L << 40, store.getLong("time", 0));
+        assertEquals(0.5f, store.getFloat("ratio", 0), 0);
+        assertTrue(store.getBoolean("enabled", false));
+        store.close();
+    }
+
+    @Test
+    public void removedAndClearedSlotsAreAbsent() throws IOException {
+        MappedPreferenceStore store = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        store.edit().putInt("count", 3).putLong("time", 4).commit();
+        store.edit().remove("count").commit();
+        assertFalse(store.contains("count"));
+        assertEquals(-1, store.getInt("count", -1));
+        store.edit().clear().commit();
+        assertTrue(store.getAll().isEmpty());
+        store.close();
+
+        store = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        assertTrue(store.getAll().isEmpty());
+        store.close();
+    }
+
+    @Test
+    public void valuesOfAnotherTypeMoveToTheOverflowFile() throws IOException {
+        MappedPreferenceStore store = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        store.edit().putInt("count", 3).commit();
+        store.edit().putString("count", "three").commit();
+        assertEquals("three", store.getString("count", null));
+        store.close();
+
+        store = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        assertEquals(Collections.singletonMap("count", "three"), store.getAll());
+        store.close();
+    }
+
+    @Test
+    public void overflowFileIsWrittenOnTheExecutor() throws IOException {
+        MappedPreferenceStore store = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        store.edit().putString("name", "david").apply();
+        store.edit().putString("name", "medenjak").apply();
+        // one write covers both changes
+        assertEquals(1, mExecutor.mTasks.size());
+        assertFalse(overflowFile().exists());
+        mExecutor.runAll();
+        assertTrue(overflowFile().exists());
+
+        MappedPreferenceStore reopened = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        assertEquals("medenjak", reopened.getString("name", null));
+        reopened.close();
+        store.close();
+    }
+
+    @Test
+    public void slotValuesDoNotWriteTheOverflowFile() throws IOException {
+        MappedPreferenceStore store = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        store.edit().putString("name", "david").commit();
+        final long modified = overflowFile().lastModified();
+
+        store.edit().putInt("count", 3).apply();
+        store.edit().remove("count").apply();
+        store.edit().remove("time").apply();
+        assertTrue(mExecutor.mTasks.isEmpty());
+        assertEquals(modified, overflowFile().lastModified());
+        store.close();
+    }
+
+    @Test
+    public void valuesAreCopiedIntoANewLayout() throws IOException {
+        MappedPreferenceStore store = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        store.edit()
+                .putInt("count", 3)
+                .putLong("time", 4)
+                .putFloat("ratio", 0.5f)
+                .putString("name", "david")
+                .commit();
+        final Map<String, ?> values = store.getAll();
+        store.close();
+
+        // "time" loses its slot, "ratio" moves to another offset and "visits" is added
+        SlotLayout layout = SlotLayout.builder()
+                .add("visits", PreferenceType.LONG)
+                .add("count", PreferenceType.INTEGER)
+                .add("ratio", PreferenceType.FLOAT)
+                .build();
+        store = new MappedPreferenceStore(mFile, layout, mExecutor);
+        assertEquals(values, store.getAll());
+        assertEquals(4L, store.getLong("time", 0));
+        store.edit().putLong("visits", 5).commit();
+        store.close();
+
+        // the value without a slot is kept in the overflow file
+        Map<String, Object> expected = new HashMap<String, Object>(values);
+        expected.put("visits", 5L);
+        store = new MappedPreferenceStore(mFile, layout, mExecutor);
+        assertEquals(expected, store.getAll());
+        store.close();
+
+        Map<String, Object> overflow = new HashMap<String, Object>();
+        overflow.put("name", "david");
+        overflow.put("time", 4L);
+        assertEquals(overflow, readOverflow());
+
+        // with the old layout "time" moves back into its slot and "visits" to the overflow file
+        store = new MappedPreferenceStore(mFile, LAYOUT, mExecutor);
+        assertEquals(expected, store.getAll());
+        store.close();
+        overflow.remove("time");
+        overflow.put("visits", 5L);
+        assertEquals(overflow, readOverflow());
+    }
+
+    private File overflowFile() {
+        return new File(mFile.getPath() + ".overflow");
+    }
+
+    /**
+     * Opens a copy of the overflow file with a layout without slots, thus holding only its values.
+     */
+    private Map<String, ?> readOverflow() throws IOException {
+        File copy = new File(mFolder.newFolder(), "copy");
+        InputStream in = new FileInputStream(overflowFile());
+        try {
+            OutputStream out = new FileOutputStream(new File(copy.getPath() + ".overflow"));
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        MappedPreferenceStore store = new MappedPreferenceStore(copy, SlotLayout.builder().build(), mExecutor);
+        try {
+            return store.getAll();
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Keeps the tasks until they are run by the test.
+     */
+    private static class HeldExecutor implements Executor {
+        final List<Runnable> mTasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            for (Runnable task : mTasks) {
+                task.run();
+            }
+            mTasks.clear();
+        }
+    }
+}
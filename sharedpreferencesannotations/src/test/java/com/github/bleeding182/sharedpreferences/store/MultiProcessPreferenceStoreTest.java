@@ -0,0 +1,234 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs several processes writing to the same {@link MultiProcessPreferenceStore}, and checks that
+ * interrupts do not break the lock file.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class MultiProcessPreferenceStoreTest {
+
+    private static final int PROCESSES = 4;
+    private static final int WRITES = 100;
+    private static final String SHARED_KEY = "shared";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private MultiProcessPreferenceStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mFolder.getRoot(), "prefs");
+        mStore = new MultiProcessPreferenceStore(mFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mStore.close();
+    }
+
+    @Test
+    public void concurrentProcessesLoseNoUpdates() throws Exception {
+        final Set<String> notified = Collections.synchronizedSet(new HashSet<String>());
+        mStore.registerOnChangeListener(new PreferenceStore.OnChangeListener() {
+            @Override
+            public void onChanged(PreferenceStore store, String key) {
+                notified.add(key);
+            }
+        });
+
+        List<Process> processes = new ArrayList<Process>();
+        for (int i = 0; i < PROCESSES; i++) {
+            processes.add(start(Writer.class, mFile.getPath(), String.valueOf(i)));
+        }
+        // this process writes as well, and picks up the changes of the others meanwhile
+        for (int i = 0; i < WRITES; i++) {
+            assertTrue(mStore.edit().putInt(key(PROCESSES, i), i).commit());
+            mStore.refresh();
+        }
+        for (Process process : processes) {
+            assertEquals(0, process.waitFor());
+        }
+        mStore.refresh();
+
+        Map<String, ?> values = mStore.getAll();
+        Set<String> lastWrites = new HashSet<String>();
+        for (int process = 0; process <= PROCESSES; process++) {
+            for (int i = 0; i < WRITES; i++) {
+                assertEquals(key(process, i), i, values.get(key(process, i)));
+                assertTrue(key(process, i), process == PROCESSES || notified.contains(key(process, i)));
+            }
+            lastWrites.add(process + ":" + (WRITES - 1));
+        }
+        lastWrites.remove(PROCESSES + ":" + (WRITES - 1));
+        assertTrue(String.valueOf(values.get(SHARED_KEY)), lastWrites.contains(values.get(SHARED_KEY)));
+        assertTrue(notified.contains(SHARED_KEY));
+        assertEquals((PROCESSES + 1) * WRITES + 1, values.size());
+    }
+
+    @Test
+    public void interruptWhileWaitingForTheLockDoesNotLoseTheWrite() throws Exception {
+        final Process holder = start(LockHolder.class, mFile.getPath());
+        BufferedReader reader = new BufferedReader(new InputStreamReader(holder.getInputStream(), "UTF-8"));
+        assertEquals("locked", reader.readLine());
+
+        final AtomicBoolean result = new AtomicBoolean();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                result.set(mStore.edit().putString("key", "value").commit());
+                interrupted.set(Thread.interrupted());
+            }
+        };
+        writer.start();
+        // let the writer block on the lock of the other process
+        Thread.sleep(500);
+        writer.interrupt();
+        Thread.sleep(100);
+        release(holder);
+        writer.join(10000);
+
+        assertTrue(result.get());
+        assertTrue("the interrupt status is kept", interrupted.get());
+        assertEquals("value", mStore.getString("key", null));
+        assertTrue(mStore.edit().putString("key", "other").commit());
+        assertEquals("other", readAll().get("key"));
+    }
+
+    @Test
+    public void writeWithInterruptStatusSucceeds() throws IOException {
+        Thread.currentThread().interrupt();
+        try {
+            assertTrue(mStore.edit().putInt("key", 1).commit());
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(mStore.edit().putInt("key", 2).commit());
+        assertEquals(2, readAll().get("key"));
+    }
+
+    @Test
+    public void writeToClosedStoreThrows() throws IOException {
+        MultiProcessPreferenceStore store = new MultiProcessPreferenceStore(mFile);
+        store.close();
+        try {
+            store.edit().putInt("key", 1).commit();
+            fail("closed store was written");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private Map<String, ?> readAll() throws IOException {
+        MultiProcessPreferenceStore store = new MultiProcessPreferenceStore(mFile);
+        try {
+            return store.getAll();
+        } finally {
+            store.close();
+        }
+    }
+
+    private static String key(int process, int write) {
+        return "p" + process + "_" + write;
+    }
+
+    private static Process start(Class<?> main, String... args) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(main.getName());
+        Collections.addAll(command, args);
+        return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    private static void release(Process holder) throws Exception {
+        OutputStream out = holder.getOutputStream();
+        out.write('\n');
+        out.flush();
+        assertEquals(0, holder.waitFor());
+    }
+
+    /**
+     * Writes a key of its own and the shared key {@value #WRITES} times each.
+     */
+    public static class Writer {
+        public static void main(String[] args) throws IOException {
+            MultiProcessPreferenceStore store = new MultiProcessPreferenceStore(new File(args[0]));
+            final int process = Integer.parseInt(args[1]);
+            for (int i = 0; i < WRITES; i++) {
+                if (!store.edit().putInt(key(process, i), i).putString(SHARED_KEY, process + ":" + i).commit())
+                    System.exit(1);
+            }
+            store.close();
+        }
+    }
+
+    /**
+     * Holds the exclusive lock of the store until a line is read.
+     */
+    public static class LockHolder {
+        public static void main(String[] args) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(args[0] + ".lock", "rw");
+            FileLock lock = file.getChannel().lock();
+            System.out.println("locked");
+            System.out.flush();
+            new BufferedReader(new InputStreamReader(System.in, "UTF-8")).readLine();
+            lock.release();
+            file.close();
+        }
+    }
+}
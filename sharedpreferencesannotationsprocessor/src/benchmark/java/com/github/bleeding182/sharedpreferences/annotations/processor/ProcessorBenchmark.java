@@ -0,0 +1,251 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * <p>Times the processor on synthetic interfaces with 10, 1,000 and 10,000 fields in total,
+ * split into interfaces of at most {@value #FIELDS_PER_INTERFACE} fields.</p>
+ * <p>Sources are only processed, not compiled, and the generated files are kept in memory.
+ * Run with {@code gradle :sharedpreferencesannotationsprocessor:benchmark}, optionally passing other
+ * field counts as arguments. Setting the system property {@code benchmark.maxMicrosPerField} fails the
+ * run if processing takes longer, to catch regressions.</p>
+ */
+public class ProcessorBenchmark {
+
+    private static final int FIELDS_PER_INTERFACE = 100;
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+    private static final String[] TYPES = {"BOOLEAN", "FLOAT", "INTEGER", "LONG", "STRING", "STRING_SET"};
+
+    public static void main(String[] args) throws Exception {
+        int[] fieldCounts = {10, 1000, 10000};
+        if (args.length > 0) {
+            fieldCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                fieldCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        final String maxMicrosPerField = System.getProperty("benchmark.maxMicrosPerField");
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new IllegalStateException("The benchmark has to run on a JDK");
+
+        boolean failed = false;
+        for (int fields : fieldCounts) {
+            List<JavaFileObject> sources = createSources(fields);
+            for (int i = 0; i < WARMUP_RUNS; i++) {
+                run(compiler, sources);
+            }
+            long processing = Long.MAX_VALUE;
+            long total = Long.MAX_VALUE;
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                final long start = System.nanoTime();
+                TimedProcessor processor = run(compiler, sources);
+                total = Math.min(total, System.nanoTime() - start);
+                processing = Math.min(processing, processor.nanos);
+            }
+            final double microsPerField = processing / 1000.0 / fields;
+            System.out.println(String.format(Locale.US,
+                    "%6d fields in %4d interfaces: processor %8.2f ms (%.2f us/field), javac total %8.2f ms",
+                    fields, sources.size(), processing / 1e6, microsPerField, total / 1e6));
+            if (maxMicrosPerField != null && microsPerField > Double.parseDouble(maxMicrosPerField)) {
+                System.out.println("  exceeds the limit of " + maxMicrosPerField + " us/field");
+                failed = true;
+            }
+        }
+        if (failed)
+            System.exit(1);
+    }
+
+    private static TimedProcessor run(JavaCompiler compiler, List<JavaFileObject> sources) throws Exception {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager standardManager = compiler.getStandardFileManager(diagnostics, null, null);
+        TimedProcessor processor = new TimedProcessor();
+        try (JavaFileManager fileManager = new MemoryFileManager(standardManager)) {
+            // the output is discarded, errors are part of the diagnostics
+            JavaCompiler.CompilationTask task = compiler.getTask(new StringWriter(), fileManager, diagnostics,
+                    Arrays.asList("-proc:only", "-classpath", System.getProperty("java.class.path")), null, sources);
+            task.setProcessors(Arrays.asList(processor));
+            if (!task.call())
+                throw new IllegalStateException("Processing failed: " + diagnostics.getDiagnostics());
+        }
+        return processor;
+    }
+
+    private static List<JavaFileObject> createSources(int fields) {
+        List<JavaFileObject> sources = new ArrayList<>();
+        for (int start = 0; start < fields; start += FIELDS_PER_INTERFACE) {
+            final String name = "Synthetic" + sources.size();
+            StringBuilder source = new StringBuilder()
+                    .append("package benchmark;\n\n")
+                    .append("import com.github.bleeding182.sharedpreferences.PreferenceType;\n")
+                    .append("import com.github.bleeding182.sharedpreferences.annotations.*;\n\n")
+                    .append("@SharedPreference\n")
+                    .append("public interface ").append(name).append(" {\n");
+            for (int field = start; field < Math.min(fields, start + FIELDS_PER_INTERFACE); field++) {
+                final String type = TYPES[field % TYPES.length];
+                source.append("    @Type(PreferenceType.").append(type).append(")\n");
+                if (field % 3 == 0 && type.equals("INTEGER"))
+                    source.append("    @DefaultValue(\"").append(field).append("\")\n");
+                source.append("    String FIELD_").append(field).append(" = \"field_").append(field).append("\";\n");
+            }
+            source.append("}\n");
+            sources.add(new Source(name, source.toString()));
+        }
+        return sources;
+    }
+
+    /**
+     * Measures the time spent in the processor only. Delegates instead of extending it, since the
+     * annotations declaring the supported types are not inherited.
+     */
+    private static final class TimedProcessor implements Processor {
+        private final Processor mProcessor = new SharedPreferencesAnnotationProcessor();
+        long nanos;
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return mProcessor.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return mProcessor.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return mProcessor.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(ProcessingEnvironment processingEnv) {
+            final long start = System.nanoTime();
+            mProcessor.init(processingEnv);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            final long start = System.nanoTime();
+            try {
+                return mProcessor.process(annotations, roundEnv);
+            } finally {
+                nanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation,
+                                                             ExecutableElement member, String userText) {
+            return mProcessor.getCompletions(element, annotation, member, userText);
+        }
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+        private final String mContent;
+
+        Source(String name, String content) {
+            super(URI.create("string:///benchmark/" + name + Kind.SOURCE.extension), Kind.SOURCE);
+            mContent = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mContent;
+        }
+    }
+
+    /**
+     * Keeps the generated files in memory, so writing them to disk does not influence the results.
+     */
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new Output(className, kind);
+        }
+    }
+
+    /**
+     * A generated file, which gets read again by the next processing round.
+     */
+    private static final class Output extends SimpleJavaFileObject {
+        private final StringWriter mContent = new StringWriter();
+
+        Output(String className, Kind kind) {
+            super(URI.create("memory:///" + className.replace('.', '/') + kind.extension), kind);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public Writer openWriter() {
+            return mContent;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mContent.toString();
+        }
+    }
+}
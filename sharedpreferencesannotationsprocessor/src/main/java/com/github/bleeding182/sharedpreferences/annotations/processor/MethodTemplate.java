@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A method of an interface wrapped by the generated classes, with its type and parameter names
+ * resolved once per processor instead of once per annotated interface.
+ */
+final class MethodTemplate {
+    final String name;
+    final Class<?> returnClass;
+    final String returnType;
+    /**
+     * Pairs of parameter type and name, as used by {@link com.squareup.javawriter.JavaWriter#beginMethod(String, String, java.util.Set, String...)}.
+     */
+    final String[] parameters;
+    /**
+     * The parameter names separated by commas, to pass them on.
+     */
+    final String arguments;
+
+    private MethodTemplate(Method method) {
+        name = method.getName();
+        returnClass = method.getReturnType();
+        returnType = method.getGenericReturnType().getTypeName().replace('$', '.');
+        final int count = method.getParameterCount();
+        parameters = new String[count * 2];
+        StringBuilder arguments = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            parameters[2 * i] = method.getGenericParameterTypes()[i].getTypeName().replace('$', '.');
+            parameters[2 * i + 1] = method.getParameters()[i].getName();
+            if (i > 0)
+                arguments.append(", ");
+            arguments.append(parameters[2 * i + 1]);
+        }
+        this.arguments = arguments.toString();
+    }
+
+    /**
+     * Resolves the public methods of the type, sorted since their order returned by reflection is
+     * unspecified and the generated code should be the same for every build.
+     */
+    static List<MethodTemplate> of(Class<?> type) {
+        List<MethodTemplate> templates = new ArrayList<>();
+        for (Method method : type.getMethods()) {
+            templates.add(new MethodTemplate(method));
+        }
+        templates.sort(Comparator.comparing((MethodTemplate template) -> template.name)
+                .thenComparing(template -> Arrays.toString(template.parameters)));
+        return Collections.unmodifiableList(templates);
+    }
+
+    int getParameterCount() {
+        return parameters.length / 2;
+    }
+
+    String getParameterName(int index) {
+        return parameters[2 * index + 1];
+    }
+}
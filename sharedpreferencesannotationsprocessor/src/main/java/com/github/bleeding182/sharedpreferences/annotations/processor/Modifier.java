@@ -9,19 +9,31 @@ import java.util.Set;
 class Modifier {
     final static Set<javax.lang.model.element.Modifier> PUBLIC_STATIC = new LinkedHashSet<>();
     final static Set<javax.lang.model.element.Modifier> PUBLIC = new LinkedHashSet<>();
+    final static Set<javax.lang.model.element.Modifier> PUBLIC_FINAL = new LinkedHashSet<>();
     final static Set<javax.lang.model.element.Modifier> PRIVATE = new LinkedHashSet<>();
+    final static Set<javax.lang.model.element.Modifier> PROTECTED = new LinkedHashSet<>();
     final static Set<javax.lang.model.element.Modifier> PRIVATE_FINAL = new LinkedHashSet<>();
+    final static Set<javax.lang.model.element.Modifier> PRIVATE_STATIC = new LinkedHashSet<>();
     final static Set<javax.lang.model.element.Modifier> PUBLIC_FINAL_STATIC = new LinkedHashSet<>();
+    final static Set<javax.lang.model.element.Modifier> PRIVATE_FINAL_STATIC = new LinkedHashSet<>();
 
     static {
         PUBLIC_STATIC.add(javax.lang.model.element.Modifier.PUBLIC);
         PUBLIC_STATIC.add(javax.lang.model.element.Modifier.STATIC);
         PUBLIC.add(javax.lang.model.element.Modifier.PUBLIC);
+        PUBLIC_FINAL.add(javax.lang.model.element.Modifier.PUBLIC);
+        PUBLIC_FINAL.add(javax.lang.model.element.Modifier.FINAL);
         PRIVATE_FINAL.add(javax.lang.model.element.Modifier.PRIVATE);
         PRIVATE_FINAL.add(javax.lang.model.element.Modifier.FINAL);
+        PRIVATE_STATIC.add(javax.lang.model.element.Modifier.PRIVATE);
+        PRIVATE_STATIC.add(javax.lang.model.element.Modifier.STATIC);
         PUBLIC_FINAL_STATIC.add(javax.lang.model.element.Modifier.PUBLIC);
         PUBLIC_FINAL_STATIC.add(javax.lang.model.element.Modifier.FINAL);
         PUBLIC_FINAL_STATIC.add(javax.lang.model.element.Modifier.STATIC);
         PRIVATE.add(javax.lang.model.element.Modifier.PRIVATE);
+        PROTECTED.add(javax.lang.model.element.Modifier.PROTECTED);
+        PRIVATE_FINAL_STATIC.add(javax.lang.model.element.Modifier.PRIVATE);
+        PRIVATE_FINAL_STATIC.add(javax.lang.model.element.Modifier.FINAL);
+        PRIVATE_FINAL_STATIC.add(javax.lang.model.element.Modifier.STATIC);
     }
 }
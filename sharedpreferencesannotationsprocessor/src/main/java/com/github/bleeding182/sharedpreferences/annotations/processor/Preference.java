@@ -24,17 +24,35 @@
 
 package com.github.bleeding182.sharedpreferences.annotations.processor;
 
+import com.github.bleeding182.sharedpreferences.PreferenceConverter;
 import com.github.bleeding182.sharedpreferences.PreferenceType;
 import com.github.bleeding182.sharedpreferences.annotations.DefaultValue;
+import com.github.bleeding182.sharedpreferences.annotations.Encrypted;
+import com.github.bleeding182.sharedpreferences.annotations.Expires;
+import com.github.bleeding182.sharedpreferences.annotations.EnumId;
+import com.github.bleeding182.sharedpreferences.annotations.Group;
+import com.github.bleeding182.sharedpreferences.annotations.MigratedFrom;
+import com.github.bleeding182.sharedpreferences.annotations.SharedPreference;
 import com.github.bleeding182.sharedpreferences.annotations.Type;
+import com.github.bleeding182.sharedpreferences.store.GroupLayout;
 import com.squareup.javawriter.JavaWriter;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
 
 /**
  * @author David Medenjak
@@ -42,14 +60,37 @@ import javax.lang.model.element.VariableElement;
  */
 class Preference {
     private static final Set<Modifier> setPublic;
+    private static final Set<Modifier> setPrivate;
+    private static final Set<Modifier> setPrivateVolatile;
+    private static final Set<Modifier> setPrivateFinal;
+    private static final Set<Modifier> setPrivateStatic;
+    private static final Set<Modifier> setPrivateStaticFinal;
 
     static {
         setPublic = new HashSet<>();
         setPublic.add(Modifier.PUBLIC);
+        setPrivate = new HashSet<>();
+        setPrivate.add(Modifier.PRIVATE);
+        setPrivateVolatile = new HashSet<>();
+        setPrivateVolatile.add(Modifier.PRIVATE);
+        setPrivateVolatile.add(Modifier.VOLATILE);
+        setPrivateFinal = new HashSet<>();
+        setPrivateFinal.add(Modifier.PRIVATE);
+        setPrivateFinal.add(Modifier.FINAL);
+        setPrivateStatic = new HashSet<>();
+        setPrivateStatic.add(Modifier.PRIVATE);
+        setPrivateStatic.add(Modifier.STATIC);
+        setPrivateStaticFinal = new HashSet<>(setPrivateStatic);
+        setPrivateStaticFinal.add(Modifier.FINAL);
     }
 
     private static final String PARAM_DEFAULT_VALUE = "defaultValue";
     private static final String VALUE = "value";
+    private static final String NEW_VALUE = "newValue";
+    /**
+     * Read for absent enum values, no constant is stored with a negative id.
+     */
+    private static final String NO_ENUM_ID = "-1";
 
     private final VariableElement mElement;
     private final PreferenceType mType;
@@ -60,19 +101,69 @@ class Preference {
     private final boolean createDefaultGetter;
     private final String mDefaultValue;
     private final String mFieldName;
+    private final boolean mCached;
+    private final boolean mCoalesce;
+    private final boolean mSkipUnchanged;
+    private final String mNameUpperFirst;
+    private final String mReturnType;
+    /**
+     * The names of the enum constants, in declaration order.
+     */
+    private final List<String> mEnumConstants;
+    /**
+     * The ids declared by {@link EnumId} for {@link #mEnumConstants}, null to use the ordinals as opted into by
+     * {@link Type#storeByOrdinal()}.
+     */
+    private final List<Integer> mEnumIds;
+    /**
+     * The class of the {@link PreferenceConverter}, null for other types.
+     */
+    private final String mConverter;
+    /**
+     * The name of the {@link Group} of the field, null for the default group.
+     */
+    private final String mGroup;
+    /**
+     * The key the value was stored under by an older schema, null if it was not {@link MigratedFrom migrated}.
+     */
+    private final String mMigratedFromKey;
+    /**
+     * The type the value was stored as by an older schema, null if it was not migrated.
+     */
+    private final PreferenceType mMigratedFromType;
+    /**
+     * The expression of the alias of the key to {@link Encrypted encrypt} the value with, null if it is stored as it is.
+     */
+    private final String mEncryptionAlias;
+    /**
+     * The time in milliseconds after which the value {@link Expires expires}, {@code 0} if it does not.
+     */
+    private final long mExpiresMillis;
 
     static String camelCaseName(String name) {
-        String[] split = name.toLowerCase().split("_");
-        String ret = split[0];
-        for (int i = 1; i < split.length; i++) {
-            ret += Character.toUpperCase(split[i].charAt(0)) + split[i].substring(1);
+        final String lowerCase = name.toLowerCase();
+        StringBuilder builder = new StringBuilder(lowerCase.length());
+        boolean upperCase = false;
+        for (int i = 0; i < lowerCase.length(); i++) {
+            final char c = lowerCase.charAt(i);
+            if (c == '_') {
+                upperCase = true;
+            } else {
+                builder.append(upperCase ? Character.toUpperCase(c) : c);
+                upperCase = false;
+            }
         }
-        return ret;
+        return builder.toString();
     }
 
-    Preference(String fieldName, String accessorName, String preferenceKey, VariableElement element, PreferenceType defaultType) {
+    Preference(String fieldName, String accessorName, String preferenceKey, VariableElement element, PreferenceType defaultType,
+               boolean cached, boolean coalesce, boolean skipUnchanged) throws IOException {
         mFieldName = fieldName;
+        mSkipUnchanged = skipUnchanged;
+        mCached = cached;
+        mCoalesce = coalesce;
         mAccessorName = accessorName;
+        mNameUpperFirst = Character.toUpperCase(accessorName.charAt(0)) + accessorName.substring(1);
         mPreferenceKey = preferenceKey;
         mElement = element;
         Type type = element.getAnnotation(Type.class);
@@ -94,12 +185,247 @@ class Preference {
             createDefaultGetter = true;
             mDefaultValue = null;
         }
+
+        Group group = element.getAnnotation(Group.class);
+        if (group != null && !GroupLayout.isValidName(group.value()))
+            throw new IOException(fieldName + ": " + group.value() + " is not a valid group name");
+        mGroup = group != null ? group.value() : null;
+
+        Encrypted encrypted = element.getAnnotation(Encrypted.class);
+        if (encrypted != null) {
+            if (mType != PreferenceType.STRING)
+                throw new IOException(fieldName + ": only PreferenceType.STRING can be encrypted");
+            mEncryptionAlias = encrypted.value().equals(SharedPreference.EMPTY) ? "PREFERENCES_NAME"
+                    : "\"" + encrypted.value() + "\"";
+        } else {
+            mEncryptionAlias = null;
+        }
+
+        Expires expires = element.getAnnotation(Expires.class);
+        if (expires != null) {
+            mExpiresMillis = expires.unit().toMillis(expires.value());
+            if (mExpiresMillis <= 0)
+                throw new IOException(fieldName + ": Expires needs a duration of at least a millisecond");
+        } else {
+            mExpiresMillis = 0;
+        }
+
+        MigratedFrom migratedFrom = element.getAnnotation(MigratedFrom.class);
+        if (migratedFrom != null) {
+            mMigratedFromKey = migratedFrom.key().equals(SharedPreference.EMPTY) ? preferenceKey : migratedFrom.key();
+            mMigratedFromType = migratedFrom.type();
+            if (mMigratedFromKey.equals(preferenceKey) && mMigratedFromType == mType)
+                throw new IOException(fieldName + ": MigratedFrom needs a different key or type");
+        } else {
+            mMigratedFromKey = null;
+            mMigratedFromType = null;
+        }
+
+        if (mType == PreferenceType.ENUM) {
+            final TypeElement enumElement = getEnumElement(type);
+            if (enumElement == null)
+                throw new IOException(fieldName + ": enumType has to be set to an enum for PreferenceType.ENUM");
+            mReturnType = enumElement.getQualifiedName().toString();
+            mEnumConstants = new ArrayList<>();
+            List<Integer> ids = new ArrayList<>();
+            for (Element e : enumElement.getEnclosedElements()) {
+                if (e.getKind() != ElementKind.ENUM_CONSTANT)
+                    continue;
+                mEnumConstants.add(e.getSimpleName().toString());
+                EnumId id = e.getAnnotation(EnumId.class);
+                if (id != null) {
+                    if (id.value() < 0)
+                        throw new IOException(mReturnType + "." + e.getSimpleName() + ": EnumId must not be negative");
+                    if (ids.contains(id.value()))
+                        throw new IOException(mReturnType + "." + e.getSimpleName() + ": EnumId " + id.value() + " is already in use");
+                    ids.add(id.value());
+                }
+            }
+            if (type.storeByOrdinal()) {
+                mEnumIds = null;
+            } else if (ids.size() != mEnumConstants.size()) {
+                // ordinals change with the order of the constants
+                throw new IOException(fieldName + ": every constant of " + mReturnType + " needs an EnumId, "
+                        + "or the field has to opt into storeByOrdinal");
+            } else {
+                mEnumIds = ids;
+            }
+            if (hasDefaultValue && !mEnumConstants.contains(mDefaultValue))
+                throw new IOException(fieldName + ": " + mDefaultValue + " is not a constant of " + mReturnType);
+            mConverter = null;
+        } else if (mType == PreferenceType.CONVERTED) {
+            final TypeElement converter = getConverterElement(type);
+            if (converter == null)
+                throw new IOException(fieldName + ": converter has to be set to a class for PreferenceType.CONVERTED");
+            mConverter = converter.getQualifiedName().toString();
+            if (converter.getModifiers().contains(Modifier.ABSTRACT) || !hasPublicConstructor(converter)
+                    || (converter.getNestingKind().isNested() && !converter.getModifiers().contains(Modifier.STATIC)))
+                throw new IOException(mConverter + " needs a public constructor without parameters");
+            mReturnType = getConvertedType(converter);
+            if (mReturnType == null)
+                throw new IOException(mConverter + " has to implement PreferenceConverter with a concrete type");
+            mEnumConstants = null;
+            mEnumIds = null;
+        } else {
+            mReturnType = mType.getReturnType();
+            mEnumConstants = null;
+            mEnumIds = null;
+            mConverter = null;
+        }
+    }
+
+    private static TypeElement getEnumElement(Type type) {
+        TypeMirror enumType;
+        try {
+            type.enumType();
+            return null;
+        } catch (MirroredTypeException ex) {
+            // the class is not loaded while compiling
+            enumType = ex.getTypeMirror();
+        }
+        final TypeElement element = asTypeElement(enumType);
+        return element != null && element.getKind() == ElementKind.ENUM ? element : null;
+    }
+
+    private static TypeElement getConverterElement(Type type) {
+        TypeMirror converter;
+        try {
+            type.converter();
+            return null;
+        } catch (MirroredTypeException ex) {
+            converter = ex.getTypeMirror();
+        }
+        final TypeElement element = asTypeElement(converter);
+        return element != null && element.getKind() == ElementKind.CLASS ? element : null;
+    }
+
+    private static TypeElement asTypeElement(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED)
+            return null;
+        return (TypeElement) ((DeclaredType) type).asElement();
+    }
+
+    private static boolean hasPublicConstructor(TypeElement element) {
+        for (Element e : element.getEnclosedElements()) {
+            if (e.getKind() == ElementKind.CONSTRUCTOR && e.getModifiers().contains(Modifier.PUBLIC)
+                    && ((ExecutableElement) e).getParameters().isEmpty())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Looks up the type argument of {@link PreferenceConverter} implemented by the class or one of its superclasses.
+     *
+     * @return the converted type, or null if it is not declared
+     */
+    private static String getConvertedType(TypeElement converter) {
+        TypeElement current = converter;
+        while (current != null) {
+            for (TypeMirror implemented : current.getInterfaces()) {
+                final DeclaredType declared = (DeclaredType) implemented;
+                if (!((TypeElement) declared.asElement()).getQualifiedName()
+                        .contentEquals(PreferenceConverter.class.getCanonicalName()))
+                    continue;
+                if (declared.getTypeArguments().size() != 1)
+                    return null;
+                final TypeMirror converted = declared.getTypeArguments().get(0);
+                return converted.getKind() == TypeKind.DECLARED || converted.getKind() == TypeKind.ARRAY
+                        ? converted.toString() : null;
+            }
+            current = asTypeElement(current.getSuperclass());
+        }
+        return null;
     }
 
     VariableElement getElement() {
         return mElement;
     }
 
+    String getFieldName() {
+        return mFieldName;
+    }
+
+    String getPreferenceKey() {
+        return mPreferenceKey;
+    }
+
+    String getGroup() {
+        return mGroup;
+    }
+
+    /**
+     * @return the expression of the name of the file the metrics of this field are reported under
+     */
+    String getMetricsName() {
+        if (mGroup == null)
+            return PreferenceHolder.METRICS_NAME;
+        return "GroupLayout.getFileName(" + PreferenceHolder.METRICS_NAME + ", \"" + mGroup + "\")";
+    }
+
+    /**
+     * @return the key the value was stored under by an older schema, null if the field was not migrated
+     */
+    String getMigratedFromKey() {
+        return mMigratedFromKey;
+    }
+
+    /**
+     * @return true if the value is stored as an encoded or encrypted String, thus gets decoded by this class
+     */
+    boolean isEncoded() {
+        return mType.isEncoded() || mEncryptionAlias != null;
+    }
+
+    /**
+     * @return true if the value is stored encrypted
+     */
+    boolean isEncrypted() {
+        return mEncryptionAlias != null;
+    }
+
+    /**
+     * @return true if the value {@link Expires expires}
+     */
+    boolean isExpiring() {
+        return mExpiresMillis > 0;
+    }
+
+    /**
+     * @return the time in milliseconds after which the value expires
+     */
+    long getExpiresMillis() {
+        return mExpiresMillis;
+    }
+
+    /**
+     * @return the key the time of the last write is stored under, null if the value does not expire
+     */
+    String getTimestampKey() {
+        return isExpiring() ? mPreferenceKey + Expires.TIMESTAMP_SUFFIX : null;
+    }
+
+    /**
+     * @return the call to chain to an editor putting the time of the write, empty if the value does not expire
+     */
+    private String getTimestampPut() {
+        return isExpiring() ? ".putLong(\"" + getTimestampKey() + "\", System.currentTimeMillis())" : "";
+    }
+
+    /**
+     * @return the expression checking whether the time of the write {@code writtenAt} is expired
+     */
+    private String getExpiredCheck(String writtenAt) {
+        return "isExpired(" + writtenAt + ", " + mExpiresMillis + "L)";
+    }
+
+    /**
+     * @return true if the decoded values are arrays, which have to be copied before handing them out
+     */
+    private boolean isArray() {
+        return mType == PreferenceType.INT_ARRAY || mType == PreferenceType.LONG_ARRAY || mType == PreferenceType.BYTES;
+    }
+
     void writeGetter(JavaWriter writer) throws IOException {
         final String prefix = mType == PreferenceType.BOOLEAN ? mBooleanPrefix : "get";
 
@@ -108,46 +434,642 @@ class Preference {
             writer.emitEmptyLine().emitJavadoc("Getter for the value stored under the key {@code %1$s} in the preferences.\n" +
                     "The method will return {@code %2$s} if no other value has been set.\n\n" +
                     "@return the value stored under {@code %1$s} in the preferences", mPreferenceKey, mDefaultValue)
-                    .beginMethod(mType.getReturnType(), prefix + getPreferenceNameUpperFirst(), setPublic)
-                    .emitStatement("return get%1$s(%2$s, %3$s)",
-                            mType.getFullName(), mFieldName, getTypedString(mDefaultValue)).endMethod();
+                    .beginMethod(mReturnType, prefix + getPreferenceNameUpperFirst(), setPublic);
+            emitReturnValue(writer, getTypedString(mDefaultValue));
+            writer.endMethod();
         }
         if (!createDefaultGetter)
             return;
         writer.emitEmptyLine().emitJavadoc("Getter for the value stored under the key {@code %1$s} in the preferences.\n\n" +
                 "@param %2$s the default value to use if no value has previously been set\n" +
                 "@return the value stored under {@code %1$s} in the preferences", mPreferenceKey, PARAM_DEFAULT_VALUE)
-                .beginMethod(mType.getReturnType(), prefix + getPreferenceNameUpperFirst(), setPublic, mType.getReturnType(), PARAM_DEFAULT_VALUE)
-                .emitStatement("return get%1$s(%2$s, %3$s)", mType.getFullName(), mFieldName, PARAM_DEFAULT_VALUE).endMethod();
+                .beginMethod(mReturnType, prefix + getPreferenceNameUpperFirst(), setPublic, mReturnType, PARAM_DEFAULT_VALUE);
+        emitReturnValue(writer, PARAM_DEFAULT_VALUE);
+        writer.endMethod();
+    }
+
+    private void emitReturnValue(JavaWriter writer, String defaultValue) throws IOException {
+        writer.beginControlFlow("if (PreferenceMetrics.ENABLED)")
+                .emitStatement("PreferenceMetrics.reportRead(%1$s, %2$s)", getMetricsName(), mFieldName)
+                .endControlFlow();
+        if (isExpiring())
+            writer.beginControlFlow("if (%1$s)", getExpiredCheck("getLong(\"" + getTimestampKey() + "\", 0L)"))
+                    .emitStatement("return %1$s", defaultValue)
+                    .endControlFlow();
+        if (!mCached) {
+            if (mType == PreferenceType.ENUM)
+                writer.emitStatement("return %1$s(getInt(%2$s, %3$s), %4$s)", getDecoderName(), mFieldName, NO_ENUM_ID,
+                        defaultValue);
+            else if (isEncoded())
+                writer.emitStatement("final %1$s value = %2$s(null)", mReturnType, getReaderName())
+                        .emitStatement("return value != null ? %1$s : %2$s", copyOf("value"), defaultValue);
+            else
+                writer.emitStatement("return get%1$s(%2$s, %3$s)", mType.getFullName(), mFieldName, defaultValue);
+            return;
+        }
+        writer.beginControlFlow("if (!%1$s)", getCachedFlagName())
+                .emitStatement("%1$s()", getLoaderName())
+                .endControlFlow();
+        if (isEncoded())
+            // the cached array is shared with the decoded one and must not leak
+            writer.emitStatement("return %1$s != null ? %2$s : %3$s", getCacheName(), copyOf(getCacheName()), defaultValue);
+        else if (isPrimitive())
+            writer.emitStatement("return %1$s ? %2$s : %3$s", getPresentFlagName(), getCacheName(), defaultValue);
+        else
+            writer.emitStatement("return %1$s != null ? %1$s : %2$s", getCacheName(), defaultValue);
+    }
+
+    /**
+     * Writes the fields holding the cached value.
+     */
+    void writeCacheFields(JavaWriter writer) throws IOException {
+        final String type = mReturnType;
+        writer.emitEmptyLine().emitJavadoc("Cached value of {@code %1$s}, valid while {@link #%2$s} is set.",
+                mPreferenceKey, getCachedFlagName())
+                .emitField(type, getCacheName(), setPrivate);
+        if (isPrimitive())
+            writer.emitField("boolean", getPresentFlagName(), setPrivate);
+        writer.emitField("boolean", getCachedFlagName(), setPrivateVolatile);
+    }
+
+    /**
+     * Writes the methods converting the values of types which are not stored as they are.
+     */
+    void writeCodec(JavaWriter writer) throws IOException {
+        if (mType == PreferenceType.ENUM)
+            writeEnumCodec(writer);
+        else if (isEncoded())
+            writeDecoder(writer);
+    }
+
+    /**
+     * Writes the static methods mapping the constants to their ids, using a lookup of the values by ordinal
+     * or a switch over the declared ids. Neither allocates.
+     */
+    private void writeEnumCodec(JavaWriter writer) throws IOException {
+        writer.emitEmptyLine();
+        if (mEnumIds == null) {
+            final String values = "s" + getPreferenceNameUpperFirst() + "Values";
+            writer.emitField(mReturnType + "[]", values, setPrivateStaticFinal, mReturnType + ".values()")
+                    .emitEmptyLine()
+                    .beginMethod(mReturnType, getDecoderName(), setPrivateStatic, "int", "id", mReturnType, PARAM_DEFAULT_VALUE)
+                    .emitStatement("return id >= 0 && id < %1$s.length ? %1$s[id] : %2$s", values, PARAM_DEFAULT_VALUE)
+                    .endMethod();
+            return;
+        }
+        writer.beginMethod(mReturnType, getDecoderName(), setPrivateStatic, "int", "id", mReturnType, PARAM_DEFAULT_VALUE)
+                .beginControlFlow("switch (id)");
+        for (int i = 0; i < mEnumConstants.size(); i++) {
+            writer.beginControlFlow("case %1$d:", mEnumIds.get(i))
+                    .emitStatement("return %1$s.%2$s", mReturnType, mEnumConstants.get(i))
+                    .endControlFlow();
+        }
+        writer.beginControlFlow("default:")
+                .emitSingleLineComment("the constant was removed")
+                .emitStatement("return %1$s", PARAM_DEFAULT_VALUE)
+                .endControlFlow()
+                .endControlFlow()
+                .endMethod()
+                .emitEmptyLine()
+                .beginMethod("int", getEncoderName(), setPrivateStatic, mReturnType, VALUE)
+                .beginControlFlow("switch (%1$s)", VALUE);
+        for (int i = 0; i < mEnumConstants.size(); i++) {
+            writer.beginControlFlow("case %1$s:", mEnumConstants.get(i))
+                    .emitStatement("return %1$d", mEnumIds.get(i))
+                    .endControlFlow();
+        }
+        writer.beginControlFlow("default:")
+                .emitStatement("throw new IllegalArgumentException(\"No EnumId for \" + %1$s)", VALUE)
+                .endControlFlow()
+                .endControlFlow()
+                .endMethod();
+    }
+
+    /**
+     * Writes the field holding the last decoded value, and the methods to read it. Encoded values only get decoded
+     * again once the stored String changes, regardless of {@code cacheValues}.
+     */
+    private void writeDecoder(JavaWriter writer) throws IOException {
+        final String type = mReturnType;
+        final String decoded = "CachedValue<" + type + ">";
+        if (mConverter != null)
+            writer.emitEmptyLine()
+                    .emitField(mConverter, getConverterName(), setPrivateStaticFinal, "new " + mConverter + "()");
+        writer.emitEmptyLine().emitJavadoc("The last value decoded from {@code %1$s}.", mPreferenceKey)
+                .emitField(decoded, getDecodedName(), setPrivateVolatile)
+                .emitEmptyLine()
+                .beginMethod(type, getDecoderName(), setPrivate, "String", "encoded")
+                .emitStatement("%1$s decoded = %2$s", decoded, getDecodedName())
+                .beginControlFlow("if (decoded == null || !decoded.isDerivedFrom(encoded))")
+                .emitStatement("decoded = new %1$s(encoded, %2$s)", decoded, getDecoding("encoded"))
+                .emitStatement("%1$s = decoded", getDecodedName())
+                .endControlFlow()
+                .emitStatement("return decoded.getValue()")
+                .endMethod()
+                .emitEmptyLine()
+                .beginMethod(type, getReaderName(), setPrivate, type, PARAM_DEFAULT_VALUE)
+                .emitStatement("final String encoded = getString(%1$s, null)", mFieldName)
+                .emitStatement("return encoded != null ? %1$s(encoded) : %2$s", getDecoderName(), PARAM_DEFAULT_VALUE)
+                .endMethod();
+    }
+
+    /**
+     * Writes the method filling the cache. Values are read while holding the cache lock which also has to be held
+     * to invalidate the cache, so that no stale value can be stored after an invalidation.
+     */
+    void writeCacheLoader(JavaWriter writer) throws IOException {
+        writer.emitEmptyLine()
+                .beginMethod("void", getLoaderName(), setPrivate)
+                .beginControlFlow("synchronized (%1$s)", PreferenceHolder.CACHE_LOCK)
+                .beginControlFlow("if (!%1$s)", getCachedFlagName());
+        switch (mType) {
+            case STRING:
+                if (isEncrypted())
+                    writer.emitStatement("%1$s = %2$s(null)", getCacheName(), getReaderName());
+                else
+                    writer.emitStatement("%1$s = getString(%2$s, null)", getCacheName(), mFieldName);
+                break;
+            case STRING_SET:
+                writer.emitStatement("Set<String> value = getStringSet(%1$s, null)", mFieldName)
+                        .emitStatement("%1$s = value != null ? " +
+                                "java.util.Collections.unmodifiableSet(new java.util.HashSet<String>(value)) : null",
+                                getCacheName());
+                break;
+            case INT_ARRAY:
+            case LONG_ARRAY:
+            case BYTES:
+            case CONVERTED:
+                writer.emitStatement("%1$s = %2$s(null)", getCacheName(), getReaderName());
+                break;
+            case ENUM:
+                writer.emitStatement("%1$s = %2$s(getInt(%3$s, %4$s), null)", getCacheName(), getDecoderName(), mFieldName,
+                        NO_ENUM_ID);
+                break;
+            default:
+                writer.emitStatement("%1$s = contains(%2$s)", getPresentFlagName(), mFieldName)
+                        .emitStatement("%1$s = %2$s ? get%3$s(%4$s, %5$s) : %5$s", getCacheName(), getPresentFlagName(),
+                                mType.getFullName(), mFieldName, getTypeDefault());
+        }
+        writer.emitStatement("%1$s = true", getCachedFlagName())
+                .endControlFlow()
+                .endControlFlow()
+                .endMethod();
+    }
+
+    /**
+     * Writes the statement invalidating the cached value. Callers have to hold the cache lock.
+     */
+    void writeInvalidate(JavaWriter writer) throws IOException {
+        writer.emitStatement("%1$s = false", getCachedFlagName());
+    }
+
+    private boolean isPrimitive() {
+        return mType != PreferenceType.STRING && mType != PreferenceType.STRING_SET && mType != PreferenceType.ENUM
+                && !mType.isEncoded();
+    }
+
+    private String getTypeDefault() {
+        switch (mType) {
+            case BOOLEAN:
+                return "false";
+            case FLOAT:
+                return "0f";
+            case INTEGER:
+                return "0";
+            case LONG:
+                return "0L";
+            default:
+                return "null";
+        }
+    }
+
+    private String getCacheName() {
+        return "m" + getPreferenceNameUpperFirst();
+    }
+
+    private String getPresentFlagName() {
+        return "m" + getPreferenceNameUpperFirst() + "Present";
+    }
+
+    private String getCachedFlagName() {
+        return "m" + getPreferenceNameUpperFirst() + "Cached";
+    }
+
+    private String getLoaderName() {
+        return "load" + getPreferenceNameUpperFirst();
+    }
+
+    private String getDecodedName() {
+        return "m" + getPreferenceNameUpperFirst() + "Decoded";
+    }
+
+    private String getDecoderName() {
+        return "decode" + getPreferenceNameUpperFirst();
+    }
+
+    private String getEncoderName() {
+        return "encode" + getPreferenceNameUpperFirst();
+    }
+
+    private String getReaderName() {
+        return "read" + getPreferenceNameUpperFirst();
+    }
+
+    private String getConverterName() {
+        return "s" + getPreferenceNameUpperFirst() + "Converter";
+    }
+
+    private String getCodecName() {
+        switch (mType) {
+            case INT_ARRAY:
+                return "Ints";
+            case LONG_ARRAY:
+                return "Longs";
+            default:
+                return "Bytes";
+        }
+    }
+
+    /**
+     * @return the expression decoding the String {@code encoded}
+     */
+    private String getDecoding(String encoded) {
+        if (isEncrypted())
+            return "PreferenceEncryption.decrypt(" + mEncryptionAlias + ", " + mFieldName + ", " + encoded + ")";
+        if (mConverter != null)
+            return getConverterName() + ".decode(" + encoded + ")";
+        return "ArrayCodec.decode" + getCodecName() + "(" + encoded + ")";
+    }
+
+    /**
+     * Decoded arrays are shared, so only copies of them get returned. Converted values are expected to be immutable.
+     *
+     * @return the expression to hand out the decoded {@code value}
+     */
+    private String copyOf(String value) {
+        return isArray() ? value + ".clone()" : value;
+    }
+
+    /**
+     * @return the expression of the value as it gets stored
+     */
+    private String getStoredValue() {
+        return getStoredValue(VALUE);
+    }
+
+    /**
+     * @return the expression of the variable {@code value} as it gets stored
+     */
+    private String getStoredValue(String value) {
+        if (isEncrypted())
+            return "PreferenceEncryption.encrypt(" + mEncryptionAlias + ", " + mFieldName + ", " + value + ")";
+        if (mType == PreferenceType.ENUM)
+            return mEnumIds == null ? value + ".ordinal()" : getEncoderName() + "(" + value + ")";
+        if (mConverter != null)
+            return "(" + value + " != null ? " + getConverterName() + ".encode(" + value + ") : null)";
+        return mType.isEncoded() ? "ArrayCodec.encode" + getCodecName() + "(" + value + ")" : value;
+    }
+
+    /**
+     * <p>Writes the migration of the value stored by an older schema, using the map {@code values} as returned by
+     * {@code getAll()} and adding the changes to {@code editor}.</p>
+     * A renamed value is only moved if the field has no value yet, a value of which only the type changed is
+     * converted unless it already is of the new type, so that running the migration again changes nothing.
+     * An expiring value is stored with the time of the migration.
+     */
+    void writeMigration(JavaWriter writer, String values, String editor) throws IOException {
+        if (mMigratedFromKey == null)
+            return;
+        final boolean renamed = !mMigratedFromKey.equals(mPreferenceKey);
+        final String type = PreferenceType.class.getSimpleName() + "." + mType.name();
+        writer.emitStatement("value = %1$s.get(\"%2$s\")", values, mMigratedFromKey);
+        if (renamed)
+            writer.beginControlFlow("if (value != null)")
+                    .beginControlFlow("if (!%1$s.containsKey(%2$s))", values, mFieldName);
+        else if (mMigratedFromType.getFullName().equals(mType.getFullName()))
+            // both types are stored alike, e.g. a String holding encoded values, so only converting can tell them apart
+            writer.beginControlFlow("if (value != null)");
+        else
+            writer.beginControlFlow("if (value != null && !SchemaMigration.isStoredAs(value, %1$s))", type);
+        if (mType == PreferenceType.ENUM && mMigratedFromType == PreferenceType.STRING) {
+            // by the name of the constant
+            writer.emitStatement("%1$s constant = SchemaMigration.toEnum(value, %1$s.class)", mReturnType)
+                    .emitStatement("SchemaMigration.put(%1$s, %2$s, constant != null ? (Object) %3$s : null)",
+                            editor, mFieldName, getStoredValue("constant"));
+        } else if (isEncrypted()) {
+            writer.emitStatement("SchemaMigration.put(%1$s, %2$s, %3$s)", editor, mFieldName,
+                    getStoredValue(String.format("(String) SchemaMigration.convert(value, %1$s.%2$s, %3$s)",
+                            PreferenceType.class.getSimpleName(), mMigratedFromType.name(), type)));
+        } else {
+            writer.emitStatement("SchemaMigration.put(%1$s, %2$s, SchemaMigration.convert(value, %3$s.%4$s, %5$s))",
+                    editor, mFieldName, PreferenceType.class.getSimpleName(), mMigratedFromType.name(), type);
+        }
+        if (isExpiring())
+            // a migrated value starts to expire with the migration
+            writer.emitStatement("%1$s.putLong(\"%2$s\", System.currentTimeMillis())", editor, getTimestampKey());
+        if (renamed)
+            writer.endControlFlow()
+                    .emitStatement("%1$s.remove(\"%2$s\")", editor, mMigratedFromKey);
+        writer.endControlFlow();
+    }
+
+    /**
+     * Writes the final field holding the value in the snapshot.
+     */
+    void writeSnapshotField(JavaWriter writer) throws IOException {
+        writer.emitField(mReturnType, getCacheName(), setPrivateFinal);
+    }
+
+    /**
+     * Writes the assignment of the snapshot field from the map {@code values} as returned by {@code getAll()}.
+     */
+    void writeSnapshotAssignment(JavaWriter writer, String values) throws IOException {
+        final String defaultValue = hasDefaultValue ? getTypedString(mDefaultValue) : getTypeDefault();
+        writer.emitStatement("value = %1$s.get(%2$s)", values, mFieldName);
+        if (isExpiring())
+            writer.beginControlFlow("if (value != null && %1$s)",
+                    getExpiredCheck(values + ".get(\"" + getTimestampKey() + "\")"))
+                    .emitStatement("value = null")
+                    .endControlFlow();
+        if (mType == PreferenceType.STRING_SET)
+            writer.emitStatement("%1$s = value != null ? " +
+                    "java.util.Collections.unmodifiableSet(new java.util.HashSet<String>((Set<String>) value)) : %2$s",
+                    getCacheName(), defaultValue);
+        else if (isEncoded())
+            writer.emitStatement("%1$s = value != null ? %2$s : %3$s",
+                    getCacheName(), getDecoding("(String) value"), defaultValue);
+        else if (mType == PreferenceType.ENUM)
+            writer.emitStatement("%1$s = value != null ? %2$s((Integer) value, %3$s) : %3$s",
+                    getCacheName(), getDecoderName(), defaultValue);
+        else
+            writer.emitStatement("%1$s = value != null ? (%2$s) value : %3$s",
+                    getCacheName(), getBoxedType(), defaultValue);
+    }
+
+    void writeSnapshotGetter(JavaWriter writer) throws IOException {
+        final String prefix = mType == PreferenceType.BOOLEAN ? mBooleanPrefix : "get";
+        writer.emitEmptyLine().emitJavadoc("The value stored under the key {@code %1$s} when the snapshot was taken.\n\n" +
+                "@return the value of {@code %1$s}", mPreferenceKey)
+                .beginMethod(mReturnType, prefix + getPreferenceNameUpperFirst(), setPublic);
+        if (isArray())
+            writer.emitStatement("return %1$s != null ? %2$s : null", getCacheName(), copyOf(getCacheName()));
+        else
+            writer.emitStatement("return %1$s", getCacheName());
+        writer.endMethod();
+    }
+
+    /**
+     * Writes the callback of the typed listener interface, or its empty implementation.
+     */
+    void writeListenerMethod(JavaWriter writer, boolean implementation) throws IOException {
+        writer.emitEmptyLine();
+        if (implementation) {
+            writer.emitAnnotation(Override.class);
+        } else {
+            writer.emitJavadoc("Called when the value stored under the key {@code %1$s} changes.\n\n" +
+                    "@param %2$s the new value of {@code %1$s}", mPreferenceKey, NEW_VALUE);
+        }
+        writer.beginMethod("void", getListenerMethodName(), setPublic, mReturnType, NEW_VALUE)
+                .endMethod();
+    }
+
+    /**
+     * Writes the notification of the typed listeners with the decoded value.
+     */
+    void writeListenerDispatch(JavaWriter writer, String listenerType, String listeners) throws IOException {
+        final String defaultValue = hasDefaultValue ? getTypedString(mDefaultValue) : getTypeDefault();
+        // prefixed, since the key constants may use the same name
+        final String local = "new" + getPreferenceNameUpperFirst();
+        if (isEncoded()) {
+            // every listener gets its own copy of a shared decoded array
+            writer.emitStatement("final %1$s %2$s = %3$s(%4$s)", mReturnType, local, getReaderName(), defaultValue)
+                    .beginControlFlow("for (%1$s listener : %2$s)", listenerType, listeners)
+                    .emitStatement(!isArray() ? "listener.%1$s(%2$s)" : "listener.%1$s(%2$s != null ? %3$s : null)",
+                            getListenerMethodName(), local, copyOf(local))
+                    .endControlFlow();
+            return;
+        }
+        if (mType == PreferenceType.ENUM)
+            writer.emitStatement("final %1$s %2$s = %3$s(getInt(%4$s, %5$s), %6$s)", mReturnType, local,
+                    getDecoderName(), mFieldName, NO_ENUM_ID, defaultValue);
+        else
+            writer.emitStatement("final %1$s %2$s = get%3$s(%4$s, %5$s)", mReturnType, local,
+                    mType.getFullName(), mFieldName, defaultValue);
+        writer
+                .beginControlFlow("for (%1$s listener : %2$s)", listenerType, listeners)
+                .emitStatement("listener.%1$s(%2$s)", getListenerMethodName(), local)
+                .endControlFlow();
+    }
+
+    /**
+     * Writes the method returning the publisher of the values, looked up by the index of the field.
+     */
+    void writeChangesMethod(JavaWriter writer, int index) throws IOException {
+        writer.emitEmptyLine().emitJavadoc("<p>Emits the value stored under the key {@code %1$s} on subscription and after each change.</p>\n" +
+                "Changes are conflated, a subscriber without demand receives the then current value once it requests more.\n\n" +
+                "@return the publisher of the values", mPreferenceKey)
+                .beginMethod("Flow.Publisher<" + getBoxedType() + ">", mAccessorName + "Changes", setPublic)
+                .emitStatement("return %1$s(%2$d)", PreferenceHolder.GET_PUBLISHER, index)
+                .endMethod();
+    }
+
+    /**
+     * @return the call of the getter returning the current value, or its default
+     */
+    String getValueExpression() {
+        final String getter = (mType == PreferenceType.BOOLEAN ? mBooleanPrefix : "get") + getPreferenceNameUpperFirst();
+        return hasDefaultValue ? getter + "()" : getter + "(" + getTypeDefault() + ")";
+    }
+
+    private String getListenerMethodName() {
+        return "on" + getPreferenceNameUpperFirst() + "Changed";
+    }
+
+    PreferenceType getType() {
+        return mType;
+    }
+
+    private String getBoxedType() {
+        switch (mType) {
+            case BOOLEAN:
+                return "Boolean";
+            case FLOAT:
+                return "Float";
+            case INTEGER:
+                return "Integer";
+            case LONG:
+                return "Long";
+            default:
+                return mReturnType;
+        }
     }
 
     private String getTypedString(String value) {
         switch (mType) {
             case STRING:
                 return "\"" + value + "\"";
+            case INT_ARRAY:
+            case LONG_ARRAY:
+            case BYTES:
+                // e.g. "1, 2, 3"
+                return "new " + mReturnType + "{" + value + "}";
+            case ENUM:
+                return mReturnType + "." + value;
             default:
                 return value;
         }
     }
 
     private String getPreferenceNameUpperFirst() {
-        return Character.toUpperCase(mAccessorName.charAt(0)) + mAccessorName.substring(1);
+        return mNameUpperFirst;
     }
 
     void writeSetter(JavaWriter writer) throws IOException {
         writer.emitEmptyLine().emitJavadoc("Sets the value for key {@code %1$s} in the preferences.\n\n" +
                 "@param %2$s the new value for {@code%1$s}", mPreferenceKey, VALUE)
-                .beginMethod("void", "set" + getPreferenceNameUpperFirst(), setPublic, mType.getReturnType(), VALUE)
-                .emitStatement("edit().put%1$s(%2$s, %3$s).apply()", mType.getFullName(), mFieldName, VALUE)
-                .endMethod();
+                .beginMethod("void", "set" + getPreferenceNameUpperFirst(), setPublic, mReturnType, VALUE);
+        if (isSkippable())
+            writer.beginControlFlow("if (%1$s(%2$s))", getUnchangedCheckName(), VALUE)
+                    .emitStatement("return")
+                    .endControlFlow();
+        if (mCoalesce) {
+            if (isPrimitive())
+                writer.emitStatement("%1$s.put(%2$s, %3$s)", PreferenceHolder.PENDING_VALUES, mFieldName, VALUE);
+            else if (mType == PreferenceType.ENUM)
+                writer.emitStatement("%1$s.put(%2$s, %3$s != null ? (Object) %4$s : %5$s)", PreferenceHolder.PENDING_VALUES,
+                        mFieldName, VALUE, getStoredValue(), PreferenceHolder.REMOVED);
+            else if (isEncoded())
+                writer.emitStatement("final String encoded = %1$s", getStoredValue())
+                        .emitStatement("%1$s.put(%2$s, encoded != null ? encoded : %3$s)", PreferenceHolder.PENDING_VALUES,
+                                mFieldName, PreferenceHolder.REMOVED);
+            else
+                writer.emitStatement("%1$s.put(%2$s, %3$s != null ? %3$s : %4$s)", PreferenceHolder.PENDING_VALUES,
+                        mFieldName, VALUE, PreferenceHolder.REMOVED);
+            if (isExpiring())
+                writer.emitStatement("%1$s.put(\"%2$s\", System.currentTimeMillis())", PreferenceHolder.PENDING_VALUES,
+                        getTimestampKey());
+            writer.emitStatement("%1$s()", PreferenceHolder.SCHEDULE_FLUSH)
+                    .beginControlFlow("if (PreferenceMetrics.ENABLED)")
+                    .emitStatement("PreferenceMetrics.reportWrite(%1$s, %2$s)", getMetricsName(), mFieldName)
+                    .endControlFlow();
+        } else {
+            writer.emitStatement("final long start = PreferenceMetrics.startTime()");
+            if (mType == PreferenceType.ENUM)
+                writeEnumPut(writer, PreferenceHolder.PREFERENCES + ".edit()", ".apply()");
+            else
+                // use the editor of the store directly, the typed one would just be another object to create
+                writer.emitStatement("%1$s.edit().put%2$s(%3$s, %4$s)%5$s.apply()", PreferenceHolder.PREFERENCES,
+                        mType.getFullName(), mFieldName, getStoredValue(), getTimestampPut());
+            writer.beginControlFlow("if (PreferenceMetrics.ENABLED)")
+                    .emitStatement("PreferenceMetrics.reportWrite(%1$s, %2$s)", getMetricsName(), mFieldName)
+                    .emitStatement("PreferenceMetrics.reportApply(%1$s, start)", getMetricsName())
+                    .endControlFlow();
+        }
+        if (mCached) {
+            // apply() updates the values in memory right away, listeners may be notified later
+            writer.beginControlFlow("synchronized (%1$s)", PreferenceHolder.CACHE_LOCK);
+            writeInvalidate(writer);
+            writer.endControlFlow();
+        }
+        writer.endMethod();
     }
 
     void writeChainSetter(JavaWriter writer, String editorType, String editor) throws IOException {
         writer.emitEmptyLine().emitJavadoc("Sets the value for key {@code %1$s} in the preferences.\n\n" +
                 "@param %2$s the new value for {@code %1$s}", mPreferenceKey, VALUE)
-                .beginMethod(editorType, "set" + getPreferenceNameUpperFirst(), setPublic, mType.getReturnType(), VALUE)
-                .emitStatement("%1$s.put%2$s(%3$s, %4$s)", editor, mType.getFullName(), mFieldName, VALUE)
-                .emitStatement("return this")
+                .beginMethod(editorType, "set" + getPreferenceNameUpperFirst(), setPublic, mReturnType, VALUE);
+        if (isSkippable())
+            writer.beginControlFlow("if (%1$s(%2$s) && %3$s.%4$s(%5$s))", PreferenceHolder.IS_SKIPPABLE, mFieldName,
+                    PreferenceHolder.EDITOR_PREFERENCES, getUnchangedCheckName(), VALUE)
+                    .emitStatement("return this")
+                    .endControlFlow();
+        if (mSkipUnchanged || mCached)
+            writer.emitStatement("%1$s(%2$s)", PreferenceHolder.ON_CHANGE, mFieldName);
+        writer.beginControlFlow("if (PreferenceMetrics.ENABLED)")
+                .emitStatement("PreferenceMetrics.reportWrite(%1$s, %2$s)", getMetricsName(), mFieldName)
+                .endControlFlow();
+        if (mType == PreferenceType.ENUM)
+            writeEnumPut(writer, editor, "");
+        else
+            writer.emitStatement("%1$s.put%2$s(%3$s, %4$s)%5$s", editor, mType.getFullName(), mFieldName, getStoredValue(),
+                    getTimestampPut());
+        writer.emitStatement("return this")
                 .endMethod();
     }
+
+    /**
+     * Writes putting the id of the constant, or removing the value for {@code null}.
+     */
+    private void writeEnumPut(JavaWriter writer, String editor, String suffix) throws IOException {
+        writer.beginControlFlow("if (%1$s != null)", VALUE)
+                .emitStatement("%1$s.putInt(%2$s, %3$s)%4$s%5$s", editor, mFieldName, getStoredValue(), getTimestampPut(), suffix)
+                .nextControlFlow("else")
+                .emitStatement("%1$s.remove(%2$s)%3$s", editor, mFieldName, suffix)
+                .endControlFlow();
+    }
+
+    /**
+     * Writes the method comparing a new value with the current one, using the cached value if available.
+     */
+    void writeUnchangedCheck(JavaWriter writer) throws IOException {
+        if (!isSkippable())
+            return;
+        writer.emitEmptyLine()
+                .beginMethod("boolean", getUnchangedCheckName(), setPrivate, mReturnType, VALUE);
+        if (mCached) {
+            writer.beginControlFlow("if (!%1$s)", getCachedFlagName())
+                    .emitStatement("%1$s()", getLoaderName())
+                    .endControlFlow();
+            if (isArray())
+                writer.emitStatement("return java.util.Arrays.equals(%1$s, %2$s)", VALUE, getCacheName());
+            else if (mType == PreferenceType.ENUM)
+                writer.emitStatement("return %1$s != null ? %1$s == %2$s : !contains(%3$s)", VALUE, getCacheName(), mFieldName);
+            else if (!isPrimitive())
+                writer.emitStatement("return %1$s != null ? %1$s.equals(%2$s) : %2$s == null", VALUE, getCacheName());
+            else
+                writer.emitStatement("return %1$s && %2$s", getPresentFlagName(), getEquality(getCacheName()));
+        } else {
+            if (isEncrypted())
+                // every encryption uses another IV, so only the decrypted values can be compared
+                writer.emitStatement("return %1$s != null ? %1$s.equals(%2$s(null)) : !contains(%3$s)",
+                        VALUE, getReaderName(), mFieldName);
+            else if (mType.isEncoded())
+                // comparing the encoded Strings saves decoding the current value
+                writer.emitStatement("final String encoded = %1$s", getStoredValue())
+                        .emitStatement("return encoded != null ? encoded.equals(getString(%1$s, null)) : !contains(%1$s)",
+                                mFieldName);
+            else if (mType == PreferenceType.ENUM)
+                writer.emitStatement("return %1$s != null ? getInt(%2$s, %3$s) == %4$s : !contains(%2$s)",
+                        VALUE, mFieldName, NO_ENUM_ID, getStoredValue());
+            else if (!isPrimitive())
+                writer.emitStatement("return %1$s != null ? %1$s.equals(get%2$s(%3$s, null)) : !contains(%3$s)",
+                        VALUE, mType.getFullName(), mFieldName);
+            else
+                writer.emitStatement("return contains(%1$s) && %2$s", mFieldName,
+                        getEquality(String.format("get%1$s(%2$s, %3$s)", mType.getFullName(), mFieldName, getTypeDefault())));
+        }
+        writer.endMethod();
+    }
+
+    /**
+     * Compares a primitive with the new value, floats like {@link Float#equals(Object)} does.
+     */
+    private String getEquality(String current) {
+        if (mType == PreferenceType.FLOAT)
+            return "Float.compare(" + current + ", " + VALUE + ") == 0";
+        return current + " == " + VALUE;
+    }
+
+    /**
+     * Writing the same value again renews an expiring one, so only values which do not expire can be skipped.
+     *
+     * @return true if setting an unchanged value is skipped
+     */
+    private boolean isSkippable() {
+        return mSkipUnchanged && !isExpiring();
+    }
+
+    private String getUnchangedCheckName() {
+        return "is" + getPreferenceNameUpperFirst() + "Unchanged";
+    }
 }
@@ -27,19 +27,51 @@ package com.github.bleeding182.sharedpreferences.annotations.processor;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.github.bleeding182.sharedpreferences.ArrayCodec;
+import com.github.bleeding182.sharedpreferences.CachedValue;
+import com.github.bleeding182.sharedpreferences.ConflatingPublisher;
+import com.github.bleeding182.sharedpreferences.Flow;
+import com.github.bleeding182.sharedpreferences.PreferenceEncryption;
+import com.github.bleeding182.sharedpreferences.PreferenceMetrics;
 import com.github.bleeding182.sharedpreferences.PreferenceType;
+import com.github.bleeding182.sharedpreferences.SchemaMigration;
+import com.github.bleeding182.sharedpreferences.WritePolicy;
 import com.github.bleeding182.sharedpreferences.annotations.DefaultPreferenceName;
 import com.github.bleeding182.sharedpreferences.annotations.DefaultPreferenceType;
+import com.github.bleeding182.sharedpreferences.annotations.SchemaVersion;
 import com.github.bleeding182.sharedpreferences.annotations.SharedPreference;
+import com.github.bleeding182.sharedpreferences.store.DeferredPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.GroupLayout;
+import com.github.bleeding182.sharedpreferences.store.GroupedPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.PreferenceExport;
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.SlotLayout;
 import com.squareup.javawriter.JavaWriter;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.annotation.processing.Filer;
 import javax.annotation.processing.Messager;
@@ -58,9 +90,50 @@ public class PreferenceHolder {
     private final static String PAR_CONTEXT = "ctx";
     private final static String PAR_NAME = "name";
     private final static String PAR_EDITOR = "editor";
+    private final static String PAR_STORE = "store";
+    private final static String PAR_EXECUTOR = "executor";
 
-    private final static String PREFERENCES = "mPreferences";
+    // referenced by name, since it needs the platform classes to load
+    private static final String SHARED_PREFERENCES_STORE = "com.github.bleeding182.sharedpreferences.store.SharedPreferencesStore";
+
+    final static String PREFERENCES = "mPreferences";
+    static final String METRICS_NAME = "mPreferencesName";
     private static final String EDITOR = "mEditor";
+    static final String CACHE_LOCK = "mCacheLock";
+    static final String EDITOR_PREFERENCES = "mPrefs";
+    static final String IS_SKIPPABLE = "isSkippable";
+    static final String ON_CHANGE = "onChange";
+    private static final String INVALIDATE_CACHE = "invalidateCache";
+    private static final String EDITOR_CHANGED = "mChanged";
+    private static final String EDITOR_CLEARED = "mCleared";
+    private static final String EDITOR_KEYS = "mChangedKeys";
+    private static final String INTERNAL_LISTENER = "mInternalListener";
+    private static final String INTERNAL_LISTENER_CLASS = "InternalChangeListener";
+    private static final String INTERNAL_LISTENER_REGISTERED = "mInternalListenerRegistered";
+    private static final String UPDATE_INTERNAL_LISTENER = "updateInternalListener";
+    private static final String SHARED_PREFERENCE_LISTENERS = "mSharedPreferenceListeners";
+    static final String PENDING_VALUES = "mPendingValues";
+    static final String REMOVED = "REMOVED";
+    static final String SCHEDULE_FLUSH = "scheduleFlush";
+    private static final String FLUSH_HANDLER = "mFlushHandler";
+    private static final String FLUSH_TASK = "mFlushTask";
+    private static final String FLUSH_TASK_CLASS = "FlushTask";
+    private static final String PRELOAD_TASK_CLASS = "PreloadTask";
+    private static final String MIGRATION_TASK_CLASS = "MigrationTask";
+    private static final String CREATE_MIGRATION = "createMigration";
+    private static final String LOADER = "mLoader";
+    private static final String FLUSH_DELAY = "FLUSH_DELAY_MS";
+    private static final String SNAPSHOT_CLASS = "Snapshot";
+    private static final String LISTENER_CLASS = "OnChangeListener";
+    private static final String SIMPLE_LISTENER_CLASS = "SimpleOnChangeListener";
+    private static final String LISTENERS = "mChangeListeners";
+    private static final String PUBLISHERS = "mPublishers";
+    private static final String PUBLISHER_CLASS = "FieldPublisher";
+    static final String GET_PUBLISHER = "getPublisher";
+    private static final String PUBLISH_CHANGE = "publishChange";
+    private static final String HAS_SUBSCRIBERS = "hasSubscribers";
+    private static final String REGISTER_LISTENER = "registerOnChangeListener";
+    private static final String UNREGISTER_LISTENER = "unregisterOnChangeListener";
 
     private static final String DEFAULT_PREFERENCES_NAME = "default_preferences";
 
@@ -74,10 +147,33 @@ public class PreferenceHolder {
 
     private final SortedMap<String, Preference> preferences = new TreeMap<>();
     private boolean mIsCustomPackage;
+    private final boolean mCacheValues;
+    private final boolean mCoalesceWrites;
+    private final long mFlushDelay;
+    private final boolean mSkipUnchanged;
+    /**
+     * Whether the editor tracks the keys it changes, to skip unchanged values or to invalidate their cached values.
+     */
+    private final boolean mTrackEditorKeys;
+    /**
+     * Whether any field declares a group, thus the default file only holds the fields without one.
+     */
+    private boolean mGrouped;
+    /**
+     * The {@link SchemaVersion} of the interface, {@code 0} if it has none.
+     */
+    private final int mSchemaVersion;
+    private final String mSchemaVersionKey;
+
 
+    private final List<MethodTemplate> mPreferencesMethods;
+    private final List<MethodTemplate> mEditorMethods;
 
-    public PreferenceHolder(TypeElement element, Filer filer, Messager messager) throws IOException {
+    public PreferenceHolder(TypeElement element, Filer filer, Messager messager,
+                            List<MethodTemplate> preferencesMethods, List<MethodTemplate> editorMethods) throws IOException {
         this.mElement = element;
+        this.mPreferencesMethods = preferencesMethods;
+        this.mEditorMethods = editorMethods;
 
         // Set the name of the file / class and nested editor
         SharedPreference sharedPreference = mElement.getAnnotation(SharedPreference.class);
@@ -88,6 +184,13 @@ public class PreferenceHolder {
         mIsCustomPackage = !sharedPreference.packagename().equals(SharedPreference.EMPTY);
         mPackageName = mIsCustomPackage ? sharedPreference.packagename() :
                 ((PackageElement) element.getEnclosingElement()).getQualifiedName().toString();
+        mCacheValues = sharedPreference.cacheValues();
+        mCoalesceWrites = sharedPreference.writePolicy() == WritePolicy.COALESCE;
+        mFlushDelay = sharedPreference.flushDelayMs();
+        mSkipUnchanged = sharedPreference.skipUnchangedWrites();
+        mTrackEditorKeys = mSkipUnchanged || mCacheValues;
+        if (mFlushDelay < 0)
+            throw new IOException("flushDelayMs must not be negative");
 
         // Check validity of package / class names.
         if (!checkValidIdentifier(mPackageName))
@@ -104,6 +207,17 @@ public class PreferenceHolder {
         else
             preferencesName = DEFAULT_PREFERENCES_NAME;
 
+        SchemaVersion schemaVersion = element.getAnnotation(SchemaVersion.class);
+        if (schemaVersion != null) {
+            if (schemaVersion.value() <= 0)
+                throw new IOException("SchemaVersion has to be greater than 0");
+            mSchemaVersion = schemaVersion.value();
+            mSchemaVersionKey = schemaVersion.key();
+        } else {
+            mSchemaVersion = 0;
+            mSchemaVersionKey = null;
+        }
+
         // default type if not specified
         DefaultPreferenceType defType = element.getAnnotation(DefaultPreferenceType.class);
         final PreferenceType defaultPreferenceType;
@@ -138,13 +252,64 @@ public class PreferenceHolder {
             final String id = var.getConstantValue().toString();
             if (!preferenceIds.add(id))
                 messager.printMessage(Diagnostic.Kind.WARNING, "preference key " + id + " is already in use");
-            preferences.put(accessorName, new Preference(fieldName, accessorName, id, var, defaultPreferenceType));
+            preferences.put(accessorName, new Preference(fieldName, accessorName, id, var, defaultPreferenceType,
+                    mCacheValues, mCoalesceWrites, mSkipUnchanged));
+        }
+
+        // a key can only be stored in a single file
+        Map<String, String> groups = new HashMap<>();
+        for (Preference preference : preferences.values()) {
+            final String group = preference.getGroup() != null ? preference.getGroup() : GroupLayout.DEFAULT_GROUP;
+            final String other = groups.put(preference.getPreferenceKey(), group);
+            if (other != null && !other.equals(group))
+                throw new IOException("preference key " + preference.getPreferenceKey() + " is used in different groups");
+            mGrouped |= preference.getGroup() != null;
         }
 
-        JavaFileObject jfo = filer.createSourceFile(mPackageName + "." + mClassName);
+        // migrations may neither overwrite the version nor values of other fields
+        for (Preference preference : preferences.values()) {
+            final String from = preference.getMigratedFromKey();
+            if (from != null && mSchemaVersionKey == null)
+                throw new IOException(preference.getFieldName() + ": MigratedFrom needs a SchemaVersion on the interface");
+            if (preference.getPreferenceKey().equals(mSchemaVersionKey))
+                throw new IOException("preference key " + mSchemaVersionKey + " is used to store the SchemaVersion");
+            if (from != null && !from.equals(preference.getPreferenceKey()) && groups.containsKey(from))
+                throw new IOException(preference.getFieldName() + ": MigratedFrom key " + from + " is used by another field");
+        }
+
+        // the time of the last write is stored next to an expiring value
+        for (Preference preference : preferences.values()) {
+            final String timestampKey = preference.getTimestampKey();
+            if (timestampKey != null && (groups.containsKey(timestampKey) || timestampKey.equals(mSchemaVersionKey)))
+                throw new IOException(preference.getFieldName() + ": Expires key " + timestampKey + " is already in use");
+        }
+
+        // the interface is the only originating element, which keeps the processor isolating
+        JavaFileObject jfo = filer.createSourceFile(mPackageName + "." + mClassName, mElement);
         this.mWriter = new JavaWriter(jfo.openWriter());
     }
 
+    /**
+     * @return the interface annotated with {@link SharedPreference}
+     */
+    TypeElement getElement() {
+        return mElement;
+    }
+
+    /**
+     * @return the fully qualified name of the generated class
+     */
+    String getQualifiedClassName() {
+        return mPackageName + "." + mClassName;
+    }
+
+    /**
+     * @return true if any field declares a group, thus the class opens a {@link GroupedPreferenceStore}
+     */
+    boolean isGrouped() {
+        return mGrouped;
+    }
+
     public void write() throws IOException {
         mWriter.setIndent("    ");
         mWriter.emitPackage(mPackageName)
@@ -155,9 +320,44 @@ public class PreferenceHolder {
             mWriter.emitImports(mElement.getQualifiedName().toString());
         mWriter.emitImports(Context.class, SharedPreferences.class)
                 .emitImports("android.content.SharedPreferences.Editor",
-                        "android.content.SharedPreferences.OnSharedPreferenceChangeListener")
-                .emitEmptyLine()
-                .emitImports(Set.class)
+                        "android.content.SharedPreferences.OnSharedPreferenceChangeListener");
+        if (mCoalesceWrites)
+            mWriter.emitImports("android.os.Handler", "android.os.Looper");
+        mWriter.emitEmptyLine();
+        if (hasEncodedValues())
+            mWriter.emitImports(ArrayCodec.class, CachedValue.class);
+        mWriter.emitImports(ConflatingPublisher.class.getName(), Flow.class.getName());
+        if (hasEncryptedValues())
+            mWriter.emitImports(PreferenceEncryption.class);
+        mWriter.emitImports(PreferenceMetrics.class.getName(), PreferenceType.class.getName());
+        if (mSchemaVersionKey != null)
+            mWriter.emitImports(SchemaMigration.class);
+        mWriter.emitImports(DeferredPreferenceStore.class.getName(), PreferenceExport.class.getName(),
+                PreferenceStore.class.getName(), SHARED_PREFERENCES_STORE, SlotLayout.class.getName());
+        if (mGrouped)
+            mWriter.emitImports(GroupLayout.class.getName(), GroupedPreferenceStore.class.getName());
+        mWriter.emitEmptyLine();
+        mWriter.emitImports(IOException.class.getName(), InputStream.class.getName(), OutputStream.class.getName())
+                .emitEmptyLine();
+        List<String> imports = new ArrayList<>();
+        imports.add(ArrayList.class.getName());
+        if (mCoalesceWrites)
+            imports.add(HashMap.class.getName());
+        if (mTrackEditorKeys)
+            imports.add(HashSet.class.getName());
+        imports.add(List.class.getName());
+        imports.add(Map.class.getName());
+        imports.add(Set.class.getName());
+        imports.add(WeakHashMap.class.getName());
+        imports.add(Callable.class.getName());
+        if (mCoalesceWrites)
+            imports.add(ConcurrentHashMap.class.getName());
+        imports.add(CopyOnWriteArrayList.class.getName());
+        imports.add(Executor.class.getName());
+        imports.add(Future.class.getName());
+        imports.add(FutureTask.class.getName());
+        imports.add(AtomicReferenceArray.class.getName());
+        mWriter.emitImports(imports)
                 .emitEmptyLine()
                 .beginType(mClassName, "class", Modifier.PUBLIC,
                         null, mElement.getSimpleName().toString(), "SharedPreferences")
@@ -165,10 +365,62 @@ public class PreferenceHolder {
 
         mWriter.emitJavadoc("The name of the default preference file opened by the constructor.")
                 .emitField("String", "PREFERENCES_NAME", Modifier.PUBLIC_FINAL_STATIC, "\"" + preferencesName + "\"");
-        mWriter.emitEmptyLine().emitJavadoc("The SharedPreferences object hold by this wrapper class.")
-                .emitField("SharedPreferences", PREFERENCES, Modifier.PRIVATE_FINAL)
+        if (mSchemaVersionKey != null)
+            mWriter.emitEmptyLine().emitJavadoc("The version of the schema, migrated to by {@link #migrate(PreferenceStore)}.")
+                    .emitField("int", "SCHEMA_VERSION", Modifier.PUBLIC_FINAL_STATIC, String.valueOf(mSchemaVersion))
+                    .emitEmptyLine().emitJavadoc("The key the version of the schema is stored under.")
+                    .emitField("String", "SCHEMA_VERSION_KEY", Modifier.PUBLIC_FINAL_STATIC, "\"" + mSchemaVersionKey + "\"");
+        mWriter.emitEmptyLine().emitJavadoc("The store holding the preferences wrapped by this class.")
+                .emitField("PreferenceStore", PREFERENCES, Modifier.PRIVATE_FINAL)
+                .emitEmptyLine()
+                .emitJavadoc("The name of the file the metrics are reported under.")
+                .emitField("String", METRICS_NAME, Modifier.PRIVATE_FINAL)
+                .emitEmptyLine();
+
+        if (mCoalesceWrites) {
+            mWriter.emitJavadoc("Time without further calls to a setter after which pending values are written.")
+                    .emitField("long", FLUSH_DELAY, Modifier.PRIVATE_FINAL_STATIC, mFlushDelay + "L")
+                    .emitEmptyLine()
+                    .emitJavadoc("Marks values which were set to {@code null}, thus removed.")
+                    .emitField("Object", REMOVED, Modifier.PRIVATE_FINAL_STATIC, "new Object()")
+                    .emitEmptyLine()
+                    .emitJavadoc("Values set by the setters which were not yet written to the preferences.")
+                    .emitField("ConcurrentHashMap<String, Object>", PENDING_VALUES, Modifier.PRIVATE_FINAL,
+                            "new ConcurrentHashMap<String, Object>()")
+                    .emitField("Handler", FLUSH_HANDLER, Modifier.PRIVATE_FINAL, "new Handler(Looper.getMainLooper())")
+                    .emitField("Runnable", FLUSH_TASK, Modifier.PRIVATE_FINAL, "new " + FLUSH_TASK_CLASS + "()")
+                    .emitEmptyLine();
+        }
+
+        mWriter.emitJavadoc("The single listener registered with the store, dispatching changes by key.")
+                .emitField("PreferenceStore.OnChangeListener", INTERNAL_LISTENER, Modifier.PRIVATE_FINAL,
+                        "new " + INTERNAL_LISTENER_CLASS + "()");
+        if (!mCacheValues)
+            mWriter.emitField("boolean", INTERNAL_LISTENER_REGISTERED, Modifier.PRIVATE);
+        mWriter.emitEmptyLine()
+                .emitJavadoc("The listeners registered with {@link #%1$s(%2$s)}.", REGISTER_LISTENER, LISTENER_CLASS)
+                .emitField("CopyOnWriteArrayList<" + LISTENER_CLASS + ">", LISTENERS, Modifier.PRIVATE_FINAL,
+                        "new CopyOnWriteArrayList<" + LISTENER_CLASS + ">()")
+                .emitEmptyLine()
+                .emitJavadoc("The listeners registered with {@link #registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener)}.\n" +
+                        "Weak references, like SharedPreferences does.")
+                .emitField("Map<OnSharedPreferenceChangeListener, Object>", SHARED_PREFERENCE_LISTENERS, Modifier.PRIVATE_FINAL,
+                        "new WeakHashMap<OnSharedPreferenceChangeListener, Object>()")
+                .emitEmptyLine()
+                .emitJavadoc("The publishers of the changes of each field, created on first use.")
+                .emitField("AtomicReferenceArray<" + PUBLISHER_CLASS + "<?>>", PUBLISHERS, Modifier.PRIVATE_FINAL,
+                        "new AtomicReferenceArray<" + PUBLISHER_CLASS + "<?>>(" + preferences.size() + ")")
                 .emitEmptyLine();
 
+        if (mCacheValues) {
+            mWriter.emitJavadoc("Lock guarding the loading and invalidation of the cached values.")
+                    .emitField("Object", CACHE_LOCK, Modifier.PRIVATE_FINAL, "new Object()");
+            for (Preference preference : preferences.values()) {
+                preference.writeCacheFields(mWriter);
+            }
+            mWriter.emitEmptyLine();
+        }
+
         // default constructor with context using default preferences name
         mWriter.emitJavadoc("Constructor opening the preference file {@code '%1$s'} with the supplied context.\n@param %2$s the context to use",
                 preferencesName, PAR_CONTEXT)
@@ -178,16 +430,30 @@ public class PreferenceHolder {
                 .endConstructor()
                 .emitEmptyLine();
 
+        // constructor loading the default preferences in the background
+        mWriter.emitJavadoc("<p>Constructor opening the preference file {@code '%1$s'} on the supplied executor, without blocking.</p>\n" +
+                        "Reading or editing the preferences blocks until the file is loaded.%4$s\n\n" +
+                        "@param %2$s the context to use\n" +
+                        "@param %3$s the executor to load the file on",
+                preferencesName, PAR_CONTEXT, PAR_EXECUTOR,
+                mGrouped ? "\nThe files of the groups are opened on the first access to one of their fields." : "")
+                .beginConstructor(Modifier.PUBLIC, "Context", PAR_CONTEXT, "Executor", PAR_EXECUTOR)
+                .emitStatement("this(new DeferredPreferenceStore(%1$s, %2$s), PREFERENCES_NAME)",
+                        mSchemaVersionKey != null ? "new " + MIGRATION_TASK_CLASS + "(" + loader(PAR_CONTEXT + ".getApplicationContext()") + ")"
+                                : loader(PAR_CONTEXT + ".getApplicationContext()"), PAR_EXECUTOR)
+                .endConstructor()
+                .emitEmptyLine();
+
         // constructor with name for preferences
         mWriter.emitJavadoc("<p>Constructor opening the preference file with the name supplied by <i>%2$s</i> for the preferences name.</p>\n" +
                         "<p><i>It is advised against using this mehtod, unless you know what you're doing.</i></p>\n" +
                         "If you want to open different SharedPreferences consider using the argument in {@code @SharedPreference(String value)} to do so.\n\n" +
                         "@param %3$s the context to use\n" +
-                        "@param %2$s the name of the preferences file",
-                preferencesName, PAR_NAME, PAR_CONTEXT)
+                        "@param %2$s the name of the preferences file%4$s",
+                preferencesName, PAR_NAME, PAR_CONTEXT, mGrouped ? ", the name of the file of a group gets appended" : "")
                 .beginConstructor(Modifier.PUBLIC, "Context", PAR_CONTEXT, "String", PAR_NAME)
-                .emitStatement("this.%1s = %2$s.getSharedPreferences(%3$s, %2$s.MODE_PRIVATE)",
-                        PREFERENCES, PAR_CONTEXT, PAR_NAME)
+                .emitStatement("this(SharedPreferencesStore.open(%1$s, %2$s%3$s), %2$s)",
+                        PAR_CONTEXT, PAR_NAME, mGrouped ? ", createGroupLayout()" : "")
                 .endConstructor();
 
         // constructor with preferences
@@ -195,12 +461,47 @@ public class PreferenceHolder {
                 "If you want to open different SharedPreferences consider using the argument in {@code @SharedPreference(String value)} to do so.\n\n" +
                 "@param %1$s the SharedPreferences to use\n", "preferences")
                 .beginConstructor(Modifier.PUBLIC, "SharedPreferences", "preferences")
-                .emitStatement("this.%1s = preferences",
-                        PREFERENCES, "preferences")
+                .emitStatement("this(new SharedPreferencesStore(preferences))")
                 .endConstructor();
 
+        // constructor with any store
+        mWriter.emitJavadoc("<p>Constructor using the supplied store to hold the preferences.</p>\n" +
+                "Use this to back the preferences by something else than SharedPreferences.\n" +
+                "Metrics are reported under the name {@code '%2$s'}.\n\n" +
+                "@param %1$s the store to use\n", PAR_STORE, preferencesName)
+                .beginConstructor(Modifier.PUBLIC, "PreferenceStore", PAR_STORE)
+                .emitStatement("this(%1$s, PREFERENCES_NAME)", PAR_STORE)
+                .endConstructor();
+
+        // constructor with any store and the name of its file
+        mWriter.emitJavadoc("<p>Constructor using the supplied store to hold the preferences of the file named <i>%2$s</i>.</p>\n" +
+                (mSchemaVersionKey != null ? "The store is migrated to the current schema with a single {@code apply()}, unless it is a\n" +
+                        "{@link DeferredPreferenceStore} which would block until it is loaded. Call {@link #migrate(PreferenceStore)}\n" +
+                        "from its loader instead.\n" : "") +
+                "\n" +
+                "@param %1$s the store to use\n" +
+                "@param %2$s the name of the file of the store, which the metrics are reported under%3$s\n", PAR_STORE, PAR_NAME,
+                mGrouped ? ", the name of the file of a group gets appended" : "")
+                .beginConstructor(Modifier.PUBLIC, "PreferenceStore", PAR_STORE, "String", PAR_NAME)
+                .emitStatement("this.%1$s = %2$s", PREFERENCES, PAR_STORE)
+                .emitStatement("this.%1$s = %2$s", METRICS_NAME, PAR_NAME);
+        if (mSchemaVersionKey != null)
+            mWriter.beginControlFlow("if (!(%1$s instanceof DeferredPreferenceStore))", PAR_STORE)
+                    .emitSingleLineComment("nothing is written if the store is up to date")
+                    .emitStatement("final PreferenceStore.Editor migration = %1$s(%2$s)", CREATE_MIGRATION, PAR_STORE)
+                    .beginControlFlow("if (migration != null)")
+                    .emitStatement("migration.apply()")
+                    .endControlFlow()
+                    .endControlFlow();
+        registerInternalListener();
+        mWriter.endConstructor();
+
+        writePreload();
+        if (mSchemaVersionKey != null)
+            writeMigration();
+
         // implement SharedPreferences by just wrapping the shared preferences
-        wrapSharedPreferencesInterface(Modifier.PUBLIC, mEditorName, PREFERENCES, SharedPreferences.class.getMethods());
+        wrapSharedPreferencesInterface(Modifier.PUBLIC, mEditorName, PREFERENCES, mPreferencesMethods);
 
         // creating accessors for the fields annotated
         for (Map.Entry<String, Preference> entry : preferences.entrySet()) {
@@ -208,16 +509,68 @@ public class PreferenceHolder {
             entry.getValue().writeSetter(mWriter);
         }
 
+        for (Preference preference : preferences.values()) {
+            preference.writeCodec(mWriter);
+        }
+
+        if (mCoalesceWrites)
+            writeFlush();
+
+        if (mCacheValues) {
+            for (Preference preference : preferences.values()) {
+                preference.writeCacheLoader(mWriter);
+            }
+            writeEditorInvalidation();
+        }
+
+        if (mSkipUnchanged) {
+            for (Preference preference : preferences.values()) {
+                preference.writeUnchangedCheck(mWriter);
+            }
+        }
+
+        if (hasExpiringValues())
+            writeExpiration();
+
+        writeListenerRegistration();
+        writePublishers();
+        writeInternalListener();
+        writeListenerInterface();
+
+        writeSnapshot();
+        writeExport();
+        writeSlotLayout();
+        if (mGrouped)
+            writeGroupLayout();
+
         // creating nested inner class for the editor
         mWriter.emitEmptyLine().beginType(mEditorName, "class", Modifier.PUBLIC_STATIC, null, SharedPreferences.Editor.class.getCanonicalName());
         mWriter.emitEmptyLine()
-                .emitField(SharedPreferences.Editor.class.getCanonicalName(), EDITOR, Modifier.PRIVATE_FINAL)
+                .emitField("PreferenceStore.Editor", EDITOR, Modifier.PRIVATE_FINAL)
+                .emitField("String", METRICS_NAME, Modifier.PRIVATE_FINAL);
+        if (mTrackEditorKeys)
+            writeTrackingEditorFields();
+        mWriter.emitEmptyLine();
+        mWriter.emitJavadoc("Wraps the editor of a store, reporting metrics under the name {@code '%2$s'}.\n\n" +
+                "@param %1$s the editor to use", PAR_EDITOR, preferencesName)
+                .beginConstructor(Modifier.PUBLIC, "PreferenceStore.Editor", PAR_EDITOR)
+                .emitStatement(mTrackEditorKeys ? "this(%1$s, PREFERENCES_NAME, null)" : "this(%1$s, PREFERENCES_NAME)", PAR_EDITOR)
+                .endConstructor()
                 .emitEmptyLine();
-        mWriter.beginConstructor(Modifier.PUBLIC,
-                SharedPreferences.Editor.class.getCanonicalName(), PAR_EDITOR)
-                .emitStatement("this.%1$s = %2$s", EDITOR, PAR_EDITOR)
+        if (!mTrackEditorKeys)
+            mWriter.beginConstructor(Modifier.PRIVATE, "PreferenceStore.Editor", PAR_EDITOR, "String", PAR_NAME)
+                    .emitStatement("this.%1$s = %2$s", EDITOR, PAR_EDITOR)
+                    .emitStatement("this.%1$s = %2$s", METRICS_NAME, PAR_NAME)
+                    .endConstructor()
+                    .emitEmptyLine();
+        mWriter.emitJavadoc("Wraps the editor of SharedPreferences.\n\n@param %1$s the editor to use", PAR_EDITOR)
+                .beginConstructor(Modifier.PUBLIC,
+                        SharedPreferences.Editor.class.getCanonicalName(), PAR_EDITOR)
+                .emitStatement("this(SharedPreferencesStore.wrap(%1$s))", PAR_EDITOR)
                 .endConstructor();
-        wrapEditorInterface(Modifier.PUBLIC, mEditorName, EDITOR, SharedPreferences.Editor.class.getMethods());
+        if (mTrackEditorKeys)
+            writeTrackingEditorMethods();
+        wrapEditorInterface(Modifier.PUBLIC, mEditorName, EDITOR, mEditorMethods);
         // creating accessors for the fields annotated
         for (Map.Entry<String, Preference> entry : preferences.entrySet()) {
             entry.getValue().writeChainSetter(mWriter, mEditorName, EDITOR);
@@ -228,62 +581,920 @@ public class PreferenceHolder {
         mWriter.close();
     }
 
-    private void wrapSharedPreferencesInterface(Set<javax.lang.model.element.Modifier> modifiersPublic, String editor, String wrappedElement, Method[] methods) throws IOException {
-        for (Method method : methods) {
+    /**
+     * Writes the method loading the preferences on an executor, and the accessor for the store.
+     */
+    private void writePreload() throws IOException {
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Opens the preference file {@code '%1$s'} on the supplied executor.</p>\n" +
+                                "The returned future completes once the file is loaded, so calls to the instance won't block.\n" +
+                                (mGrouped ? "The files of the groups are opened on the first access to one of their fields.\n"
+                                        : "Use {@link SharedPreferencesStore#getLoadTimeNanos()} of {@link #getPreferenceStore()} to check how long this took.\n") +
+                                "\n" +
+                                "@param %2$s the context to use\n" +
+                                "@param %3$s the executor to load the file on\n" +
+                                "@return the future instance",
+                        preferencesName, PAR_CONTEXT, PAR_EXECUTOR)
+                .beginMethod("Future<" + mClassName + ">", "preload", Modifier.PUBLIC_STATIC,
+                        "Context", PAR_CONTEXT, "Executor", PAR_EXECUTOR)
+                .emitStatement("FutureTask<%1$s> task = new FutureTask<%1$s>(new %2$s(\n%3$s))",
+                        mClassName, PRELOAD_TASK_CLASS, loader(PAR_CONTEXT + ".getApplicationContext()"))
+                .emitStatement("%1$s.execute(task)", PAR_EXECUTOR)
+                .emitStatement("return task")
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .beginType(PRELOAD_TASK_CLASS, "class", Modifier.PRIVATE_FINAL_STATIC, null, "Callable<" + mClassName + ">")
+                .emitField("Callable<? extends PreferenceStore>", LOADER, Modifier.PRIVATE_FINAL)
+                .emitEmptyLine()
+                .beginConstructor(Collections.<javax.lang.model.element.Modifier>emptySet(), "Callable<? extends PreferenceStore>", "loader")
+                .emitStatement("%1$s = loader", LOADER)
+                .endConstructor()
+                .emitEmptyLine()
+                .emitAnnotation(Override.class)
+                .beginMethod(mClassName, "call", Modifier.PUBLIC, null, Collections.singletonList("Exception"))
+                .emitStatement("return new %1$s(%2$s.call())", mClassName, LOADER)
+                .endMethod()
+                .endType();
+
+        mWriter.emitEmptyLine()
+                .emitJavadoc("@return the store holding the preferences")
+                .beginMethod("PreferenceStore", "getPreferenceStore", Modifier.PUBLIC)
+                .emitStatement("return %1$s", PREFERENCES)
+                .endMethod();
+    }
+
+    /**
+     * Writes the method migrating a store of an older schema with a single commit, the method creating the
+     * editor of the migration, and the task running it after a loader.
+     */
+    private void writeMigration() throws IOException {
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Migrates the preferences stored by an older version of the schema, if the version stored under\n" +
+                        "{@link #SCHEMA_VERSION_KEY} is lower than {@link #SCHEMA_VERSION}.</p>\n" +
+                        "All values are read by a single {@code getAll()}, and every moved and converted value is committed\n" +
+                        "together with the new version by a single editor. The constructors apply the same changes instead\n" +
+                        "for all stores which are not deferred.\n\n" +
+                        "@param %1$s the store to migrate\n" +
+                        "@return true if the store was migrated, false if it was up to date or the commit failed", PAR_STORE)
+                .beginMethod("boolean", "migrate", Modifier.PUBLIC_STATIC, "PreferenceStore", PAR_STORE)
+                .emitStatement("final PreferenceStore.Editor migration = %1$s(%2$s)", CREATE_MIGRATION, PAR_STORE)
+                .emitStatement("return migration != null && migration.commit()")
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .emitJavadoc("@param %1$s the store to migrate\n" +
+                        "@return the editor holding the changes of the migration, or null if the store is up to date", PAR_STORE)
+                .beginMethod("PreferenceStore.Editor", CREATE_MIGRATION, Modifier.PRIVATE_STATIC, "PreferenceStore", PAR_STORE)
+                .beginControlFlow("if (%1$s.getInt(SCHEMA_VERSION_KEY, 0) >= SCHEMA_VERSION)", PAR_STORE)
+                .emitStatement("return null")
+                .endControlFlow()
+                .emitStatement("Map<String, ?> values = %1$s.getAll()", PAR_STORE)
+                .emitStatement("PreferenceStore.Editor %1$s = %2$s.edit()", PAR_EDITOR, PAR_STORE);
+        boolean declared = false;
+        for (Preference preference : preferences.values()) {
+            if (preference.getMigratedFromKey() == null)
+                continue;
+            if (!declared)
+                mWriter.emitStatement("Object value");
+            declared = true;
+            preference.writeMigration(mWriter, "values", PAR_EDITOR);
+        }
+        mWriter.emitStatement("return %1$s.putInt(SCHEMA_VERSION_KEY, SCHEMA_VERSION)", PAR_EDITOR)
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .beginType(MIGRATION_TASK_CLASS, "class", Modifier.PRIVATE_FINAL_STATIC, null, "Callable<PreferenceStore>")
+                .emitField("Callable<? extends PreferenceStore>", LOADER, Modifier.PRIVATE_FINAL)
+                .emitEmptyLine()
+                .beginConstructor(Collections.<javax.lang.model.element.Modifier>emptySet(), "Callable<? extends PreferenceStore>", "loader")
+                .emitStatement("%1$s = loader", LOADER)
+                .endConstructor()
+                .emitEmptyLine()
+                .emitAnnotation(Override.class)
+                .beginMethod("PreferenceStore", "call", Modifier.PUBLIC, null, Collections.singletonList("Exception"))
+                .emitStatement("PreferenceStore %1$s = %2$s.call()", PAR_STORE, LOADER)
+                .emitStatement("migrate(%1$s)", PAR_STORE)
+                .emitStatement("return %1$s", PAR_STORE)
+                .endMethod()
+                .endType();
+    }
+
+    /**
+     * Writes the checks whether a value expired, and the method removing all expired values with a single
+     * {@code apply()}.
+     */
+    private void writeExpiration() throws IOException {
+        mWriter.emitEmptyLine()
+                .beginMethod("boolean", "isExpired", Modifier.PRIVATE_STATIC, "long", "writtenAt", "long", "ttl")
+                .emitStatement("return System.currentTimeMillis() - writtenAt >= ttl")
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .beginMethod("boolean", "isExpired", Modifier.PRIVATE_STATIC, "Object", "writtenAt", "long", "ttl")
+                .emitSingleLineComment("values without the time of their write are expired")
+                .emitStatement("return !(writtenAt instanceof Long) || isExpired(((Long) writtenAt).longValue(), ttl)")
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Removes every expired value together with the time it was written, as well as the times left\n" +
+                        "without a value, with a single {@code apply()}.</p>\n" +
+                        "The getters already return the default value for an expired one, this only frees the storage.\n\n" +
+                        "@return the number of removed values")
+                .beginMethod("int", "evictExpired", Modifier.PUBLIC);
+        if (mCoalesceWrites)
+            mWriter.emitStatement("flush()");
+        mWriter.emitStatement("PreferenceStore.Editor editor = null")
+                .emitStatement("int evicted = 0");
+        Set<String> keys = new HashSet<>();
+        for (Preference preference : preferences.values()) {
+            final String timestampKey = preference.getTimestampKey();
+            if (timestampKey == null || !keys.add(timestampKey))
+                continue;
+            mWriter.beginControlFlow("if (contains(%1$s))", preference.getFieldName())
+                    .beginControlFlow("if (isExpired(getLong(\"%1$s\", 0L), %2$dL))", timestampKey,
+                            preference.getExpiresMillis())
+                    .emitStatement("editor = editor != null ? editor : %1$s.edit()", PREFERENCES)
+                    .emitStatement("editor.remove(%1$s).remove(\"%2$s\")", preference.getFieldName(), timestampKey)
+                    .emitStatement("evicted++")
+                    .endControlFlow()
+                    .nextControlFlow("else if (contains(\"%1$s\"))", timestampKey)
+                    .emitStatement("editor = editor != null ? editor : %1$s.edit()", PREFERENCES)
+                    .emitStatement("editor.remove(\"%1$s\")", timestampKey)
+                    .endControlFlow();
+        }
+        mWriter.beginControlFlow("if (editor != null)")
+                .emitStatement("final long start = PreferenceMetrics.startTime()")
+                .emitStatement("editor.apply()")
+                .beginControlFlow("if (PreferenceMetrics.ENABLED)")
+                .emitStatement("PreferenceMetrics.reportApply(%1$s, start)", METRICS_NAME)
+                .endControlFlow()
+                .endControlFlow()
+                .emitStatement("return evicted")
+                .endMethod();
+    }
+
+    /**
+     * @param context the expression of the context to load the preferences with
+     * @return the expression creating the task that loads the default file
+     */
+    private String loader(String context) {
+        return String.format("SharedPreferencesStore.loader(%1$s, PREFERENCES_NAME%2$s)", context,
+                mGrouped ? ", createGroupLayout()" : "");
+    }
+
+    /**
+     * Writes the method creating the groups of the fields, assigning each field with a {@code @Group}
+     * to the file of its group.
+     */
+    private void writeGroupLayout() throws IOException {
+        StringBuilder builder = new StringBuilder("return GroupLayout.builder()");
+        Set<String> keys = new HashSet<>();
+        for (Preference preference : preferences.values()) {
+            if (preference.getGroup() == null || !keys.add(preference.getPreferenceKey()))
+                continue;
+            builder.append("\n.add(").append(preference.getFieldName()).append(", \"")
+                    .append(preference.getGroup()).append("\")");
+            if (preference.isExpiring())
+                builder.append("\n.add(\"").append(preference.getTimestampKey()).append("\", \"")
+                        .append(preference.getGroup()).append("\")");
+        }
+        builder.append("\n.build()");
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Creates the groups of the fields, to keep each group in a file of its own with a\n" +
+                        "{@link GroupedPreferenceStore}.</p>\n" +
+                        "Fields without a group are kept in the default file.\n\n" +
+                        "@return the layout of the groups")
+                .beginMethod("GroupLayout", "createGroupLayout", Modifier.PUBLIC_STATIC)
+                .emitStatement(builder.toString())
+                .endMethod();
+    }
+
+    /**
+     * Writes the method creating the fixed binary layout of the primitive fields, assigning the
+     * offsets in the order of the accessors.
+     */
+    private void writeSlotLayout() throws IOException {
+        StringBuilder builder = new StringBuilder("return SlotLayout.builder()");
+        Set<String> keys = new LinkedHashSet<>();
+        int offset = 0;
+        for (Preference preference : preferences.values()) {
+            // enums are stored by their int id
+            final PreferenceType type = preference.getType() == PreferenceType.ENUM ? PreferenceType.INTEGER : preference.getType();
+            if (type == PreferenceType.STRING || type == PreferenceType.STRING_SET || type.isEncoded()
+                    || !keys.add(preference.getPreferenceKey()))
+                continue;
+            builder.append("\n.add(").append(preference.getFieldName()).append(", PreferenceType.")
+                    .append(type.name()).append(", ").append(offset).append(')');
+            offset += SlotLayout.getSlotSize(type);
+        }
+        for (Preference preference : preferences.values()) {
+            final String timestampKey = preference.getTimestampKey();
+            if (timestampKey == null || !keys.add(timestampKey))
+                continue;
+            builder.append("\n.add(\"").append(timestampKey).append("\", PreferenceType.LONG, ").append(offset).append(')');
+            offset += SlotLayout.getSlotSize(PreferenceType.LONG);
+        }
+        builder.append("\n.build()");
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Creates the fixed binary layout of the primitive fields, to back this class by a\n" +
+                        "{@link com.github.bleeding182.sharedpreferences.store.MappedPreferenceStore}.</p>\n" +
+                        "Other values are written to its overflow file.\n\n" +
+                        "@return the layout of the slots")
+                .beginMethod("SlotLayout", "createSlotLayout", Modifier.PUBLIC_STATIC)
+                .emitStatement(builder.toString())
+                .endMethod();
+    }
+
+    /**
+     * @return true if any field is stored encoded, thus the class needs the codecs
+     */
+    private boolean hasEncodedValues() {
+        for (Preference preference : preferences.values()) {
+            if (preference.isEncoded())
+                return true;
+        }
+        return false;
+    }
+
+    private boolean hasExpiringValues() {
+        for (Preference preference : preferences.values()) {
+            if (preference.isExpiring())
+                return true;
+        }
+        return false;
+    }
+
+    private boolean hasEncryptedValues() {
+        for (Preference preference : preferences.values()) {
+            if (preference.isEncrypted())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the methods exporting the values of all annotated fields to a stream and restoring them,
+     * reading and writing each value with its typed method.
+     */
+    private void writeExport() throws IOException {
+        final String schemaVersion = mSchemaVersionKey != null ? "SCHEMA_VERSION" : "0";
+        final List<Preference> fields = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        for (Preference preference : preferences.values()) {
+            if (keys.add(preference.getPreferenceKey()))
+                fields.add(preference);
+        }
+
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Writes the values of all annotated fields to the stream, in the compact binary format of\n" +
+                        "{@link PreferenceExport}. Fields without a value are left out.</p>\n" +
+                        "The stream is neither closed nor read by a {@code getAll()}, each value is written as it is read.\n\n" +
+                        "@param out the stream to write to\n" +
+                        "@throws IOException if writing fails")
+                .beginMethod("void", "writeTo", Modifier.PUBLIC, Arrays.asList("OutputStream", "out"),
+                        Collections.singletonList("IOException"))
+                .emitStatement("PreferenceExport.Writer writer = new PreferenceExport.Writer(out, %1$s)", schemaVersion);
+        for (Preference preference : fields) {
+            final PreferenceType type = preference.getType();
+            final String fullName = type.getFullName();
+            if (type == PreferenceType.STRING || type == PreferenceType.STRING_SET || type.isEncoded())
+                mWriter.emitStatement("writer.write%1$s(%2$s, get%1$s(%2$s, null))", fullName, preference.getFieldName());
+            else
+                // enums are written as their stored id
+                mWriter.beginControlFlow("if (contains(%1$s))", preference.getFieldName())
+                        .emitStatement("writer.write%1$s(%2$s, get%1$s(%2$s, %3$s))", fullName, preference.getFieldName(),
+                                type == PreferenceType.BOOLEAN ? "false" : "0")
+                        .endControlFlow();
+            if (preference.isExpiring())
+                // restored values keep expiring from the time they were written
+                mWriter.beginControlFlow("if (contains(\"%1$s\"))", preference.getTimestampKey())
+                        .emitStatement("writer.writeLong(\"%1$s\", getLong(\"%1$s\", 0L))", preference.getTimestampKey())
+                        .endControlFlow();
+        }
+        mWriter.emitStatement("writer.finish()")
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Restores the values written by {@link #writeTo(OutputStream)} with a single commit.\n" +
+                        "Annotated fields missing from the export are removed, other values in the preferences are kept.</p>\n" +
+                        (mSchemaVersionKey != null ? "Exports of an older schema are migrated afterwards.\n" : "") +
+                        "Nothing is changed if the export is corrupt.\n\n" +
+                        "@param in the stream to read from, which should be buffered\n" +
+                        "@return the result of {@code commit()}\n" +
+                        "@throws IOException if reading fails, or the export is corrupt or of a newer schema")
+                .beginMethod("boolean", "readFrom", Modifier.PUBLIC, Arrays.asList("InputStream", "in"),
+                        Collections.singletonList("IOException"))
+                .emitStatement("PreferenceExport.Reader reader = new PreferenceExport.Reader(in)")
+                .beginControlFlow("if (reader.getSchemaVersion() > %1$s)", schemaVersion)
+                .emitStatement("throw new IOException(\"Export of the newer schema version \" + reader.getSchemaVersion())")
+                .endControlFlow();
+        if (mCoalesceWrites)
+            mWriter.emitSingleLineComment("pending values must not overwrite the restored ones later")
+                    .emitStatement("flush()");
+        mWriter.emitStatement("PreferenceStore.Editor editor = %1$s.edit()", PREFERENCES);
+        for (Preference preference : fields) {
+            mWriter.emitStatement("editor.remove(%1$s)", preference.getFieldName());
+            if (preference.isExpiring())
+                mWriter.emitStatement("editor.remove(\"%1$s\")", preference.getTimestampKey());
+        }
+        mWriter.beginControlFlow("while (reader.readEntry(editor) != null)")
+                .emitSingleLineComment("every entry is put into the editor as it is read")
+                .endControlFlow();
+        if (mSchemaVersionKey != null)
+            mWriter.emitStatement("editor.putInt(SCHEMA_VERSION_KEY, reader.getSchemaVersion())");
+        mWriter.emitStatement("final long start = PreferenceMetrics.startTime()")
+                .emitStatement("%1$sboolean result = editor.commit()", mSchemaVersionKey != null ? "" : "final ")
+                .beginControlFlow("if (PreferenceMetrics.ENABLED)")
+                .emitStatement("PreferenceMetrics.reportCommit(%1$s, start)", METRICS_NAME)
+                .endControlFlow();
+        if (mSchemaVersionKey != null)
+            mWriter.beginControlFlow("if (result && reader.getSchemaVersion() < SCHEMA_VERSION)")
+                    .emitStatement("result = migrate(%1$s)", PREFERENCES)
+                    .endControlFlow();
+        mWriter.emitStatement("return result")
+                .endMethod();
+    }
+
+    /**
+     * Writes the immutable snapshot class holding the values of all annotated fields, and the method to create it.
+     */
+    private void writeSnapshot() throws IOException {
+        mWriter.emitEmptyLine()
+                .emitJavadoc("Reads the values of all annotated fields at once, using a single call to {@link #getAll()}.\n\n" +
+                        "@return a consistent and immutable view of the values")
+                .beginMethod(SNAPSHOT_CLASS, "snapshot", Modifier.PUBLIC)
+                .emitStatement("return new %1$s(getAll())", SNAPSHOT_CLASS)
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Immutable view of the values of all annotated fields, created by {@link %1$s#snapshot()}.</p>\n" +
+                        "Values which were not set hold their default value.", mClassName)
+                .beginType(SNAPSHOT_CLASS, "class", Modifier.PUBLIC_FINAL_STATIC)
+                .emitEmptyLine();
+        boolean hasSets = false;
+        for (Preference preference : preferences.values()) {
+            preference.writeSnapshotField(mWriter);
+            hasSets |= preference.getType() == PreferenceType.STRING_SET;
+        }
+        mWriter.emitEmptyLine();
+        if (hasSets)
+            mWriter.emitAnnotation(SuppressWarnings.class, "\"unchecked\"");
+        mWriter.beginConstructor(Modifier.PRIVATE, "java.util.Map<String, ?>", "values")
+                .emitStatement("Object value");
+        for (Preference preference : preferences.values()) {
+            preference.writeSnapshotAssignment(mWriter, "values");
+        }
+        mWriter.endConstructor();
+        for (Preference preference : preferences.values()) {
+            preference.writeSnapshotGetter(mWriter);
+        }
+        mWriter.endType();
+    }
+
+    private void registerInternalListener() throws IOException {
+        // listeners of a cache have to be notified of every change, others only register when needed
+        if (mCacheValues)
+            mWriter.emitStatement("%1$s.registerOnChangeListener(%2$s)", PREFERENCES, INTERNAL_LISTENER);
+    }
+
+    private void emitUpdateInternalListener() throws IOException {
+        if (!mCacheValues)
+            mWriter.emitStatement("%1$s()", UPDATE_INTERNAL_LISTENER);
+    }
+
+    /**
+     * Writes the method registering the internal listener with the store as long as there are listeners to notify.
+     */
+    private void writeUpdateInternalListener() throws IOException {
+        if (mCacheValues)
+            return;
+        mWriter.emitEmptyLine()
+                .beginMethod("void", UPDATE_INTERNAL_LISTENER, Modifier.PRIVATE)
+                .beginControlFlow("synchronized (%1$s)", INTERNAL_LISTENER)
+                .emitStatement("final boolean needed")
+                .beginControlFlow("synchronized (%1$s)", SHARED_PREFERENCE_LISTENERS)
+                .emitStatement("needed = !%1$s.isEmpty() || !%2$s.isEmpty() || %3$s()", LISTENERS, SHARED_PREFERENCE_LISTENERS,
+                        HAS_SUBSCRIBERS)
+                .endControlFlow()
+                .beginControlFlow("if (needed == %1$s)", INTERNAL_LISTENER_REGISTERED)
+                .emitStatement("return")
+                .endControlFlow()
+                .beginControlFlow("if (needed)")
+                .emitStatement("%1$s.registerOnChangeListener(%2$s)", PREFERENCES, INTERNAL_LISTENER)
+                .nextControlFlow("else")
+                .emitStatement("%1$s.unregisterOnChangeListener(%2$s)", PREFERENCES, INTERNAL_LISTENER)
+                .endControlFlow()
+                .emitStatement("%1$s = needed", INTERNAL_LISTENER_REGISTERED)
+                .endControlFlow()
+                .endMethod();
+    }
+
+    private void writeListenerRegistration() throws IOException {
+        mWriter.emitEmptyLine()
+                .emitJavadoc("Registers a callback to be invoked with the new value when an annotated field changes.\n\n" +
+                        "@param listener the callback that will run")
+                .beginMethod("void", REGISTER_LISTENER, Modifier.PUBLIC, LISTENER_CLASS, "listener")
+                .emitStatement("%1$s.addIfAbsent(listener)", LISTENERS);
+        emitUpdateInternalListener();
+        mWriter.endMethod();
+
+        mWriter.emitEmptyLine()
+                .emitJavadoc("Unregisters a previous callback.\n\n" +
+                        "@param listener the callback that should be unregistered")
+                .beginMethod("void", UNREGISTER_LISTENER, Modifier.PUBLIC, LISTENER_CLASS, "listener")
+                .emitStatement("%1$s.remove(listener)", LISTENERS);
+        emitUpdateInternalListener();
+        mWriter.endMethod();
+
+        writeUpdateInternalListener();
+    }
+
+    /**
+     * Writes the typed listener interface with a callback for every annotated field, as well as an empty implementation.
+     */
+    private void writeListenerInterface() throws IOException {
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Interface definition for callbacks to be invoked when an annotated field changes.</p>\n" +
+                        "Extend {@link %1$s} to only receive the callbacks of interest.", SIMPLE_LISTENER_CLASS)
+                .beginType(LISTENER_CLASS, "interface", Modifier.PUBLIC_STATIC);
+        for (Preference preference : preferences.values()) {
+            preference.writeListenerMethod(mWriter, false);
+        }
+        mWriter.endType();
+
+        mWriter.emitEmptyLine()
+                .emitJavadoc("An implementation of {@link %1$s} ignoring all changes.", LISTENER_CLASS)
+                .beginType(SIMPLE_LISTENER_CLASS, "class", Modifier.PUBLIC_STATIC, null, LISTENER_CLASS);
+        for (Preference preference : preferences.values()) {
+            preference.writeListenerMethod(mWriter, true);
+        }
+        mWriter.endType();
+    }
+
+    /**
+     * Writes the single listener registered by the generated class, dispatching changes by key.
+     */
+    /**
+     * More than one field may use the same key, but every key may only be used once as a label.
+     *
+     * @return the fields by their keys
+     */
+    private Map<String, List<Preference>> getPreferencesByKey() {
+        Map<String, List<Preference>> byKey = new LinkedHashMap<>();
+        for (Preference preference : preferences.values()) {
+            List<Preference> list = byKey.get(preference.getPreferenceKey());
+            if (list == null) {
+                list = new ArrayList<>();
+                byKey.put(preference.getPreferenceKey(), list);
+            }
+            list.add(preference);
+        }
+        return byKey;
+    }
+
+    /**
+     * Writes the method invalidating the cached values of the keys written by an editor, right after it wrote them.
+     */
+    private void writeEditorInvalidation() throws IOException {
+        mWriter.emitEmptyLine()
+                .emitJavadoc("Invalidates the cached values changed by an editor, before the listeners get notified.\n\n" +
+                        "@param cleared whether the editor cleared the preferences\n" +
+                        "@param keys    the keys changed by the editor, may be null")
+                .beginMethod("void", INVALIDATE_CACHE, Modifier.PRIVATE, "boolean", "cleared", "Set<String>", "keys")
+                .beginControlFlow("synchronized (%1$s)", CACHE_LOCK)
+                .beginControlFlow("if (cleared)");
+        for (Preference preference : preferences.values()) {
+            preference.writeInvalidate(mWriter);
+        }
+        mWriter.nextControlFlow("else if (keys != null)")
+                .beginControlFlow("for (String key : keys)")
+                .beginControlFlow("switch (key)");
+        for (List<Preference> list : getPreferencesByKey().values()) {
+            mWriter.beginControlFlow("case %1$s:", list.get(0).getFieldName());
+            for (Preference preference : list) {
+                preference.writeInvalidate(mWriter);
+            }
+            mWriter.emitStatement("break")
+                    .endControlFlow();
+        }
+        mWriter.endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .endMethod();
+    }
+
+    private void writeInternalListener() throws IOException {
+        Map<String, List<Preference>> byKey = getPreferencesByKey();
+        // the index of the publisher of each field
+        Map<Preference, Integer> indices = new HashMap<>();
+        for (Preference preference : preferences.values()) {
+            indices.put(preference, indices.size());
+        }
+
+        mWriter.emitEmptyLine()
+                .beginType(INTERNAL_LISTENER_CLASS, "class", Modifier.PRIVATE_FINAL, null, "PreferenceStore.OnChangeListener")
+                .emitEmptyLine()
+                .emitAnnotation(Override.class)
+                .beginMethod("void", "onChanged", Modifier.PUBLIC,
+                        "PreferenceStore", "store", "String", "key")
+                .beginControlFlow("if (key == null)")
+                .emitSingleLineComment("preferences were cleared");
+        writeChangeDispatch(preferences.values(), indices);
+        mWriter.nextControlFlow("else")
+                .beginControlFlow("switch (key)");
+        for (List<Preference> list : byKey.values()) {
+            mWriter.beginControlFlow("case %1$s:", list.get(0).getFieldName());
+            writeChangeDispatch(list, indices);
+            mWriter.emitStatement("break")
+                    .endControlFlow();
+        }
+        mWriter.endControlFlow()
+                .endControlFlow();
+
+        // notified last, so they read the new values
+        mWriter.emitStatement("final List<OnSharedPreferenceChangeListener> listeners")
+                .beginControlFlow("synchronized (%1$s)", SHARED_PREFERENCE_LISTENERS)
+                .beginControlFlow("if (%1$s.isEmpty())", SHARED_PREFERENCE_LISTENERS)
+                .emitStatement("return")
+                .endControlFlow()
+                .emitStatement("listeners = new ArrayList<OnSharedPreferenceChangeListener>(%1$s.keySet())",
+                        SHARED_PREFERENCE_LISTENERS)
+                .endControlFlow()
+                .beginControlFlow("for (OnSharedPreferenceChangeListener listener : listeners)")
+                .emitStatement("listener.onSharedPreferenceChanged(%1$s.this, key)", mClassName)
+                .endControlFlow()
+                .endMethod()
+                .endType();
+    }
+
+    private void writeChangeDispatch(Collection<Preference> changed, Map<Preference, Integer> indices) throws IOException {
+        if (mCacheValues) {
+            mWriter.beginControlFlow("synchronized (%1$s)", CACHE_LOCK);
+            for (Preference preference : changed) {
+                preference.writeInvalidate(mWriter);
+            }
+            mWriter.endControlFlow();
+        }
+        mWriter.beginControlFlow("if (!%1$s.isEmpty())", LISTENERS);
+        for (Preference preference : changed) {
+            preference.writeListenerDispatch(mWriter, LISTENER_CLASS, LISTENERS);
+        }
+        mWriter.endControlFlow();
+        for (Preference preference : changed) {
+            mWriter.emitStatement("%1$s(%2$d)", PUBLISH_CHANGE, indices.get(preference));
+        }
+    }
+
+    /**
+     * Writes the streams of changes of every field. Their publishers are created on first use and kept in an array,
+     * to be notified by the internal listener.
+     */
+    private void writePublishers() throws IOException {
+        int index = 0;
+        for (Preference preference : preferences.values()) {
+            preference.writeChangesMethod(mWriter, index++);
+        }
+
+        mWriter.emitEmptyLine()
+                .emitAnnotation(SuppressWarnings.class, "\"unchecked\"")
+                .beginMethod("<T> " + PUBLISHER_CLASS + "<T>", GET_PUBLISHER, Modifier.PRIVATE, "int", "field")
+                .emitStatement("%1$s<?> publisher = %2$s.get(field)", PUBLISHER_CLASS, PUBLISHERS)
+                .beginControlFlow("if (publisher == null)")
+                .emitStatement("%1$s.compareAndSet(field, null, new %2$s<Object>(field))", PUBLISHERS, PUBLISHER_CLASS)
+                .emitStatement("publisher = %1$s.get(field)", PUBLISHERS)
+                .endControlFlow()
+                .emitStatement("return (%1$s<T>) publisher", PUBLISHER_CLASS)
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .beginMethod("void", PUBLISH_CHANGE, Modifier.PRIVATE, "int", "field")
+                .emitStatement("final %1$s<?> publisher = %2$s.get(field)", PUBLISHER_CLASS, PUBLISHERS)
+                .beginControlFlow("if (publisher != null)")
+                .emitStatement("publisher.publish()")
+                .endControlFlow()
+                .endMethod();
+
+        if (!mCacheValues) {
+            mWriter.emitEmptyLine()
+                    .beginMethod("boolean", HAS_SUBSCRIBERS, Modifier.PRIVATE)
+                    .beginControlFlow("for (int i = 0; i < %1$s.length(); i++)", PUBLISHERS)
+                    .emitStatement("final %1$s<?> publisher = %2$s.get(i)", PUBLISHER_CLASS, PUBLISHERS)
+                    .beginControlFlow("if (publisher != null && publisher.hasSubscribers())")
+                    .emitStatement("return true")
+                    .endControlFlow()
+                    .endControlFlow()
+                    .emitStatement("return false")
+                    .endMethod();
+        }
+
+        mWriter.emitEmptyLine()
+                .beginType(PUBLISHER_CLASS + "<T>", "class", Modifier.PRIVATE_FINAL, "ConflatingPublisher<T>")
+                .emitField("int", "mField", Modifier.PRIVATE_FINAL)
+                .emitEmptyLine()
+                .beginConstructor(Collections.<javax.lang.model.element.Modifier>emptySet(), "int", "field")
+                .emitStatement("mField = field")
+                .endConstructor()
+                .emitEmptyLine()
+                .emitAnnotation(Override.class)
+                .emitAnnotation(SuppressWarnings.class, "\"unchecked\"")
+                .beginMethod("T", "read", Modifier.PROTECTED)
+                .beginControlFlow("switch (mField)");
+        index = 0;
+        for (Preference preference : preferences.values()) {
+            mWriter.beginControlFlow("case %1$d:", index++)
+                    .emitStatement("return (T) (Object) %1$s", preference.getValueExpression())
+                    .endControlFlow();
+        }
+        mWriter.beginControlFlow("default:")
+                .emitStatement("throw new IllegalStateException(\"unknown field \" + mField)")
+                .endControlFlow()
+                .endControlFlow()
+                .endMethod();
+        if (!mCacheValues) {
+            // listeners of a cache are always registered
+            mWriter.emitEmptyLine()
+                    .emitAnnotation(Override.class)
+                    .beginMethod("void", "onSubscribersChanged", Modifier.PROTECTED)
+                    .emitStatement("%1$s()", UPDATE_INTERNAL_LISTENER)
+                    .endMethod();
+        }
+        mWriter.endType();
+    }
+
+    private void wrapSharedPreferencesInterface(Set<javax.lang.model.element.Modifier> modifiersPublic, String editor, String wrappedElement, List<MethodTemplate> methods) throws IOException {
+        for (MethodTemplate method : methods) {
             mWriter.emitEmptyLine().emitAnnotation(Override.class);
-            boolean isCustomWrapperNeeded = method.getReturnType().equals(SharedPreferences.Editor.class);
+            boolean isCustomWrapperNeeded = method.returnClass.equals(SharedPreferences.Editor.class);
+            if (mCoalesceWrites && method.returnClass.equals(Set.class))
+                mWriter.emitAnnotation(SuppressWarnings.class, "\"unchecked\"");
             final String params = beginMethod(modifiersPublic, editor, method, isCustomWrapperNeeded);
 
-            if (method.getReturnType().equals(void.class))
-                mWriter.emitStatement("%1$s.%2$s(%3$s)", wrappedElement, method.getName(), params);
+            if (mCoalesceWrites)
+                emitPendingValueLookup(method, params);
+
+            if (method.name.endsWith("OnSharedPreferenceChangeListener")) {
+                // listeners are notified by the internal listener, to pass on this instance
+                mWriter.beginControlFlow("synchronized (%1$s)", SHARED_PREFERENCE_LISTENERS);
+                if (method.name.startsWith("register"))
+                    mWriter.emitStatement("%1$s.put(%2$s, this)", SHARED_PREFERENCE_LISTENERS, params);
+                else
+                    mWriter.emitStatement("%1$s.remove(%2$s)", SHARED_PREFERENCE_LISTENERS, params);
+                mWriter.endControlFlow();
+                emitUpdateInternalListener();
+            } else if (method.returnClass.equals(void.class))
+                mWriter.emitStatement("%1$s.%2$s(%3$s)", wrappedElement, method.name, params);
             else {
                 if (isCustomWrapperNeeded)
-                    mWriter.emitStatement("return new %1$s(%2$s.%3$s(%4$s))", editor, wrappedElement, method.getName(), params);
+                    mWriter.emitStatement(mTrackEditorKeys ? "return new %1$s(%2$s.%3$s(%4$s), %5$s, this)" : "return new %1$s(%2$s.%3$s(%4$s), %5$s)",
+                            editor, wrappedElement, method.name, params, METRICS_NAME);
                 else
-                    mWriter.emitStatement("return %1$s.%2$s(%3$s)", wrappedElement, method.getName(), params);
+                    mWriter.emitStatement("return %1$s.%2$s(%3$s)", wrappedElement, method.name, params);
             }
             mWriter.endMethod();
         }
     }
 
-    private void wrapEditorInterface(Set<javax.lang.model.element.Modifier> modifiersPublic, String editor, String wrappedElement, Method[] methods) throws IOException {
-        for (Method method : methods) {
+    /**
+     * Values set while coalescing writes have to be visible to the reads, before they get written.
+     */
+    private void emitPendingValueLookup(MethodTemplate method, String params) throws IOException {
+        final String name = method.name;
+        if (name.equals("edit")) {
+            // keep the order of the changes
+            mWriter.emitStatement("flush()");
+        } else if (name.equals("contains")) {
+            mWriter.emitStatement("Object pending = %1$s.get(%2$s)", PENDING_VALUES, params)
+                    .beginControlFlow("if (pending != null)")
+                    .emitStatement("return pending != %1$s", REMOVED)
+                    .endControlFlow();
+        } else if (name.equals("getAll")) {
+            mWriter.beginControlFlow("if (!%1$s.isEmpty())", PENDING_VALUES)
+                    .emitStatement("Map<String, Object> all = new HashMap<String, Object>(%1$s.getAll())", PREFERENCES)
+                    .beginControlFlow("for (Map.Entry<String, Object> entry : %1$s.entrySet())", PENDING_VALUES)
+                    .beginControlFlow("if (entry.getValue() == %1$s)", REMOVED)
+                    .emitStatement("all.remove(entry.getKey())")
+                    .nextControlFlow("else")
+                    .emitStatement("all.put(entry.getKey(), entry.getValue())")
+                    .endControlFlow()
+                    .endControlFlow()
+                    .emitStatement("return all")
+                    .endControlFlow();
+        } else if (name.startsWith("get") && method.getParameterCount() == 2) {
+            mWriter.emitStatement("Object pending = %1$s.get(%2$s)", PENDING_VALUES, method.getParameterName(0))
+                    .beginControlFlow("if (pending != null)")
+                    .emitStatement("return pending != %1$s ? (%2$s) pending : %3$s", REMOVED,
+                            boxedTypeName(method.returnType), method.getParameterName(1))
+                    .endControlFlow();
+        }
+    }
+
+    private static String boxedTypeName(String typeName) {
+        switch (typeName) {
+            case "boolean":
+                return "Boolean";
+            case "int":
+                return "Integer";
+            case "long":
+                return "Long";
+            case "float":
+                return "Float";
+            default:
+                return typeName.replace("java.lang.", "").replace("java.util.", "");
+        }
+    }
+
+    /**
+     * Writes the method writing all pending values with a single {@code apply()}, as well as its scheduling.
+     */
+    private void writeFlush() throws IOException {
+        mWriter.emitEmptyLine()
+                .emitJavadoc("Writes the values buffered by the setters with a single {@code apply()}.\n" +
+                        "Gets called {@value #%1$s} milliseconds after the last call to a setter.", FLUSH_DELAY)
+                .emitAnnotation(SuppressWarnings.class, "\"unchecked\"")
+                .beginMethod("void", "flush", Modifier.PUBLIC)
+                .beginControlFlow("synchronized (%1$s)", PENDING_VALUES)
+                .beginControlFlow("if (%1$s.isEmpty())", PENDING_VALUES)
+                .emitStatement("return")
+                .endControlFlow()
+                .emitStatement("Map<String, Object> values = new HashMap<String, Object>(%1$s)", PENDING_VALUES)
+                .emitStatement("PreferenceStore.Editor editor = %1$s.edit()", PREFERENCES)
+                .beginControlFlow("for (Map.Entry<String, Object> entry : values.entrySet())")
+                .emitStatement("final Object value = entry.getValue()")
+                .beginControlFlow("if (value == %1$s)", REMOVED)
+                .emitStatement("editor.remove(entry.getKey())");
+        for (PreferenceType type : PreferenceType.values()) {
+            // encoded values are buffered as their String, enums as their id
+            if (type.isEncoded() || type == PreferenceType.ENUM)
+                continue;
+            final String boxed = boxedTypeName(type.getReturnType());
+            mWriter.nextControlFlow("else if (value instanceof %1$s)", type == PreferenceType.STRING_SET ? "Set" : boxed)
+                    .emitStatement("editor.put%1$s(entry.getKey(), (%2$s) value)", type.getFullName(), boxed);
+        }
+        mWriter.endControlFlow()
+                .endControlFlow()
+                .emitStatement("final long start = PreferenceMetrics.startTime()")
+                .emitStatement("editor.apply()")
+                .beginControlFlow("if (PreferenceMetrics.ENABLED)")
+                .emitStatement("PreferenceMetrics.reportApply(%1$s, start)", METRICS_NAME)
+                .endControlFlow()
+                .emitSingleLineComment("values set meanwhile stay pending")
+                .beginControlFlow("for (Map.Entry<String, Object> entry : values.entrySet())")
+                .emitStatement("%1$s.remove(entry.getKey(), entry.getValue())", PENDING_VALUES)
+                .endControlFlow()
+                .endControlFlow()
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .beginMethod("void", SCHEDULE_FLUSH, Modifier.PRIVATE)
+                .emitStatement("%1$s.removeCallbacks(%2$s)", FLUSH_HANDLER, FLUSH_TASK)
+                .emitStatement("%1$s.postDelayed(%2$s, %3$s)", FLUSH_HANDLER, FLUSH_TASK, FLUSH_DELAY)
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .beginType(FLUSH_TASK_CLASS, "class", Modifier.PRIVATE_FINAL, null, "Runnable")
+                .emitEmptyLine()
+                .emitAnnotation(Override.class)
+                .beginMethod("void", "run", Modifier.PUBLIC)
+                .emitStatement("flush()")
+                .endMethod()
+                .endType();
+    }
+
+    /**
+     * Writes the fields of an editor tracking the keys it changes.
+     */
+    private void writeTrackingEditorFields() throws IOException {
+        mWriter.emitJavadoc(mSkipUnchanged
+                ? "The preferences to compare new values with, {@code null} if the editor does not skip writes."
+                : "The preferences to invalidate the cached values of, {@code null} if the editor was not created by them.")
+                .emitField(mClassName, EDITOR_PREFERENCES, Modifier.PRIVATE_FINAL);
+        if (mSkipUnchanged)
+            mWriter.emitField("boolean", EDITOR_CHANGED, Modifier.PRIVATE);
+        mWriter.emitField("boolean", EDITOR_CLEARED, Modifier.PRIVATE)
+                .emitField("Set<String>", EDITOR_KEYS, Modifier.PRIVATE);
+    }
+
+    /**
+     * Writes the constructor and the helpers of an editor tracking the keys it changes.
+     */
+    private void writeTrackingEditorMethods() throws IOException {
+        mWriter.emitEmptyLine()
+                .beginConstructor(Modifier.PRIVATE, "PreferenceStore.Editor", PAR_EDITOR, "String", PAR_NAME,
+                        mClassName, "preferences")
+                .emitStatement("this.%1$s = %2$s", EDITOR, PAR_EDITOR)
+                .emitStatement("this.%1$s = %2$s", METRICS_NAME, PAR_NAME)
+                .emitStatement("this.%1$s = preferences", EDITOR_PREFERENCES)
+                .endConstructor()
+                .emitEmptyLine();
+
+        if (mSkipUnchanged)
+            mWriter.emitJavadoc("A value can not be skipped if the key was already changed by this editor, or it got cleared.")
+                    .beginMethod("boolean", IS_SKIPPABLE, Modifier.PRIVATE, "String", "key")
+                    .emitStatement("return %1$s != null && !%2$s && (%3$s == null || !%3$s.contains(key))",
+                            EDITOR_PREFERENCES, EDITOR_CLEARED, EDITOR_KEYS)
+                    .endMethod()
+                    .emitEmptyLine();
+
+        mWriter.emitJavadoc(mSkipUnchanged ? "Marks the key as changed, so apply() and commit() have to write."
+                : "Marks the key as changed, so apply() and commit() invalidate its cached value.")
+                .beginMethod("void", ON_CHANGE, Modifier.PRIVATE, "String", "key");
+        if (mSkipUnchanged)
+            mWriter.emitStatement("%1$s = true", EDITOR_CHANGED);
+        mWriter.beginControlFlow("if (%1$s == null)", EDITOR_KEYS)
+                .emitStatement("%1$s = new HashSet<String>()", EDITOR_KEYS)
+                .endControlFlow()
+                .emitStatement("%1$s.add(key)", EDITOR_KEYS)
+                .endMethod();
+    }
+
+    /**
+     * Editors track the changes made by the wrapped methods. Editors skipping unchanged values do not
+     * write if there are none.
+     */
+    private void emitChangeTracking(MethodTemplate method) throws IOException {
+        switch (method.name) {
+            case "clear":
+                if (mSkipUnchanged)
+                    mWriter.emitStatement("%1$s = true", EDITOR_CHANGED);
+                mWriter.emitStatement("%1$s = true", EDITOR_CLEARED);
+                break;
+            case "apply":
+            case "commit":
+                // the keys are reset after the write
+                if (mSkipUnchanged)
+                    mWriter.beginControlFlow("if (!%1$s)", EDITOR_CHANGED)
+                            .emitStatement(method.returnClass.equals(boolean.class) ? "return true" : "return")
+                            .endControlFlow()
+                            .emitStatement("%1$s = false", EDITOR_CHANGED);
+                break;
+            default:
+                // put or remove
+                mWriter.emitStatement("%1$s(%2$s)", ON_CHANGE, method.getParameterName(0));
+        }
+    }
+
+    private void wrapEditorInterface(Set<javax.lang.model.element.Modifier> modifiersPublic, String editor, String wrappedElement, List<MethodTemplate> methods) throws IOException {
+        for (MethodTemplate method : methods) {
             mWriter.emitEmptyLine().emitAnnotation(Override.class);
-            boolean isCustomWrapperNeeded = method.getReturnType().equals(SharedPreferences.Editor.class);
+            boolean isCustomWrapperNeeded = method.returnClass.equals(SharedPreferences.Editor.class);
             final String params = beginMethod(modifiersPublic, editor, method, isCustomWrapperNeeded);
 
-            if (method.getReturnType().equals(boolean.class))
-                mWriter.emitStatement("return %1$s.%2$s(%3$s)", wrappedElement, method.getName(), params);
+            if (mTrackEditorKeys)
+                emitChangeTracking(method);
+            if (method.name.equals("apply") || method.name.equals("commit")) {
+                emitTimedWrite(method, wrappedElement);
+                continue;
+            }
+            if (method.name.startsWith("put") || method.name.equals("remove"))
+                mWriter.beginControlFlow("if (PreferenceMetrics.ENABLED)")
+                        .emitStatement("PreferenceMetrics.reportWrite(%1$s, %2$s)", METRICS_NAME, method.getParameterName(0))
+                        .endControlFlow();
+            if (method.returnClass.equals(boolean.class))
+                mWriter.emitStatement("return %1$s.%2$s(%3$s)", wrappedElement, method.name, params);
             else {
-                mWriter.emitStatement("%1$s.%2$s(%3$s)", wrappedElement, method.getName(), params);
-                if (!method.getReturnType().equals(void.class))
+                mWriter.emitStatement("%1$s.%2$s(%3$s)", wrappedElement, method.name, params);
+                if (!method.returnClass.equals(void.class))
                     mWriter.emitStatement("return this");
             }
             mWriter.endMethod();
         }
     }
 
-    private String beginMethod(Set<javax.lang.model.element.Modifier> modifiersPublic, String editor, Method method, boolean isCustomWrapperNeeded) throws IOException {
-        String params = "";
-        final String retType = isCustomWrapperNeeded ?
-                editor : method.getGenericReturnType().getTypeName().replace('$', '.');
-        if (method.getParameterCount() > 0) {
-            String[] parameters = new String[method.getParameterCount() * 2];
-            for (int i = 0; i < method.getParameterCount(); i++) {
-                parameters[2 * i] = method.getGenericParameterTypes()[i].getTypeName().replace('$', '.');
-                parameters[2 * i + 1] = method.getParameters()[i].getName();
-                if (i > 0)
-                    params += ", ";
-                params += parameters[2 * i + 1];
-            }
-            mWriter.beginMethod(retType, method.getName(), modifiersPublic, parameters);
-        } else {
-            mWriter.beginMethod(retType, method.getName(), modifiersPublic);
-        }
-        return params;
+    /**
+     * Writes {@code apply()} or {@code commit()}, reporting the time they blocked to the metrics.
+     */
+    private void emitTimedWrite(MethodTemplate method, String wrappedElement) throws IOException {
+        final String report = method.name.equals("apply") ? "reportApply" : "reportCommit";
+        mWriter.emitStatement("final long start = PreferenceMetrics.startTime()");
+        if (method.returnClass.equals(boolean.class))
+            mWriter.emitStatement("final boolean result = %1$s.%2$s()", wrappedElement, method.name);
+        else
+            mWriter.emitStatement("%1$s.%2$s()", wrappedElement, method.name);
+        mWriter.beginControlFlow("if (PreferenceMetrics.ENABLED)")
+                .emitStatement("PreferenceMetrics.%1$s(%2$s, start)", report, METRICS_NAME)
+                .endControlFlow();
+        if (mCacheValues)
+            // the listeners of the store may be notified later, e.g. on the main thread
+            mWriter.beginControlFlow("if (%1$s != null)", EDITOR_PREFERENCES)
+                    .emitStatement("%1$s.%2$s(%3$s, %4$s)", EDITOR_PREFERENCES, INVALIDATE_CACHE, EDITOR_CLEARED, EDITOR_KEYS)
+                    .endControlFlow();
+        if (mTrackEditorKeys)
+            mWriter.emitStatement("%1$s = false", EDITOR_CLEARED)
+                    .emitStatement("%1$s = null", EDITOR_KEYS);
+        if (method.returnClass.equals(boolean.class))
+            mWriter.emitStatement("return result");
+        mWriter.endMethod();
+    }
+
+    private String beginMethod(Set<javax.lang.model.element.Modifier> modifiersPublic, String editor, MethodTemplate method, boolean isCustomWrapperNeeded) throws IOException {
+        final String retType = isCustomWrapperNeeded ? editor : method.returnType;
+        mWriter.beginMethod(retType, method.name, modifiersPublic, method.parameters);
+        return method.arguments;
     }
 
-    private static boolean checkValidIdentifier(String identifier) {
+    static boolean checkValidIdentifier(String identifier) {
         for (String part : identifier.split("\\.")) {
             if (part.length() == 0)
                 return false;
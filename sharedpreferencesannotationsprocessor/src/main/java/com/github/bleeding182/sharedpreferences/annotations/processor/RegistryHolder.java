@@ -0,0 +1,298 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.github.bleeding182.sharedpreferences.store.GroupedPreferenceStore;
+import com.squareup.javawriter.JavaWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+import javax.tools.JavaFileObject;
+
+/**
+ * Writes the registry of all classes generated in a compilation, to warm up their files and to
+ * share their instances.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+class RegistryHolder {
+    private final static String PAR_CONTEXT = "ctx";
+    private final static String PAR_TYPE = "type";
+    private final static String PAR_NAME = "name";
+    private final static String PAR_EXECUTOR = "executor";
+
+    private static final String NAMES = "PREFERENCE_NAMES";
+    private static final String INSTANCES = "sInstances";
+    private static final String WARM_UP_TASK_CLASS = "WarmUpTask";
+
+    private final JavaWriter mWriter;
+    private final String mPackageName;
+    private final String mClassName;
+    private final List<PreferenceHolder> mHolders;
+
+    /**
+     * @param qualifiedName the fully qualified name of the registry class
+     * @param holders       the generated classes to register
+     * @param filer         the filer to create the source file with
+     * @throws IOException if the name is invalid or the file can not be created
+     */
+    RegistryHolder(String qualifiedName, List<PreferenceHolder> holders, Filer filer) throws IOException {
+        final int index = qualifiedName.lastIndexOf('.');
+        mPackageName = index < 0 ? "" : qualifiedName.substring(0, index);
+        mClassName = qualifiedName.substring(index + 1);
+        if (mPackageName.isEmpty() || !PreferenceHolder.checkValidIdentifier(qualifiedName))
+            throw new IOException(qualifiedName + " is not a valid class name for the registry");
+        // sorted, so the registry does not depend on the order of the rounds
+        mHolders = new ArrayList<>(holders);
+        Collections.sort(mHolders, new Comparator<PreferenceHolder>() {
+            @Override
+            public int compare(PreferenceHolder a, PreferenceHolder b) {
+                return a.getQualifiedClassName().compareTo(b.getQualifiedClassName());
+            }
+        });
+
+        // aggregates all annotated interfaces
+        Element[] originatingElements = new Element[holders.size()];
+        for (int i = 0; i < mHolders.size(); i++) {
+            originatingElements[i] = mHolders.get(i).getElement();
+        }
+        JavaFileObject jfo = filer.createSourceFile(qualifiedName, originatingElements);
+        mWriter = new JavaWriter(jfo.openWriter());
+    }
+
+    void write() throws IOException {
+        mWriter.setIndent("    ");
+        mWriter.emitPackage(mPackageName)
+                .emitSingleLineComment("generated code, do not modify")
+                .emitSingleLineComment("for more information see https://github.com/bleeding182/sharedpreferences-annotations")
+                .emitEmptyLine()
+                .emitImports(Context.class, SharedPreferences.class)
+                .emitEmptyLine()
+                .emitImports(GroupedPreferenceStore.class.getName())
+                .emitEmptyLine();
+        // classes sharing a simple name are referenced by their qualified name
+        Map<String, Integer> simpleNames = new HashMap<>();
+        for (PreferenceHolder holder : mHolders) {
+            final String simpleName = holder.getQualifiedClassName().substring(holder.getQualifiedClassName().lastIndexOf('.') + 1);
+            final Integer count = simpleNames.get(simpleName);
+            simpleNames.put(simpleName, count == null ? 1 : count + 1);
+        }
+        List<String> imports = new ArrayList<>();
+        for (PreferenceHolder holder : mHolders) {
+            final String name = holder.getQualifiedClassName();
+            if (simpleNames.get(name.substring(name.lastIndexOf('.') + 1)) == 1
+                    && !name.substring(0, name.lastIndexOf('.')).equals(mPackageName))
+                imports.add(name);
+        }
+        Collections.sort(imports);
+        if (!imports.isEmpty())
+            mWriter.emitImports(imports).emitEmptyLine();
+        mWriter.emitImports(ArrayList.class.getName(), Collections.class.getName(), LinkedHashMap.class.getName(),
+                List.class.getName(), Map.class.getName(), WeakHashMap.class.getName(), Callable.class.getName(),
+                ConcurrentHashMap.class.getName(), Executor.class.getName(), Future.class.getName(),
+                FutureTask.class.getName())
+                .emitEmptyLine()
+                .emitJavadoc("<p>Registry of all classes generated for interfaces annotated with {@code @SharedPreference}.</p>\n" +
+                        "<p>{@link #warmUpAll(Context, Executor)} loads the files of all of them in parallel, and\n" +
+                        "{@link #get(Context, Class)} returns a single instance per class and file name.</p>")
+                .beginType(mClassName, "class", Modifier.PUBLIC_FINAL)
+                .emitEmptyLine();
+
+        mWriter.emitJavadoc("The name of the default preference file of every registered class.")
+                .emitField("Map<Class<?>, String>", NAMES, Modifier.PUBLIC_FINAL_STATIC)
+                .emitEmptyLine()
+                .emitJavadoc("The instances by class and file name, for every application context.")
+                .emitField("Map<Context, Map<Class<?>, ConcurrentHashMap<String, Object>>>", INSTANCES, Modifier.PRIVATE_FINAL_STATIC,
+                        "new WeakHashMap<Context, Map<Class<?>, ConcurrentHashMap<String, Object>>>()")
+                .emitEmptyLine();
+
+        mWriter.beginInitializer(true)
+                .emitStatement("Map<Class<?>, String> names = new LinkedHashMap<Class<?>, String>()");
+        for (PreferenceHolder holder : mHolders) {
+            final String type = mWriter.compressType(holder.getQualifiedClassName());
+            mWriter.emitStatement("names.put(%1$s.class, %1$s.PREFERENCES_NAME)", type);
+        }
+        mWriter.emitStatement("%1$s = Collections.unmodifiableMap(names)", NAMES)
+                .endInitializer()
+                .emitEmptyLine()
+                .beginConstructor(Modifier.PRIVATE)
+                .endConstructor();
+
+        writeWarmUp();
+        writeGet();
+        writeCreate();
+        writeWarmUpTask();
+
+        mWriter.endType();
+        mWriter.close();
+    }
+
+    private void writeWarmUp() throws IOException {
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Opens the preference files of all registered classes on the executor, one task per class.</p>\n" +
+                                "The tasks complete once the files are loaded, including the ones of all groups, and the\n" +
+                                "instances returned by {@link #get(Context, Class)} won't block.\n\n" +
+                                "@param %1$s the context to use\n" +
+                                "@param %2$s the executor to load the files on, in parallel if it has multiple threads\n" +
+                                "@return the futures of the tasks, in the order of {@link #%3$s}",
+                        PAR_CONTEXT, PAR_EXECUTOR, NAMES)
+                .beginMethod("List<Future<?>>", "warmUpAll", Modifier.PUBLIC_STATIC,
+                        "Context", PAR_CONTEXT, "Executor", PAR_EXECUTOR)
+                .emitStatement("final Context context = %1$s.getApplicationContext()", PAR_CONTEXT)
+                .emitStatement("List<Future<?>> futures = new ArrayList<Future<?>>(%1$s.size())", NAMES)
+                .beginControlFlow("for (Class<?> type : %1$s.keySet())", NAMES)
+                .emitStatement("FutureTask<Object> task = new FutureTask<Object>(new %1$s(context, type))", WARM_UP_TASK_CLASS)
+                .emitStatement("%1$s.execute(task)", PAR_EXECUTOR)
+                .emitStatement("futures.add(task)")
+                .endControlFlow()
+                .emitStatement("return futures")
+                .endMethod();
+    }
+
+    private void writeGet() throws IOException {
+        mWriter.emitEmptyLine()
+                .emitJavadoc("Returns the instance of a class opening its default preference file.\n\n" +
+                                "@param %1$s  the context to use\n" +
+                                "@param %2$s the generated class\n" +
+                                "@param <T>  the type of the class\n" +
+                                "@return the instance, created on first use\n" +
+                                "@throws IllegalArgumentException if the class is not registered",
+                        PAR_CONTEXT, PAR_TYPE)
+                .beginMethod("<T> T", "get", Modifier.PUBLIC_STATIC, "Context", PAR_CONTEXT, "Class<T>", PAR_TYPE)
+                .emitStatement("return get(%1$s, %2$s, %3$s.get(%2$s))", PAR_CONTEXT, PAR_TYPE, NAMES)
+                .endMethod();
+
+        mWriter.emitEmptyLine()
+                .emitJavadoc("<p>Returns the instance of a class opening the preference file with the supplied name.</p>\n" +
+                                "Instances are kept for every application context, so repeated calls neither open the\n" +
+                                "preferences nor create a wrapper again.\n\n" +
+                                "@param %1$s  the context to use\n" +
+                                "@param %2$s the generated class\n" +
+                                "@param %3$s the name of the preferences file\n" +
+                                "@param <T>  the type of the class\n" +
+                                "@return the instance, created on first use\n" +
+                                "@throws IllegalArgumentException if the class is not registered",
+                        PAR_CONTEXT, PAR_TYPE, PAR_NAME)
+                .beginMethod("<T> T", "get", Modifier.PUBLIC_STATIC, "Context", PAR_CONTEXT, "Class<T>", PAR_TYPE,
+                        "String", PAR_NAME)
+                .beginControlFlow("if (!%1$s.containsKey(%2$s))", NAMES, PAR_TYPE)
+                .emitStatement("throw new IllegalArgumentException(%1$s + \" is not a registered preferences class\")", PAR_TYPE)
+                .endControlFlow()
+                .emitStatement("final Context context = %1$s.getApplicationContext()", PAR_CONTEXT)
+                .emitStatement("ConcurrentHashMap<String, Object> instances")
+                .beginControlFlow("synchronized (%1$s)", INSTANCES)
+                .emitStatement("Map<Class<?>, ConcurrentHashMap<String, Object>> types = %1$s.get(context)", INSTANCES)
+                .beginControlFlow("if (types == null)")
+                .emitStatement("types = new LinkedHashMap<Class<?>, ConcurrentHashMap<String, Object>>()")
+                .emitStatement("%1$s.put(context, types)", INSTANCES)
+                .endControlFlow()
+                .emitStatement("instances = types.get(%1$s)", PAR_TYPE)
+                .beginControlFlow("if (instances == null)")
+                .emitStatement("instances = new ConcurrentHashMap<String, Object>()")
+                .emitStatement("types.put(%1$s, instances)", PAR_TYPE)
+                .endControlFlow()
+                .endControlFlow()
+                .emitStatement("Object instance = instances.get(%1$s)", PAR_NAME)
+                .beginControlFlow("if (instance == null)")
+                .beginControlFlow("synchronized (instances)")
+                .emitStatement("instance = instances.get(%1$s)", PAR_NAME)
+                .beginControlFlow("if (instance == null)")
+                .emitStatement("instance = create(context, %1$s, %2$s)", PAR_TYPE, PAR_NAME)
+                .emitStatement("instances.put(%1$s, instance)", PAR_NAME)
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .emitStatement("return %1$s.cast(instance)", PAR_TYPE)
+                .endMethod();
+    }
+
+    private void writeCreate() throws IOException {
+        mWriter.emitEmptyLine()
+                .beginMethod("Object", "create", Modifier.PRIVATE_STATIC, "Context", PAR_CONTEXT,
+                        "Class<?>", PAR_TYPE, "String", PAR_NAME);
+        for (PreferenceHolder holder : mHolders) {
+            final String type = mWriter.compressType(holder.getQualifiedClassName());
+            mWriter.beginControlFlow("if (%1$s == %2$s.class)", PAR_TYPE, type)
+                    .emitStatement("return new %1$s(%2$s, %3$s)", type, PAR_CONTEXT, PAR_NAME)
+                    .endControlFlow();
+        }
+        mWriter.emitStatement("throw new IllegalArgumentException(%1$s + \" is not a registered preferences class\")", PAR_TYPE)
+                .endMethod();
+    }
+
+    private void writeWarmUpTask() throws IOException {
+        mWriter.emitEmptyLine()
+                .beginType(WARM_UP_TASK_CLASS, "class", Modifier.PRIVATE_FINAL_STATIC, null, "Callable<Object>")
+                .emitField("Context", "mContext", Modifier.PRIVATE_FINAL)
+                .emitField("Class<?>", "mType", Modifier.PRIVATE_FINAL)
+                .emitEmptyLine()
+                .beginConstructor(Collections.<javax.lang.model.element.Modifier>emptySet(),
+                        "Context", "context", "Class<?>", PAR_TYPE)
+                .emitStatement("mContext = context")
+                .emitStatement("mType = %1$s", PAR_TYPE)
+                .endConstructor()
+                .emitEmptyLine()
+                .emitAnnotation(Override.class)
+                .beginMethod("Object", "call", Modifier.PUBLIC)
+                .emitStatement("Object instance = get(mContext, mType)");
+        for (PreferenceHolder holder : mHolders) {
+            if (!holder.isGrouped())
+                continue;
+            final String type = mWriter.compressType(holder.getQualifiedClassName());
+            mWriter.beginControlFlow("if (instance instanceof %1$s)", type)
+                    .emitStatement("GroupedPreferenceStore store = (GroupedPreferenceStore) ((%1$s) instance).getPreferenceStore()", type)
+                    .beginControlFlow("for (String group : store.getLayout().getGroups())")
+                    .emitSingleLineComment("any read blocks until the file is loaded")
+                    .emitStatement("store.getGroup(group).contains(group)")
+                    .endControlFlow()
+                    .emitStatement("return instance")
+                    .endControlFlow();
+        }
+        mWriter.emitSingleLineComment("any read blocks until the file is loaded")
+                .emitStatement("((SharedPreferences) instance).contains(%1$s.get(mType))", NAMES)
+                .emitStatement("return instance")
+                .endMethod()
+                .endType();
+    }
+}
@@ -24,12 +24,19 @@
 
 package com.github.bleeding182.sharedpreferences.annotations.processor;
 
+import android.content.SharedPreferences;
+
 import com.github.bleeding182.sharedpreferences.annotations.SharedPreference;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
 import javax.annotation.processing.SupportedSourceVersion;
@@ -40,13 +47,54 @@ import javax.tools.Diagnostic;
 
 
 /**
- * This class defines the annotation processor called by the apt tool.
- * It will verify that it is in fact an interface, then it will call the Helper class.
+ * <p>This class defines the annotation processor called by the apt tool.
+ * It will verify that it is in fact an interface, then it will call the Helper class.</p>
+ * <p>If the option {@value #OPTION_REGISTRY} is set to a fully qualified class name, a registry of all
+ * generated classes is written with this name. The processor is isolating without it, and aggregating
+ * with it for incremental builds with gradle.</p>
  */
 @SupportedAnnotationTypes("com.github.bleeding182.sharedpreferences.annotations.SharedPreference")
 @SupportedSourceVersion(SourceVersion.RELEASE_7)
 public class SharedPreferencesAnnotationProcessor extends AbstractProcessor {
 
+    /**
+     * The option to set the fully qualified name of the registry to generate.
+     */
+    public static final String OPTION_REGISTRY = "sharedpreferences.registry";
+
+    private static final String GRADLE_ISOLATING = "org.gradle.annotation.processing.isolating";
+    private static final String GRADLE_AGGREGATING = "org.gradle.annotation.processing.aggregating";
+
+    /**
+     * The methods wrapped by every generated class, resolved once for all annotated interfaces.
+     */
+    private List<MethodTemplate> mPreferencesMethods;
+    private List<MethodTemplate> mEditorMethods;
+
+    /**
+     * The classes generated so far, to be written to the registry.
+     */
+    private final List<PreferenceHolder> mHolders = new ArrayList<>();
+    private String mRegistry;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        mPreferencesMethods = MethodTemplate.of(SharedPreferences.class);
+        mEditorMethods = MethodTemplate.of(SharedPreferences.Editor.class);
+        mRegistry = processingEnv.getOptions().get(OPTION_REGISTRY);
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        Set<String> options = new LinkedHashSet<>();
+        options.add(OPTION_REGISTRY);
+        // the registry depends on all annotated interfaces
+        options.add(processingEnv != null && processingEnv.getOptions().containsKey(OPTION_REGISTRY)
+                ? GRADLE_AGGREGATING : GRADLE_ISOLATING);
+        return Collections.unmodifiableSet(options);
+    }
+
     /**
      * Process method called for every item annotated by {@link com.github.bleeding182.sharedpreferences.annotations.SharedPreference}.
      *
@@ -57,19 +105,33 @@ public class SharedPreferencesAnnotationProcessor extends AbstractProcessor {
     @Override
     public boolean process(Set<? extends TypeElement> annotations,
                            RoundEnvironment roundEnv) {
-        for (Element e : roundEnv.getElementsAnnotatedWith(SharedPreference.class)) {
+        Set<? extends Element> elements = roundEnv.getElementsAnnotatedWith(SharedPreference.class);
+        for (Element e : elements) {
             if (e.getKind().isField() || e.getKind().isClass()) {
                 processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Just interfaces annotated by @SharedPreference are supported.", e);
                 continue;
             }
             PreferenceHolder prefHolder;
             try {
-                prefHolder = new PreferenceHolder((TypeElement) e, processingEnv.getFiler(), processingEnv.getMessager());
+                prefHolder = new PreferenceHolder((TypeElement) e, processingEnv.getFiler(), processingEnv.getMessager(),
+                        mPreferencesMethods, mEditorMethods);
                 prefHolder.write();
+                mHolders.add(prefHolder);
             } catch (IOException ex) {
                 processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, ex.getMessage(), e);
             }
         }
+        // the generated classes trigger another round, which writes the registry
+        if (mRegistry != null && elements.isEmpty() && !mHolders.isEmpty() && !roundEnv.processingOver()) {
+            try {
+                new RegistryHolder(mRegistry, mHolders, processingEnv.getFiler()).write();
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, ex.getMessage());
+            }
+            // interfaces of later rounds can not be added anymore
+            mRegistry = null;
+            mHolders.clear();
+        }
         return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package android.content;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Stands in for the platform Context in tests, since the android jar only holds stubs that throw.</p>
+ * <p>Every file opened with {@link #getSharedPreferences(String, int)} is empty, and its name gets recorded.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    private final List<String> mOpenedFiles = Collections.synchronizedList(new ArrayList<String>());
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        mOpenedFiles.add(name);
+        return (SharedPreferences) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{SharedPreferences.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getAll"))
+                            return Collections.emptyMap();
+                        if (method.getReturnType() == boolean.class)
+                            return false;
+                        // the default value passed to a getter
+                        return args != null && args.length == 2 ? args[1] : null;
+                    }
+                });
+    }
+
+    /**
+     * @return the names of the opened files, in the order they were opened
+     */
+    public List<String> getOpenedFiles() {
+        synchronized (mOpenedFiles) {
+            return new ArrayList<>(mOpenedFiles);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package android.os;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Stands in for the platform Looper in tests, since the android jar only holds stubs that throw.</p>
+ * <p>Posted tasks are kept until the test runs them with {@link #runPending()}.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class Looper {
+
+    private static final Looper sMainLooper = new Looper();
+
+    private final List<Runnable> mQueue = new ArrayList<>();
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    synchronized void post(Runnable task) {
+        mQueue.add(task);
+    }
+
+    synchronized void remove(Runnable task) {
+        while (mQueue.remove(task)) {
+            // remove every posting of the task, like the platform does
+        }
+    }
+
+    /**
+     * Runs the posted tasks, ignoring their delays.
+     *
+     * @return the number of tasks run
+     */
+    public int runPending() {
+        final List<Runnable> tasks;
+        synchronized (this) {
+            tasks = new ArrayList<>(mQueue);
+            mQueue.clear();
+        }
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        return tasks.size();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that cached values read the changes of an editor right after {@code apply()} returns, while the
+ * listeners of the store are only notified later, like SharedPreferences does on the main thread.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class CacheInvalidationTest {
+
+    private static final String COUNTER = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceType;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "@SharedPreference(cacheValues = true)\n" +
+            "public interface Counter {\n" +
+            "    @Type(PreferenceType.INTEGER)\n" +
+            "    @DefaultValue(\"3\")\n" +
+            "    String COUNT = \"count\";\n" +
+            "    String NAME = \"name\";\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final ExecutorService mWorker = Executors.newSingleThreadExecutor();
+    private DeferredNotificationStore mStore;
+
+    @Before
+    public void setUp() {
+        mStore = new DeferredNotificationStore();
+    }
+
+    @After
+    public void tearDown() {
+        mWorker.shutdownNow();
+    }
+
+    @Test
+    public void editorSettersAreReadAfterApply() throws Exception {
+        final Object prefs = create(COUNTER);
+        // load the cached values
+        assertEquals(3, getCount(prefs));
+        assertEquals(5, (int) mWorker.submit(() -> {
+            Object editor = prefs.getClass().getMethod("edit").invoke(prefs);
+            editor = editor.getClass().getMethod("setCount", int.class).invoke(editor, 5);
+            editor.getClass().getMethod("apply").invoke(editor);
+            return getCount(prefs);
+        }).get());
+        assertEquals("name", mWorker.submit(() -> {
+            Object editor = prefs.getClass().getMethod("edit").invoke(prefs);
+            editor = editor.getClass().getMethod("setName", String.class).invoke(editor, "name");
+            editor.getClass().getMethod("commit").invoke(editor);
+            return getName(prefs);
+        }).get());
+
+        mStore.deliver();
+        assertEquals(5, getCount(prefs));
+    }
+
+    @Test
+    public void rawEditsAreReadAfterApply() throws Exception {
+        final Object prefs = create(COUNTER);
+        assertEquals(3, getCount(prefs));
+        assertEquals(7, (int) mWorker.submit(() -> {
+            Object editor = prefs.getClass().getMethod("edit").invoke(prefs);
+            editor = editor.getClass().getMethod("putInt", String.class, int.class).invoke(editor, "count", 7);
+            editor.getClass().getMethod("apply").invoke(editor);
+            return getCount(prefs);
+        }).get());
+        assertEquals(3, (int) mWorker.submit(() -> {
+            Object editor = prefs.getClass().getMethod("edit").invoke(prefs);
+            editor = editor.getClass().getMethod("remove", String.class).invoke(editor, "count");
+            editor.getClass().getMethod("apply").invoke(editor);
+            return getCount(prefs);
+        }).get());
+    }
+
+    @Test
+    public void clearIsReadAfterApply() throws Exception {
+        final Object prefs = create(COUNTER);
+        mStore.edit().putInt("count", 7).putString("name", "name").commit();
+        mStore.deliver();
+        assertEquals(7, getCount(prefs));
+        assertEquals("name", getName(prefs));
+
+        Object editor = prefs.getClass().getMethod("edit").invoke(prefs);
+        editor = editor.getClass().getMethod("clear").invoke(editor);
+        editor.getClass().getMethod("apply").invoke(editor);
+        assertEquals(3, getCount(prefs));
+        assertNull(getName(prefs));
+    }
+
+    @Test
+    public void skippingEditorsInvalidateToo() throws Exception {
+        final Object prefs = create(COUNTER.replace("cacheValues = true", "cacheValues = true, skipUnchangedWrites = true"));
+        assertEquals(3, getCount(prefs));
+        Object editor = prefs.getClass().getMethod("edit").invoke(prefs);
+        editor = editor.getClass().getMethod("setCount", int.class).invoke(editor, 3);
+        editor = editor.getClass().getMethod("putInt", String.class, int.class).invoke(editor, "count", 4);
+        editor.getClass().getMethod("apply").invoke(editor);
+        assertEquals(4, getCount(prefs));
+    }
+
+    private Object create(String source) throws Exception {
+        return new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Counter", source)
+                .compile()
+                .loadClass("com.example.CounterPrefs")
+                .getConstructor(PreferenceStore.class)
+                .newInstance(mStore);
+    }
+
+    private static int getCount(Object prefs) throws Exception {
+        return (Integer) prefs.getClass().getMethod("getCount").invoke(prefs);
+    }
+
+    private static String getName(Object prefs) throws Exception {
+        return (String) prefs.getClass().getMethod("getName", String.class).invoke(prefs, (Object) null);
+    }
+
+    /**
+     * Keeps the changes until the test delivers them to the listeners.
+     */
+    private static class DeferredNotificationStore extends InMemoryPreferenceStore {
+        private final List<List<String>> mPending = new ArrayList<>();
+
+        @Override
+        protected void notifyListeners(List<String> changedKeys) {
+            synchronized (mPending) {
+                mPending.add(new ArrayList<>(changedKeys));
+            }
+        }
+
+        void deliver() {
+            final List<List<String>> pending;
+            synchronized (mPending) {
+                pending = new ArrayList<>(mPending);
+                mPending.clear();
+            }
+            for (List<String> changedKeys : pending) {
+                super.notifyListeners(changedKeys);
+            }
+        }
+    }
+}
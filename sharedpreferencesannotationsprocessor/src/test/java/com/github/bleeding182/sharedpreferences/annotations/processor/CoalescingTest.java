@@ -0,0 +1,190 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import android.os.Looper;
+
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@code WritePolicy.COALESCE} buffers the values of the setters, which are read before they get
+ * written with a single {@code apply()}.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class CoalescingTest {
+
+    private static final String COUNTER = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceType;\n" +
+            "import com.github.bleeding182.sharedpreferences.WritePolicy;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "@SharedPreference(writePolicy = WritePolicy.COALESCE)\n" +
+            "public interface Counter {\n" +
+            "    @Type(PreferenceType.INTEGER)\n" +
+            "    @DefaultValue(\"3\")\n" +
+            "    String COUNT = \"count\";\n" +
+            "    String NAME = \"name\";\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final Looper mLooper = Looper.getMainLooper();
+    private CountingStore mStore;
+    private Object mPrefs;
+
+    @Before
+    public void setUp() throws Exception {
+        // flushes left over by another test
+        mLooper.runPending();
+        mStore = new CountingStore();
+        mStore.edit().putString("name", "david").commit();
+        mStore.mWrites = 0;
+        mPrefs = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Counter", COUNTER)
+                .compile()
+                .loadClass("com.example.CounterPrefs")
+                .getConstructor(PreferenceStore.class)
+                .newInstance(mStore);
+    }
+
+    @Test
+    public void pendingValuesAreRead() throws Exception {
+        setCount(5);
+        setName(null);
+        assertEquals(0, mStore.mWrites);
+        assertEquals(5, getCount());
+        assertNull(getName());
+        assertTrue(contains("count"));
+        assertFalse(contains("name"));
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("count", 5);
+        assertEquals(expected, mPrefs.getClass().getMethod("getAll").invoke(mPrefs));
+
+        assertEquals(1, mLooper.runPending());
+        assertEquals(1, mStore.mWrites);
+        assertEquals(expected, mStore.getAll());
+    }
+
+    @Test
+    public void settersAreWrittenOnce() throws Exception {
+        setCount(1);
+        setCount(2);
+        setName("medenjak");
+        // every setter replaces the scheduled flush
+        assertEquals(1, mLooper.runPending());
+        assertEquals(1, mStore.mWrites);
+        assertEquals(2, mStore.getInt("count", 0));
+        assertEquals("medenjak", mStore.getString("name", null));
+    }
+
+    @Test
+    public void editFlushesFirst() throws Exception {
+        setCount(5);
+        Object editor = mPrefs.getClass().getMethod("edit").invoke(mPrefs);
+        editor = editor.getClass().getMethod("putInt", String.class, int.class).invoke(editor, "count", 6);
+        editor.getClass().getMethod("apply").invoke(editor);
+        assertEquals(2, mStore.mWrites);
+        assertEquals(6, mStore.getInt("count", 0));
+
+        // nothing left to write
+        mLooper.runPending();
+        assertEquals(2, mStore.mWrites);
+        assertEquals(6, getCount());
+    }
+
+    @Test
+    public void valuesSetDuringFlushStayPending() throws Exception {
+        setCount(5);
+        mStore.mOnWrite = () -> setCount(9);
+        mPrefs.getClass().getMethod("flush").invoke(mPrefs);
+        assertEquals(5, mStore.getInt("count", 0));
+        assertEquals(9, getCount());
+
+        mLooper.runPending();
+        assertEquals(9, mStore.getInt("count", 0));
+        assertEquals(2, mStore.mWrites);
+    }
+
+    private void setCount(int count) {
+        try {
+            mPrefs.getClass().getMethod("setCount", int.class).invoke(mPrefs, count);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void setName(String name) throws Exception {
+        mPrefs.getClass().getMethod("setName", String.class).invoke(mPrefs, name);
+    }
+
+    private int getCount() throws Exception {
+        return (Integer) mPrefs.getClass().getMethod("getCount").invoke(mPrefs);
+    }
+
+    private String getName() throws Exception {
+        return (String) mPrefs.getClass().getMethod("getName", String.class).invoke(mPrefs, (Object) null);
+    }
+
+    private boolean contains(String key) throws Exception {
+        return (Boolean) mPrefs.getClass().getMethod("contains", String.class).invoke(mPrefs, key);
+    }
+
+    /**
+     * Counts how often its values are written, and runs a task once during the next write.
+     */
+    private static class CountingStore extends InMemoryPreferenceStore {
+        int mWrites;
+        Runnable mOnWrite;
+
+        @Override
+        protected boolean write(boolean clear, Map<String, Object> changes, boolean commit, List<String> changedKeys) {
+            mWrites++;
+            final boolean result = super.write(clear, changes, commit, changedKeys);
+            if (mOnWrite != null) {
+                Runnable task = mOnWrite;
+                mOnWrite = null;
+                task.run();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the generated accessors of converted preferences only decode a value again once the stored String
+ * changes.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class ConverterPreferenceTest {
+
+    private static final String POINT = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceConverter;\n" +
+            "public final class Point {\n" +
+            "    public final int x, y;\n" +
+            "    public Point(int x, int y) { this.x = x; this.y = y; }\n" +
+            "    @Override public boolean equals(Object o) {\n" +
+            "        return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;\n" +
+            "    }\n" +
+            "    @Override public int hashCode() { return x * 31 + y; }\n" +
+            "    public static class Converter implements PreferenceConverter<Point> {\n" +
+            "        public static int decoded;\n" +
+            "        public String encode(Point value) { return value.x + \",\" + value.y; }\n" +
+            "        public Point decode(String value) {\n" +
+            "            decoded++;\n" +
+            "            String[] parts = value.split(\",\");\n" +
+            "            return new Point(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String SHAPE = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceType;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "@SharedPreference\n" +
+            "public interface Shape {\n" +
+            "    @Type(value = PreferenceType.CONVERTED, converter = Point.Converter.class)\n" +
+            "    String ORIGIN = \"origin\";\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ClassLoader mClassLoader;
+    private InMemoryPreferenceStore mStore;
+    private Object mPrefs;
+
+    @Before
+    public void setUp() throws Exception {
+        mClassLoader = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Point", POINT)
+                .write("com.example.Shape", SHAPE)
+                .compile();
+        mStore = new InMemoryPreferenceStore();
+        mPrefs = mClassLoader.loadClass("com.example.ShapePrefs").getConstructor(PreferenceStore.class)
+                .newInstance(mStore);
+    }
+
+    @Test
+    public void valueIsStoredEncoded() throws Exception {
+        setOrigin(point(3, 4));
+        assertEquals("3,4", mStore.getString("origin", null));
+        assertEquals(point(3, 4), getOrigin());
+    }
+
+    @Test
+    public void repeatedReadsDecodeOnce() throws Exception {
+        mStore.edit().putString("origin", "1,2").commit();
+        final Object origin = getOrigin();
+        assertEquals(point(1, 2), origin);
+        assertEquals(1, decoded());
+        for (int i = 0; i < 10; i++) {
+            assertSame(origin, getOrigin());
+        }
+        assertEquals(1, decoded());
+    }
+
+    @Test
+    public void changedStringIsDecodedAgain() throws Exception {
+        mStore.edit().putString("origin", "1,2").commit();
+        final Object origin = getOrigin();
+        mStore.edit().putString("origin", "5,6").commit();
+        assertEquals(point(5, 6), getOrigin());
+        assertEquals(2, decoded());
+        assertEquals(point(5, 6), getOrigin());
+        assertEquals(2, decoded());
+
+        mStore.edit().putString("origin", "1,2").commit();
+        assertEquals(origin, getOrigin());
+        assertEquals(3, decoded());
+    }
+
+    @Test
+    public void missingValueReadsAsDefault() throws Exception {
+        final Object fallback = point(0, 0);
+        assertSame(fallback, getOrigin(fallback));
+        assertNull(getOrigin());
+        assertEquals(0, decoded());
+    }
+
+    @Test
+    public void converterNeedsConstructorWithoutParameters() throws Exception {
+        List<String> errors = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Point", POINT.replace("implements PreferenceConverter<Point> {\n",
+                        "implements PreferenceConverter<Point> {\n        public Converter(int unused) { }\n"))
+                .write("com.example.Shape", SHAPE)
+                .errors();
+        assertEquals(errors.toString(), 1, errors.size());
+        assertTrue(errors.get(0), errors.get(0).contains("needs a public constructor without parameters"));
+    }
+
+    private Object point(int x, int y) throws Exception {
+        return mClassLoader.loadClass("com.example.Point").getConstructor(int.class, int.class).newInstance(x, y);
+    }
+
+    private int decoded() throws Exception {
+        return mClassLoader.loadClass("com.example.Point$Converter").getField("decoded").getInt(null);
+    }
+
+    private Object getOrigin() throws Exception {
+        return getOrigin(null);
+    }
+
+    private Object getOrigin(Object defaultValue) throws Exception {
+        return mPrefs.getClass().getMethod("getOrigin", mClassLoader.loadClass("com.example.Point"))
+                .invoke(mPrefs, defaultValue);
+    }
+
+    private void setOrigin(Object value) throws Exception {
+        mPrefs.getClass().getMethod("setOrigin", mClassLoader.loadClass("com.example.Point")).invoke(mPrefs, value);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import com.github.bleeding182.sharedpreferences.PreferenceEncryption;
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that encrypted fields only read the values they wrote, with the same key and under the same preference key.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class EncryptionTest {
+
+    private static final String VAULT = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "@SharedPreference\n" +
+            "public interface Vault {\n" +
+            "    @Encrypted String PASSWORD = \"password\";\n" +
+            "    @Encrypted String PIN = \"pin\";\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Class<?> mPrefsClass;
+    private InMemoryPreferenceStore mStore;
+    private Object mPrefs;
+
+    @Before
+    public void setUp() throws Exception {
+        mPrefsClass = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Vault", VAULT)
+                .compile()
+                .loadClass("com.example.VaultPrefs");
+        useNewKey();
+        mStore = new InMemoryPreferenceStore();
+        mPrefs = create();
+    }
+
+    @After
+    public void tearDown() {
+        PreferenceEncryption.setKeyProvider(null);
+    }
+
+    @Test
+    public void valuesRoundTrip() throws Exception {
+        set("setPassword", "hunter2");
+        final String stored = mStore.getString("password", null);
+        assertFalse(stored.contains("hunter2"));
+        assertEquals("hunter2", get("getPassword"));
+        assertEquals("hunter2", get(create(), "getPassword"));
+
+        // every encryption uses another IV
+        set("setPin", "hunter2");
+        assertFalse(stored.equals(mStore.getString("pin", null)));
+    }
+
+    @Test
+    public void tamperedValueReadsAsNotSet() throws Exception {
+        set("setPassword", "hunter2");
+        final char[] stored = mStore.getString("password", null).toCharArray();
+        for (int i = 0; i < stored.length; i++) {
+            final char[] tampered = stored.clone();
+            tampered[i] = tampered[i] == 'A' ? 'B' : 'A';
+            mStore.edit().putString("password", new String(tampered)).commit();
+            assertNull("changed at " + i, get("getPassword"));
+        }
+        mStore.edit().putString("password", "not encrypted").commit();
+        assertNull(get("getPassword"));
+    }
+
+    @Test
+    public void valueOfAnotherKeyReadsAsNotSet() throws Exception {
+        set("setPassword", "hunter2");
+        useNewKey();
+        assertNull(get(create(), "getPassword"));
+    }
+
+    @Test
+    public void valueMovedToAnotherPreferenceReadsAsNotSet() throws Exception {
+        set("setPassword", "hunter2");
+        mStore.edit().putString("pin", mStore.getString("password", null)).commit();
+        assertNull(get("getPin"));
+    }
+
+    @Test
+    public void onlyStringsCanBeEncrypted() throws Exception {
+        List<String> errors = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Vault", VAULT.replace("@Encrypted String PIN",
+                        "@Type(com.github.bleeding182.sharedpreferences.PreferenceType.INTEGER) @Encrypted String PIN"))
+                .errors();
+        assertEquals(errors.toString(), 1, errors.size());
+    }
+
+    private static void useNewKey() throws Exception {
+        final SecretKey key = KeyGenerator.getInstance("AES").generateKey();
+        PreferenceEncryption.setKeyProvider(alias -> key);
+    }
+
+    private Object create() throws Exception {
+        return mPrefsClass.getConstructor(PreferenceStore.class).newInstance(mStore);
+    }
+
+    private String get(String getter) throws Exception {
+        return get(mPrefs, getter);
+    }
+
+    private String get(Object prefs, String getter) throws Exception {
+        return (String) mPrefsClass.getMethod(getter, String.class).invoke(prefs, (String) null);
+    }
+
+    private void set(String setter, String value) throws Exception {
+        mPrefsClass.getMethod(setter, String.class).invoke(mPrefs, value);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how the generated accessors of enum preferences store and decode ids, and ordinals if opted into.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class EnumPreferenceTest {
+
+    private static final String COLOR = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.EnumId;\n" +
+            "public enum Color {\n" +
+            "    @EnumId(1) RED,\n" +
+            "    @EnumId(7) GREEN\n" +
+            "}\n";
+
+    private static final String SIZE = "package com.example;\n" +
+            "public enum Size {\n" +
+            "    SMALL,\n" +
+            "    LARGE\n" +
+            "}\n";
+
+    private static final String THEME = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceType;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "@SharedPreference\n" +
+            "public interface Theme {\n" +
+            "    @Type(value = PreferenceType.ENUM, enumType = Color.class)\n" +
+            "    @DefaultValue(\"GREEN\")\n" +
+            "    String COLOR = \"color\";\n" +
+            "    @Type(value = PreferenceType.ENUM, enumType = Size.class, storeByOrdinal = true)\n" +
+            "    String SIZE = \"size\";\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void idsAreStoredAndDecoded() throws Exception {
+        InMemoryPreferenceStore store = new InMemoryPreferenceStore();
+        Theme theme = new Theme(compile(THEME), store);
+        assertEquals("GREEN", theme.get("getColor"));
+
+        theme.set("setColor", "RED");
+        assertEquals(1, store.getInt("color", -1));
+        assertEquals("RED", theme.get("getColor"));
+
+        store.edit().putInt("color", 7).commit();
+        assertEquals("GREEN", theme.get("getColor"));
+    }
+
+    @Test
+    public void unknownIdsReadAsDefault() throws Exception {
+        InMemoryPreferenceStore store = new InMemoryPreferenceStore();
+        Theme theme = new Theme(compile(THEME), store);
+        store.edit().putInt("color", 2).commit();
+        assertEquals("GREEN", theme.get("getColor"));
+        assertEquals("RED", theme.get("getColor", "RED"));
+    }
+
+    @Test
+    public void ordinalsAreStoredAndDecoded() throws Exception {
+        InMemoryPreferenceStore store = new InMemoryPreferenceStore();
+        Theme theme = new Theme(compile(THEME), store);
+        theme.set("setSize", "LARGE");
+        assertEquals(1, store.getInt("size", -1));
+        assertEquals("LARGE", theme.get("getSize", "SMALL"));
+
+        store.edit().putInt("size", 0).commit();
+        assertEquals("SMALL", theme.get("getSize", "LARGE"));
+        store.edit().putInt("size", 2).commit();
+        assertEquals("LARGE", theme.get("getSize", "LARGE"));
+        store.edit().putInt("size", -1).commit();
+        assertEquals("SMALL", theme.get("getSize", "SMALL"));
+    }
+
+    @Test
+    public void defaultValueMustNameAConstant() throws Exception {
+        List<String> errors = errors(THEME.replace("@DefaultValue(\"GREEN\")", "@DefaultValue(\"BLUE\")"));
+        assertEquals(errors.toString(), 1, errors.size());
+        assertTrue(errors.get(0), errors.get(0).contains("BLUE is not a constant of com.example.Color"));
+    }
+
+    @Test
+    public void idsMustBeUnique() throws Exception {
+        List<String> errors = errors(THEME, COLOR.replace("@EnumId(7)", "@EnumId(1)"));
+        assertEquals(errors.toString(), 1, errors.size());
+    }
+
+    @Test
+    public void enumWithoutIdsNeedsOptIn() throws Exception {
+        List<String> errors = errors(THEME.replace(", storeByOrdinal = true", ""));
+        assertEquals(errors.toString(), 1, errors.size());
+        assertTrue(errors.get(0), errors.get(0).contains("every constant of com.example.Size needs an EnumId"));
+    }
+
+    private ClassLoader compile(String theme) throws Exception {
+        return new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Color", COLOR)
+                .write("com.example.Size", SIZE)
+                .write("com.example.Theme", theme)
+                .compile();
+    }
+
+    private List<String> errors(String theme) throws Exception {
+        return errors(theme, COLOR);
+    }
+
+    private List<String> errors(String theme, String color) throws Exception {
+        return new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Color", color)
+                .write("com.example.Size", SIZE)
+                .write("com.example.Theme", theme)
+                .errors();
+    }
+
+    /**
+     * Calls the accessors of a generated ThemePrefs, passing and returning enum constants by name.
+     */
+    private static class Theme {
+        private final Object mPrefs;
+        private final ClassLoader mClassLoader;
+
+        Theme(ClassLoader classLoader, PreferenceStore store) throws Exception {
+            mClassLoader = classLoader;
+            mPrefs = classLoader.loadClass("com.example.ThemePrefs").getConstructor(PreferenceStore.class)
+                    .newInstance(store);
+        }
+
+        String get(String getter) throws Exception {
+            return ((Enum<?>) mPrefs.getClass().getMethod(getter).invoke(mPrefs)).name();
+        }
+
+        String get(String getter, String defaultValue) throws Exception {
+            final Class<?> type = enumType(getter);
+            return ((Enum<?>) mPrefs.getClass().getMethod(getter, type).invoke(mPrefs, constant(type, defaultValue)))
+                    .name();
+        }
+
+        void set(String setter, String value) throws Exception {
+            final Class<?> type = enumType(setter);
+            mPrefs.getClass().getMethod(setter, type).invoke(mPrefs, constant(type, value));
+        }
+
+        private Class<?> enumType(String method) throws ClassNotFoundException {
+            return mClassLoader.loadClass("com.example." + method.substring(3));
+        }
+
+        private static Object constant(Class<?> type, String name) {
+            for (Object constant : type.getEnumConstants()) {
+                if (((Enum<?>) constant).name().equals(name))
+                    return constant;
+            }
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that expired values read as their defaults, and that {@code evictExpired()} removes them with a single write.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class ExpiresTest {
+
+    private static final String SESSION = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceType;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "import java.util.concurrent.TimeUnit;\n" +
+            "@SharedPreference\n" +
+            "public interface Session {\n" +
+            "    @Expires(value = 1, unit = TimeUnit.HOURS)\n" +
+            "    String TOKEN = \"token\";\n" +
+            "    @Type(PreferenceType.INTEGER)\n" +
+            "    @DefaultValue(\"3\")\n" +
+            "    @Expires(value = 10, unit = TimeUnit.MINUTES)\n" +
+            "    String ATTEMPTS = \"attempts\";\n" +
+            "    String USER = \"user\";\n" +
+            "}\n";
+
+    private static final long HOUR_AGO = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1) - 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Class<?> mPrefsClass;
+    private CountingStore mStore;
+    private Object mPrefs;
+
+    @Before
+    public void setUp() throws Exception {
+        mPrefsClass = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Session", SESSION)
+                .compile()
+                .loadClass("com.example.SessionPrefs");
+        mStore = new CountingStore();
+        mPrefs = mPrefsClass.getConstructor(PreferenceStore.class).newInstance(mStore);
+    }
+
+    @Test
+    public void freshValuesAreRead() throws Exception {
+        set("setToken", String.class, "abc");
+        set("setAttempts", int.class, 1);
+        assertTrue(mStore.contains("token__written_at"));
+        assertEquals("abc", get("getToken", String.class, null));
+        assertEquals(1, get("getAttempts"));
+    }
+
+    @Test
+    public void expiredValuesReadAsDefault() throws Exception {
+        set("setToken", String.class, "abc");
+        set("setAttempts", int.class, 1);
+        mStore.edit().putLong("token__written_at", HOUR_AGO).commit();
+        assertNull(get("getToken", String.class, null));
+        // not yet expired
+        assertEquals(1, get("getAttempts"));
+
+        mStore.edit().putLong("attempts__written_at", HOUR_AGO).commit();
+        assertEquals(3, get("getAttempts"));
+        assertEquals(5, get("getAttempts", int.class, 5));
+    }
+
+    @Test
+    public void valuesWithoutTimeAreExpired() throws Exception {
+        mStore.edit().putString("token", "abc").putInt("attempts", 1).commit();
+        assertNull(get("getToken", String.class, null));
+        assertEquals(3, get("getAttempts"));
+    }
+
+    @Test
+    public void settingAValueAgainRenewsIt() throws Exception {
+        set("setToken", String.class, "abc");
+        mStore.edit().putLong("token__written_at", HOUR_AGO).commit();
+        set("setToken", String.class, "abc");
+        assertEquals("abc", get("getToken", String.class, null));
+    }
+
+    @Test
+    public void evictExpiredRemovesStaleValuesAtOnce() throws Exception {
+        set("setToken", String.class, "abc");
+        set("setAttempts", int.class, 1);
+        set("setUser", String.class, "david");
+        mStore.edit()
+                .putLong("token__written_at", HOUR_AGO)
+                // a value removed without its time
+                .remove("attempts")
+                .commit();
+        mStore.mWrites = 0;
+
+        assertEquals(1, mPrefsClass.getMethod("evictExpired").invoke(mPrefs));
+        assertEquals(1, mStore.mWrites);
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("user", "david");
+        assertEquals(expected, mStore.getAll());
+
+        assertEquals(0, mPrefsClass.getMethod("evictExpired").invoke(mPrefs));
+        assertEquals(expected, mStore.getAll());
+    }
+
+    @Test
+    public void timeKeyMustNotCollide() throws Exception {
+        List<String> errors = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Session", SESSION.replace("\"user\"", "\"token__written_at\""))
+                .errors();
+        assertEquals(errors.toString(), 1, errors.size());
+    }
+
+    private Object get(String getter) throws Exception {
+        return mPrefsClass.getMethod(getter).invoke(mPrefs);
+    }
+
+    private Object get(String getter, Class<?> type, Object defaultValue) throws Exception {
+        return mPrefsClass.getMethod(getter, type).invoke(mPrefs, defaultValue);
+    }
+
+    private void set(String setter, Class<?> type, Object value) throws Exception {
+        mPrefsClass.getMethod(setter, type).invoke(mPrefs, value);
+    }
+
+    /**
+     * Counts how often its values are written.
+     */
+    private static class CountingStore extends InMemoryPreferenceStore {
+        int mWrites;
+
+        @Override
+        protected boolean write(boolean clear, Map<String, Object> changes, boolean commit, List<String> changedKeys) {
+            mWrites++;
+            return super.write(clear, changes, commit, changedKeys);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import com.github.bleeding182.sharedpreferences.PreferenceEncryption;
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round-trips a field of every {@link com.github.bleeding182.sharedpreferences.PreferenceType}, encrypted and
+ * expiring fields through the generated {@code writeTo(OutputStream)} and {@code readFrom(InputStream)}, and checks
+ * that truncated or corrupt exports leave the store unchanged.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class ExportRoundTripTest {
+
+    private static final String COLOR = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.EnumId;\n" +
+            "public enum Color {\n" +
+            "    @EnumId(1) RED,\n" +
+            "    @EnumId(2) GREEN\n" +
+            "}\n";
+
+    private static final String POINT = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceConverter;\n" +
+            "public final class Point {\n" +
+            "    public final int x, y;\n" +
+            "    public Point(int x, int y) { this.x = x; this.y = y; }\n" +
+            "    @Override public boolean equals(Object o) {\n" +
+            "        return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;\n" +
+            "    }\n" +
+            "    @Override public int hashCode() { return x * 31 + y; }\n" +
+            "    public static class Converter implements PreferenceConverter<Point> {\n" +
+            "        public String encode(Point value) { return value.x + \",\" + value.y; }\n" +
+            "        public Point decode(String value) {\n" +
+            "            String[] parts = value.split(\",\");\n" +
+            "            return new Point(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String BACKUP = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceType;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "import java.util.concurrent.TimeUnit;\n" +
+            "@SharedPreference\n" +
+            "public interface Backup {\n" +
+            "    @Type(PreferenceType.BOOLEAN) String FLAG = \"flag\";\n" +
+            "    @Type(PreferenceType.FLOAT) String RATIO = \"ratio\";\n" +
+            "    @Type(PreferenceType.INTEGER) String COUNT = \"count\";\n" +
+            "    @Type(PreferenceType.LONG) String SIZE = \"size\";\n" +
+            "    @Type(PreferenceType.STRING) String NAME = \"name\";\n" +
+            "    @Type(PreferenceType.STRING_SET) String TAGS = \"tags\";\n" +
+            "    @Type(PreferenceType.INT_ARRAY) String INTS = \"ints\";\n" +
+            "    @Type(PreferenceType.LONG_ARRAY) String LONGS = \"longs\";\n" +
+            "    @Type(PreferenceType.BYTES) String DATA = \"data\";\n" +
+            "    @Type(value = PreferenceType.ENUM, enumType = Color.class) String COLOR = \"color\";\n" +
+            "    @Type(value = PreferenceType.CONVERTED, converter = Point.Converter.class) String POINT = \"point\";\n" +
+            "    @Encrypted String SECRET = \"secret\";\n" +
+            "    @Expires(value = 1, unit = TimeUnit.HOURS) String TOKEN = \"token\";\n" +
+            "    @Type(PreferenceType.INT_ARRAY) @Expires(value = 1, unit = TimeUnit.HOURS) String RECENT = \"recent\";\n" +
+            "}\n";
+
+    /**
+     * The offset of the length of the first key: magic, format version, schema version and the tag of the entry.
+     */
+    private static final int FIRST_KEY_LENGTH_OFFSET = 4 + 1 + 4 + 1;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Class<?> mPrefsClass;
+    private ClassLoader mClassLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        mClassLoader = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Color", COLOR)
+                .write("com.example.Point", POINT)
+                .write("com.example.Backup", BACKUP)
+                .compile();
+        mPrefsClass = mClassLoader.loadClass("com.example.BackupPrefs");
+
+        final SecretKey key = KeyGenerator.getInstance("AES").generateKey();
+        PreferenceEncryption.setKeyProvider(alias -> key);
+    }
+
+    @After
+    public void tearDown() {
+        PreferenceEncryption.setKeyProvider(null);
+    }
+
+    @Test
+    public void everyTypeRoundTrips() throws Exception {
+        InMemoryPreferenceStore source = new InMemoryPreferenceStore();
+        Object prefs = fill(source, 1);
+        // longer than the chunks Strings are read in
+        final String name = new String(new char[40000]).replace('\0', '\u00e4');
+        set(prefs, "setName", String.class, name);
+        byte[] export = export(prefs);
+
+        InMemoryPreferenceStore target = new InMemoryPreferenceStore();
+        target.edit().putString("unrelated", "kept").commit();
+        Object restored = create(target);
+        fill(target, 2);
+        assertTrue((Boolean) invoke(restored, "readFrom", new ByteArrayInputStream(export)));
+
+        Map<String, Object> expected = new HashMap<>(source.getAll());
+        expected.put("unrelated", "kept");
+        assertEquals(expected, target.getAll());
+        List<String> getters = getters();
+        assertEquals(14, getters.size());
+        for (String getter : getters) {
+            assertTrue(getter, Objects.deepEquals(get(prefs, getter), get(restored, getter)));
+        }
+        assertEquals(name, get(restored, "getName"));
+        assertEquals("secret 1", get(restored, "getSecret"));
+        assertTrue(Arrays.equals(new byte[]{1, 2, 1}, (byte[]) get(restored, "getData")));
+    }
+
+    @Test
+    public void missingFieldsAreRemoved() throws Exception {
+        byte[] export = export(create(new InMemoryPreferenceStore()));
+
+        InMemoryPreferenceStore target = new InMemoryPreferenceStore();
+        fill(target, 2);
+        target.edit().putString("unrelated", "kept").commit();
+        assertTrue((Boolean) invoke(create(target), "readFrom", new ByteArrayInputStream(export)));
+        assertEquals(Collections.singletonMap("unrelated", "kept"), target.getAll());
+    }
+
+    @Test
+    public void truncatedExportLeavesStoreUnchanged() throws Exception {
+        byte[] export = export(fill(new InMemoryPreferenceStore(), 1));
+
+        InMemoryPreferenceStore target = new InMemoryPreferenceStore();
+        Object prefs = fill(target, 2);
+        Map<String, ?> before = target.getAll();
+        for (int length = 0; length < export.length; length++) {
+            try {
+                invoke(prefs, "readFrom", new ByteArrayInputStream(Arrays.copyOf(export, length)));
+                fail("read an export truncated to " + length + " of " + export.length + " bytes");
+            } catch (IOException expected) {
+            }
+            assertEquals("truncated to " + length, before, target.getAll());
+        }
+    }
+
+    @Test
+    public void corruptExportLeavesStoreUnchanged() throws Exception {
+        byte[] export = export(fill(new InMemoryPreferenceStore(), 1));
+        Random random = new Random(182);
+        int failed = 0;
+        for (int i = 0; i < 500; i++) {
+            InMemoryPreferenceStore target = new InMemoryPreferenceStore();
+            Object prefs = fill(target, 2);
+            Map<String, ?> before = target.getAll();
+
+            byte[] corrupt = export.clone();
+            corrupt[random.nextInt(corrupt.length)] ^= 1 + random.nextInt(255);
+            try {
+                invoke(prefs, "readFrom", new ByteArrayInputStream(corrupt));
+            } catch (IOException e) {
+                // a corrupt value may still be a valid one, but anything else must not change the store
+                assertEquals(before, target.getAll());
+                failed++;
+            }
+        }
+        assertTrue(failed > 0);
+    }
+
+    @Test
+    public void corruptLengthDoesNotAllocate() throws Exception {
+        byte[] export = export(fill(new InMemoryPreferenceStore(), 1));
+        export[FIRST_KEY_LENGTH_OFFSET] = 0x7f;
+
+        InMemoryPreferenceStore target = new InMemoryPreferenceStore();
+        Object prefs = fill(target, 2);
+        Map<String, ?> before = target.getAll();
+        try {
+            invoke(prefs, "readFrom", new ByteArrayInputStream(export));
+            fail("read a key longer than the export");
+        } catch (IOException expected) {
+        }
+        assertEquals(before, target.getAll());
+        assertFalse(before.isEmpty());
+    }
+
+    /**
+     * Sets every field of a new instance to values derived from seed.
+     *
+     * @return the instance
+     */
+    private Object fill(PreferenceStore store, int seed) throws Exception {
+        Object prefs = create(store);
+        set(prefs, "setFlag", boolean.class, seed % 2 == 1);
+        set(prefs, "setRatio", float.class, seed / 4f);
+        set(prefs, "setCount", int.class, -seed);
+        set(prefs, "setSize", long.class, seed * 10000000000L);
+        set(prefs, "setName", String.class, "name " + seed);
+        set(prefs, "setTags", java.util.Set.class, new HashSet<>(Arrays.asList("a" + seed, "b" + seed)));
+        set(prefs, "setInts", int[].class, new int[]{seed, -seed});
+        set(prefs, "setLongs", long[].class, new long[]{Long.MIN_VALUE, seed});
+        set(prefs, "setData", byte[].class, new byte[]{1, (byte) (seed * 2), 1});
+        Class<?> color = mClassLoader.loadClass("com.example.Color");
+        set(prefs, "setColor", color, color.getEnumConstants()[seed % 2]);
+        Class<?> point = mClassLoader.loadClass("com.example.Point");
+        set(prefs, "setPoint", point, point.getConstructor(int.class, int.class).newInstance(seed, seed * 3));
+        set(prefs, "setSecret", String.class, "secret " + seed);
+        set(prefs, "setToken", String.class, "token " + seed);
+        set(prefs, "setRecent", int[].class, new int[]{seed});
+        return prefs;
+    }
+
+    private Object create(PreferenceStore store) throws Exception {
+        return mPrefsClass.getConstructor(PreferenceStore.class).newInstance(store);
+    }
+
+    private byte[] export(Object prefs) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        invoke(prefs, "writeTo", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the names of the getters of the fields taking a default value
+     */
+    private List<String> getters() {
+        List<String> getters = new ArrayList<>();
+        for (Method method : mPrefsClass.getDeclaredMethods()) {
+            if (method.getParameterTypes().length == 1 && method.getName().matches("(get|is)[A-Z].*")
+                    && java.lang.reflect.Modifier.isPublic(method.getModifiers()))
+                getters.add(method.getName());
+        }
+        return getters;
+    }
+
+    private Object get(Object prefs, String getter) throws Exception {
+        for (Method method : mPrefsClass.getMethods()) {
+            if (method.getName().equals(getter) && method.getParameterTypes().length == 1) {
+                final Class<?> type = method.getParameterTypes()[0];
+                return method.invoke(prefs, type.isPrimitive() ? defaultValue(type) : null);
+            }
+        }
+        throw new AssertionError("No getter " + getter);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class)
+            return false;
+        if (type == float.class)
+            return 0f;
+        if (type == long.class)
+            return 0L;
+        return 0;
+    }
+
+    private void set(Object prefs, String setter, Class<?> type, Object value) throws Exception {
+        mPrefsClass.getMethod(setter, type).invoke(prefs, value);
+    }
+
+    private Object invoke(Object prefs, String name, Object argument) throws Exception {
+        for (Method method : mPrefsClass.getMethods()) {
+            if (method.getName().equals(name) && method.getParameterTypes().length == 1
+                    && method.getParameterTypes()[0].isInstance(argument)) {
+                try {
+                    return method.invoke(prefs, argument);
+                } catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw new AssertionError(e.getCause());
+                }
+            }
+        }
+        throw new AssertionError("No method " + name);
+    }
+}
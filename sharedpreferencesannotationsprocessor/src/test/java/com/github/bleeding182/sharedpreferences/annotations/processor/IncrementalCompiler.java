@@ -0,0 +1,402 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * <p>Compiles sources with the {@link SharedPreferencesAnnotationProcessor} the way gradle compiles them
+ * incrementally.</p>
+ * <p>The first build compiles all sources. Later builds only recompile the changed sources and the types whose
+ * class files reference a changed or deleted type. Generated files are tracked by the originating elements passed
+ * to the {@link Filer}. For an isolating processor the files of recompiled or deleted types are deleted and
+ * generated again, for an aggregating one all generated files are deleted, and the annotated types which are not
+ * recompiled get processed again from their class files.</p>
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+class IncrementalCompiler {
+
+    private final File mSourceDir;
+    private final File mClassesDir;
+    private final File mGeneratedDir;
+    private final Map<String, String> mOptions;
+    private final boolean mAggregating;
+
+    /**
+     * The originating types of every generated type.
+     */
+    private final Map<String, Set<String>> mOrigins = new HashMap<>();
+    private final Set<String> mChanged = new HashSet<>();
+    private final Set<String> mDeleted = new HashSet<>();
+    private final Map<String, String> mSources = new TreeMap<>();
+    private boolean mBuilt;
+
+    /**
+     * @param root    the directory to keep sources, classes and generated sources in
+     * @param options the options of the processor
+     */
+    IncrementalCompiler(File root, Map<String, String> options) {
+        mSourceDir = new File(root, "src");
+        mClassesDir = new File(root, "classes");
+        mGeneratedDir = new File(root, "generated");
+        mSourceDir.mkdirs();
+        mClassesDir.mkdirs();
+        mGeneratedDir.mkdirs();
+        mOptions = new LinkedHashMap<>(options);
+        // as declared by the processor
+        mAggregating = options.containsKey(SharedPreferencesAnnotationProcessor.OPTION_REGISTRY);
+    }
+
+    /**
+     * Adds or changes the source of a type.
+     *
+     * @param type   the fully qualified name of the type
+     * @param source the source code
+     */
+    void write(String type, String source) throws IOException {
+        final File file = sourceFile(mSourceDir, type);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        mSources.put(type, source);
+        mChanged.add(type);
+        mDeleted.remove(type);
+    }
+
+    /**
+     * Deletes the source of a type.
+     *
+     * @param type the fully qualified name of the type
+     */
+    void delete(String type) {
+        sourceFile(mSourceDir, type).delete();
+        mSources.remove(type);
+        mChanged.remove(type);
+        mDeleted.add(type);
+    }
+
+    /**
+     * @return the current sources by the name of their type
+     */
+    Map<String, String> getSources() {
+        return Collections.unmodifiableMap(mSources);
+    }
+
+    /**
+     * @return the generated sources by the name of their type
+     */
+    Map<String, String> getGeneratedSources() throws IOException {
+        Map<String, String> sources = new TreeMap<>();
+        for (String type : types(mGeneratedDir, ".java")) {
+            sources.put(type, new String(Files.readAllBytes(sourceFile(mGeneratedDir, type).toPath()),
+                    StandardCharsets.UTF_8));
+        }
+        return sources;
+    }
+
+    /**
+     * Compiles all sources on the first call, and the changes since the last build afterwards.
+     *
+     * @throws AssertionError if the compilation fails
+     */
+    void build() throws IOException {
+        if (!mBuilt) {
+            mBuilt = true;
+            List<File> units = new ArrayList<>();
+            for (String type : mSources.keySet()) {
+                units.add(sourceFile(mSourceDir, type));
+            }
+            compile(units, Collections.<String>emptySet());
+            mChanged.clear();
+            mDeleted.clear();
+            return;
+        }
+
+        Set<String> affected = new HashSet<>(mChanged);
+        affected.addAll(mDeleted);
+        addDependents(affected);
+
+        Set<String> recompiled = new HashSet<>(affected);
+        recompiled.retainAll(mSources.keySet());
+        Set<String> reprocessed = new HashSet<>();
+        List<File> units = new ArrayList<>();
+        if (mAggregating) {
+            for (Set<String> origins : mOrigins.values()) {
+                for (String origin : origins) {
+                    if (mSources.containsKey(origin) && !recompiled.contains(origin))
+                        reprocessed.add(origin);
+                }
+            }
+            for (String generated : new ArrayList<>(mOrigins.keySet())) {
+                deleteGenerated(generated);
+            }
+        } else {
+            for (Map.Entry<String, Set<String>> entry : new ArrayList<>(mOrigins.entrySet())) {
+                if (!Collections.disjoint(entry.getValue(), recompiled)
+                        || !Collections.disjoint(entry.getValue(), mDeleted)) {
+                    deleteGenerated(entry.getKey());
+                } else if (affected.contains(entry.getKey())) {
+                    // the generated source stays as it is, but gets compiled again
+                    deleteClasses(entry.getKey());
+                    units.add(sourceFile(mGeneratedDir, entry.getKey()));
+                }
+            }
+        }
+        for (String type : mDeleted) {
+            deleteClasses(type);
+        }
+        for (String type : recompiled) {
+            deleteClasses(type);
+            units.add(sourceFile(mSourceDir, type));
+        }
+        if (!units.isEmpty() || !reprocessed.isEmpty())
+            compile(units, reprocessed);
+        mChanged.clear();
+        mDeleted.clear();
+    }
+
+    /**
+     * Adds every type whose class files reference one of the types, until no more are found.
+     */
+    private void addDependents(Set<String> types) throws IOException {
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (String type : types(mClassesDir, ".class")) {
+                if (!types.contains(type) && references(type, types)) {
+                    types.add(type);
+                    added = true;
+                }
+            }
+        }
+    }
+
+    private boolean references(String type, Set<String> types) throws IOException {
+        for (File file : classFiles(type)) {
+            // names are stored as plain modified UTF-8 in the constant pool
+            final String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+            for (String other : types) {
+                if (Pattern.compile(Pattern.quote(other.replace('.', '/')) + "(?![A-Za-z0-9_])").matcher(content).find())
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void deleteGenerated(String type) {
+        sourceFile(mGeneratedDir, type).delete();
+        deleteClasses(type);
+        mOrigins.remove(type);
+    }
+
+    private void deleteClasses(String type) {
+        for (File file : classFiles(type)) {
+            file.delete();
+        }
+    }
+
+    private List<File> classFiles(String type) {
+        final File file = new File(mClassesDir, type.replace('.', File.separatorChar) + ".class");
+        final String nested = type.substring(type.lastIndexOf('.') + 1) + "$";
+        List<File> files = new ArrayList<>();
+        File[] siblings = file.getParentFile().listFiles();
+        if (siblings == null)
+            return files;
+        for (File sibling : siblings) {
+            if (sibling.equals(file) || sibling.getName().startsWith(nested) && sibling.getName().endsWith(".class"))
+                files.add(sibling);
+        }
+        return files;
+    }
+
+    private static File sourceFile(File dir, String type) {
+        return new File(dir, type.replace('.', File.separatorChar) + ".java");
+    }
+
+    /**
+     * @return the top level types of the files with the extension in the directory
+     */
+    private static Set<String> types(File dir, String extension) {
+        Set<String> types = new HashSet<>();
+        addTypes(dir, "", extension, types);
+        return types;
+    }
+
+    private static void addTypes(File dir, String prefix, String extension, Set<String> types) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            final String name = file.getName();
+            if (file.isDirectory()) {
+                addTypes(file, prefix + name + ".", extension, types);
+            } else if (name.endsWith(extension)) {
+                final String simpleName = name.substring(0, name.length() - extension.length());
+                final int nested = simpleName.indexOf('$');
+                types.add(prefix + (nested < 0 ? simpleName : simpleName.substring(0, nested)));
+            }
+        }
+    }
+
+    private void compile(Collection<File> units, Collection<String> classNames) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+        List<String> options = new ArrayList<>();
+        options.add("-d");
+        options.add(mClassesDir.getPath());
+        options.add("-s");
+        options.add(mGeneratedDir.getPath());
+        options.add("-classpath");
+        options.add(mClassesDir.getPath() + File.pathSeparator + System.getProperty("java.class.path"));
+        for (Map.Entry<String, String> option : mOptions.entrySet()) {
+            options.add("-A" + option.getKey() + "=" + option.getValue());
+        }
+        try {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options,
+                    classNames.isEmpty() ? null : classNames, fileManager.getJavaFileObjectsFromFiles(units));
+            task.setProcessors(Collections.singletonList(new RecordingProcessor(new SharedPreferencesAnnotationProcessor())));
+            if (!task.call()) {
+                StringBuilder errors = new StringBuilder("Compilation failed");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                        errors.append('\n').append(diagnostic);
+                }
+                throw new AssertionError(errors.toString());
+            }
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    /**
+     * Records the originating elements of every generated source, like gradle does.
+     */
+    private class RecordingProcessor implements Processor {
+        private final Processor mProcessor;
+
+        RecordingProcessor(Processor processor) {
+            mProcessor = processor;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return mProcessor.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return mProcessor.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return mProcessor.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(final ProcessingEnvironment processingEnv) {
+            final Filer filer = (Filer) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Filer.class},
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("createSourceFile"))
+                                record(args[0].toString(), (Element[]) args[1]);
+                            return delegate(processingEnv.getFiler(), method, args);
+                        }
+                    });
+            mProcessor.init((ProcessingEnvironment) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{ProcessingEnvironment.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            return method.getName().equals("getFiler") ? filer : delegate(processingEnv, method, args);
+                        }
+                    }));
+        }
+
+        private void record(String type, Element[] originatingElements) {
+            Set<String> origins = new HashSet<>();
+            for (Element element : originatingElements) {
+                origins.add(((TypeElement) element).getQualifiedName().toString());
+            }
+            mOrigins.put(type, origins);
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            return mProcessor.process(annotations, roundEnv);
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation,
+                                                             ExecutableElement member, String userText) {
+            return mProcessor.getCompletions(element, annotation, member, userText);
+        }
+    }
+
+    private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
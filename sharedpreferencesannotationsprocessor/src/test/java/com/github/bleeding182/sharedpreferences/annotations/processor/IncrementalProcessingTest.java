@@ -0,0 +1,167 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that incremental builds generate the same sources as a clean build, with the processor being
+ * isolating, and aggregating if it generates the registry.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+@RunWith(Parameterized.class)
+public class IncrementalProcessingTest {
+
+    private static final String REGISTRY = "com.example.PreferencesRegistry";
+
+    private static final String MODE = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.EnumId;\n" +
+            "public enum Mode {\n" +
+            "    @EnumId(1) LIGHT,\n" +
+            "    @EnumId(2) DARK\n" +
+            "}\n";
+
+    private static final String SETTINGS = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceType;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "@SharedPreference\n" +
+            "public interface Settings {\n" +
+            "    @Type(value = PreferenceType.ENUM, enumType = Mode.class)\n" +
+            "    @DefaultValue(\"DARK\")\n" +
+            "    String MODE = \"mode\";\n" +
+            "    @Type(PreferenceType.BOOLEAN)\n" +
+            "    @DefaultValue(\"true\")\n" +
+            "    String SHOWN = \"shown\";\n" +
+            "}\n";
+
+    private static final String ACCOUNT = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "@SharedPreference(cacheValues = true)\n" +
+            "public interface Account {\n" +
+            "    @DefaultValue(\"guest\")\n" +
+            "    String USERNAME = \"username\";\n" +
+            "}\n";
+
+    @Parameterized.Parameters(name = "registry={0}")
+    public static List<Object[]> parameters() {
+        return Arrays.asList(new Object[]{false}, new Object[]{true});
+    }
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final boolean mRegistry;
+    private IncrementalCompiler mCompiler;
+
+    public IncrementalProcessingTest(boolean registry) {
+        mRegistry = registry;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mCompiler = newCompiler();
+        mCompiler.write("com.example.Mode", MODE);
+        mCompiler.write("com.example.Settings", SETTINGS);
+        mCompiler.write("com.example.Account", ACCOUNT);
+        mCompiler.build();
+    }
+
+    @Test
+    public void changedInterfaceIsGeneratedAgain() throws IOException {
+        mCompiler.write("com.example.Account", ACCOUNT.replace("}\n",
+                "    @Type(com.github.bleeding182.sharedpreferences.PreferenceType.INTEGER)\n" +
+                        "    String LOGINS = \"logins\";\n}\n"));
+        mCompiler.build();
+
+        Map<String, String> generated = mCompiler.getGeneratedSources();
+        assertTrue(generated.get("com.example.AccountPrefs").contains("public int getLogins("));
+        assertRegistered(generated, "com.example.AccountPrefs", true);
+        assertSameAsCleanBuild(generated);
+    }
+
+    @Test
+    public void deletedInterfaceIsRemoved() throws IOException {
+        mCompiler.delete("com.example.Account");
+        mCompiler.build();
+
+        Map<String, String> generated = mCompiler.getGeneratedSources();
+        assertFalse(generated.containsKey("com.example.AccountPrefs"));
+        assertRegistered(generated, "com.example.AccountPrefs", false);
+        assertRegistered(generated, "com.example.SettingsPrefs", true);
+        assertSameAsCleanBuild(generated);
+    }
+
+    @Test
+    public void changedEnumIsGeneratedAgain() throws IOException {
+        mCompiler.write("com.example.Mode", MODE.replace("DARK\n", "DARK,\n    @EnumId(3) SYSTEM\n"));
+        mCompiler.build();
+
+        Map<String, String> generated = mCompiler.getGeneratedSources();
+        assertTrue(generated.get("com.example.SettingsPrefs").contains("Mode.SYSTEM"));
+        assertRegistered(generated, "com.example.SettingsPrefs", true);
+        assertSameAsCleanBuild(generated);
+    }
+
+    private IncrementalCompiler newCompiler() throws IOException {
+        return new IncrementalCompiler(mFolder.newFolder(), mRegistry
+                ? Collections.singletonMap(SharedPreferencesAnnotationProcessor.OPTION_REGISTRY, REGISTRY)
+                : Collections.<String, String>emptyMap());
+    }
+
+    private void assertRegistered(Map<String, String> generated, String type, boolean registered) {
+        if (!mRegistry) {
+            assertFalse(generated.containsKey(REGISTRY));
+            return;
+        }
+        final String simpleName = type.substring(type.lastIndexOf('.') + 1);
+        assertEquals(registered, generated.get(REGISTRY).contains("names.put(" + simpleName + ".class"));
+    }
+
+    private void assertSameAsCleanBuild(Map<String, String> generated) throws IOException {
+        IncrementalCompiler clean = newCompiler();
+        for (Map.Entry<String, String> source : mCompiler.getSources().entrySet()) {
+            clean.write(source.getKey(), source.getValue());
+        }
+        clean.build();
+        assertEquals(clean.getGeneratedSources(), generated);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import com.github.bleeding182.sharedpreferences.ArrayCodec;
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the generated migration moves and converts the values of an older schema with a single write.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class MigrationTest {
+
+    private static final String VERSION_KEY = "__schema_version";
+
+    private static final String PROFILE = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceType;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "@SharedPreference\n" +
+            "@SchemaVersion(2)\n" +
+            "public interface Profile {\n" +
+            "    @Type(PreferenceType.INTEGER)\n" +
+            "    @MigratedFrom(key = \"age_text\", type = PreferenceType.STRING)\n" +
+            "    String AGE = \"age\";\n" +
+            "    @MigratedFrom(key = \"user\", type = PreferenceType.STRING)\n" +
+            "    String NAME = \"name\";\n" +
+            "    @Type(PreferenceType.LONG)\n" +
+            "    @MigratedFrom(type = PreferenceType.INTEGER)\n" +
+            "    String VISITS = \"visits\";\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private Class<?> mPrefsClass;
+
+    @Before
+    public void setUp() throws Exception {
+        mPrefsClass = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Profile", PROFILE)
+                .compile()
+                .loadClass("com.example.ProfilePrefs");
+    }
+
+    @Test
+    public void valuesAreMovedAndConvertedAtOnce() throws Exception {
+        CountingStore store = new CountingStore();
+        store.edit().putString("age_text", " 42").putString("user", "david").putInt("visits", 7).commit();
+        store.mWrites = 0;
+
+        create(store);
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("age", 42);
+        expected.put("name", "david");
+        expected.put("visits", 7L);
+        expected.put(VERSION_KEY, 2);
+        assertEquals(expected, store.getAll());
+        assertEquals(1, store.mWrites);
+    }
+
+    @Test
+    public void currentSchemaIsNotWritten() throws Exception {
+        CountingStore store = new CountingStore();
+        store.edit().putInt(VERSION_KEY, 2).putString("age_text", "42").commit();
+        store.mWrites = 0;
+
+        create(store);
+        assertEquals(0, store.mWrites);
+        assertEquals("42", store.getString("age_text", null));
+    }
+
+    @Test
+    public void renamedValuesDoNotOverwriteNewOnes() throws Exception {
+        InMemoryPreferenceStore store = new InMemoryPreferenceStore();
+        store.edit().putString("user", "old").putString("name", "new").commit();
+        create(store);
+        assertEquals("new", store.getString("name", null));
+    }
+
+    @Test
+    public void unconvertibleValuesAreDropped() throws Exception {
+        InMemoryPreferenceStore store = new InMemoryPreferenceStore();
+        store.edit().putString("age_text", "forty-two").putString("visits", "7").commit();
+        create(store);
+        assertEquals(0, store.getInt("age", 0));
+        Map<String, Object> expected = new HashMap<>();
+        expected.put(VERSION_KEY, 2);
+        assertEquals(expected, store.getAll());
+    }
+
+    @Test
+    public void migratingAgainChangesNothing() throws Exception {
+        CountingStore store = new CountingStore();
+        store.edit().putString("age_text", "42").putInt("visits", 7).commit();
+        create(store);
+        final Map<String, ?> migrated = new HashMap<>(store.getAll());
+
+        // an older version written again, e.g. by a restored backup
+        store.edit().putInt(VERSION_KEY, 1).commit();
+        store.mWrites = 0;
+        mPrefsClass.getMethod("migrate", PreferenceStore.class).invoke(null, store);
+        assertEquals(1, store.mWrites);
+        assertEquals(migrated, store.getAll());
+    }
+
+    @Test
+    public void stringsOfTheSameKeyAreOnlyKeptIfEncoded() throws Exception {
+        final String source = PROFILE.replace("}\n", "    @Type(PreferenceType.INT_ARRAY)\n" +
+                "    @MigratedFrom(type = PreferenceType.STRING)\n" +
+                "    String IDS = \"ids\";\n" +
+                "}\n");
+        Class<?> prefsClass = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Profile", source)
+                .compile()
+                .loadClass("com.example.ProfilePrefs");
+
+        InMemoryPreferenceStore store = new InMemoryPreferenceStore();
+        store.edit().putString("ids", "1,2,3").commit();
+        prefsClass.getMethod("migrate", PreferenceStore.class).invoke(null, store);
+        assertFalse(store.contains("ids"));
+
+        final String encoded = ArrayCodec.encodeInts(new int[]{1, 2, 3});
+        store.edit().putInt(VERSION_KEY, 1).putString("ids", encoded).commit();
+        prefsClass.getMethod("migrate", PreferenceStore.class).invoke(null, store);
+        assertEquals(encoded, store.getString("ids", null));
+    }
+
+    @Test
+    public void migrationNeedsSchemaVersion() throws Exception {
+        List<String> errors = new ProcessorCompiler(mFolder.newFolder())
+                .write("com.example.Profile", PROFILE.replace("@SchemaVersion(2)\n", ""))
+                .errors();
+        assertTrue(errors.toString(), !errors.isEmpty());
+    }
+
+    private Object create(PreferenceStore store) throws Exception {
+        return mPrefsClass.getConstructor(PreferenceStore.class).newInstance(store);
+    }
+
+    /**
+     * Counts how often its values are written.
+     */
+    private static class CountingStore extends InMemoryPreferenceStore {
+        int mWrites;
+
+        @Override
+        protected boolean write(boolean clear, Map<String, Object> changes, boolean commit, List<String> changedKeys) {
+            mWrites++;
+            return super.write(clear, changes, commit, changedKeys);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles sources with the {@link SharedPreferencesAnnotationProcessor} and loads the compiled and generated
+ * classes, to test the behavior of the generated code.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+class ProcessorCompiler {
+
+    private final File mSourceDir;
+    private final File mClassesDir;
+    private final Map<String, String> mOptions = new LinkedHashMap<>();
+    private final List<File> mSources = new ArrayList<>();
+
+    /**
+     * @param root the directory to keep sources and classes in
+     */
+    ProcessorCompiler(File root) {
+        mSourceDir = new File(root, "src");
+        mClassesDir = new File(root, "classes");
+        mSourceDir.mkdirs();
+        mClassesDir.mkdirs();
+    }
+
+    /**
+     * Sets an option of the processor.
+     */
+    ProcessorCompiler option(String key, String value) {
+        mOptions.put(key, value);
+        return this;
+    }
+
+    /**
+     * Adds the source of a type.
+     *
+     * @param type   the fully qualified name of the type
+     * @param source the source code
+     */
+    ProcessorCompiler write(String type, String source) throws IOException {
+        final File file = new File(mSourceDir, type.replace('.', File.separatorChar) + ".java");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+        mSources.add(file);
+        return this;
+    }
+
+    /**
+     * Compiles the sources.
+     *
+     * @return a new class loader for the compiled classes, delegating to the one of the tests first
+     * @throws AssertionError if the compilation fails
+     */
+    ClassLoader compile() throws IOException {
+        List<String> errors = errors();
+        if (!errors.isEmpty())
+            throw new AssertionError("Compilation failed\n" + String.join("\n", errors));
+        return new URLClassLoader(new URL[]{mClassesDir.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    /**
+     * Compiles the sources.
+     *
+     * @return the messages of the errors reported by the compiler or the processor
+     */
+    List<String> errors() throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+        List<String> options = new ArrayList<>();
+        options.add("-d");
+        options.add(mClassesDir.getPath());
+        options.add("-s");
+        options.add(mClassesDir.getPath());
+        options.add("-classpath");
+        options.add(System.getProperty("java.class.path"));
+        for (Map.Entry<String, String> option : mOptions.entrySet()) {
+            options.add("-A" + option.getKey() + "=" + option.getValue());
+        }
+        try {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjectsFromFiles(mSources));
+            task.setProcessors(Collections.singletonList(new SharedPreferencesAnnotationProcessor()));
+            task.call();
+        } finally {
+            fileManager.close();
+        }
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                errors.add(diagnostic.getMessage(null));
+        }
+        return errors;
+    }
+}
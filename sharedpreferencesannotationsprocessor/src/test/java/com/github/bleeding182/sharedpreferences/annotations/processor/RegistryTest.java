@@ -0,0 +1,178 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.bleeding182.sharedpreferences.annotations.processor;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the generated registry warms up every preference file once and reuses its instances.
+ *
+ * @author David Medenjak
+ * @version 1.0
+ */
+public class RegistryTest {
+
+    private static final String REGISTRY = "com.example.PreferencesRegistry";
+
+    private static final String SETTINGS = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.PreferenceType;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "@SharedPreference\n" +
+            "@DefaultPreferenceName(\"settings\")\n" +
+            "public interface Settings {\n" +
+            "    @Type(PreferenceType.BOOLEAN)\n" +
+            "    String SHOWN = \"shown\";\n" +
+            "}\n";
+
+    private static final String ACCOUNT = "package com.example;\n" +
+            "import com.github.bleeding182.sharedpreferences.annotations.*;\n" +
+            "@SharedPreference\n" +
+            "@DefaultPreferenceName(\"account\")\n" +
+            "public interface Account {\n" +
+            "    String USERNAME = \"username\";\n" +
+            "    @Group(\"secure\")\n" +
+            "    String TOKEN = \"token\";\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ClassLoader mClassLoader;
+    private Class<?> mRegistry;
+    private Class<?> mSettings;
+    private Class<?> mAccount;
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mClassLoader = new ProcessorCompiler(mFolder.newFolder())
+                .option(SharedPreferencesAnnotationProcessor.OPTION_REGISTRY, REGISTRY)
+                .write("com.example.Settings", SETTINGS)
+                .write("com.example.Account", ACCOUNT)
+                .compile();
+        mRegistry = mClassLoader.loadClass(REGISTRY);
+        mSettings = mClassLoader.loadClass("com.example.SettingsPrefs");
+        mAccount = mClassLoader.loadClass("com.example.AccountPrefs");
+        mContext = new Context();
+    }
+
+    @Test
+    public void everyClassIsRegistered() throws Exception {
+        Map<?, ?> names = (Map<?, ?>) mRegistry.getField("PREFERENCE_NAMES").get(null);
+        assertEquals(2, names.size());
+        assertEquals("settings", names.get(mSettings));
+        assertEquals("account", names.get(mAccount));
+    }
+
+    @Test
+    public void warmUpOpensEveryFileOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<?> futures = (List<?>) mRegistry.getMethod("warmUpAll", Context.class, Executor.class)
+                    .invoke(null, mContext, executor);
+            Map<?, ?> names = (Map<?, ?>) mRegistry.getField("PREFERENCE_NAMES").get(null);
+            assertEquals(names.size(), futures.size());
+            int i = 0;
+            for (Object type : names.keySet()) {
+                // the instances of the warm-up are the ones handed out later
+                assertSame(((Future<?>) futures.get(i++)).get(10, TimeUnit.SECONDS), get((Class<?>) type));
+            }
+
+            List<String> opened = mContext.getOpenedFiles();
+            assertEquals(opened.toString(), 3, opened.size());
+            assertEquals(new HashSet<>(Arrays.asList("settings", "account", "account_secure")), new HashSet<>(opened));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void instancesAreReused() throws Exception {
+        final Object settings = get(mSettings);
+        assertSame(settings, get(mSettings));
+        assertSame(settings, get(mSettings, "settings"));
+        assertEquals(Arrays.asList("settings"), mContext.getOpenedFiles());
+
+        final Object other = get(mSettings, "other");
+        assertNotSame(settings, other);
+        assertSame(other, get(mSettings, "other"));
+        assertEquals(Arrays.asList("settings", "other"), mContext.getOpenedFiles());
+
+        // another application context gets instances of its own
+        assertNotSame(settings, mRegistry.getMethod("get", Context.class, Class.class).invoke(null, new Context(), mSettings));
+    }
+
+    @Test
+    public void unregisteredClassIsRejected() throws Exception {
+        try {
+            get(String.class);
+            fail("returned an instance of an unregistered class");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertTrue(mContext.getOpenedFiles().isEmpty());
+    }
+
+    private Object get(Class<?> type) throws Exception {
+        return unwrap(() -> mRegistry.getMethod("get", Context.class, Class.class).invoke(null, mContext, type));
+    }
+
+    private Object get(Class<?> type, String name) throws Exception {
+        return unwrap(() -> mRegistry.getMethod("get", Context.class, Class.class, String.class)
+                .invoke(null, mContext, type, name));
+    }
+
+    private static Object unwrap(Callable<Object> call) throws Exception {
+        try {
+            return call.call();
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw new AssertionError(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.benchmark;
+
+import com.github.bleeding182.sharedpreferences.PreferenceEncryption;
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Single threaded costs of the generated accessors and editors, for every mode of code generation.
+ * The generated classes are backed by an {@link InMemoryPreferenceStore}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AccessorBenchmark {
+
+    private PlainPrefs mPlain;
+    private CachedPrefs mCached;
+    private SecurePrefs mSecure;
+    private int mCounter;
+
+    @Setup
+    public void setUp() {
+        mPlain = new PlainPrefs(new InMemoryPreferenceStore());
+        mPlain.edit().setName("name").setCount(1).setEnabled(true).setTimestamp(1L).setRatio(0.5f).apply();
+        mCached = new CachedPrefs(new InMemoryPreferenceStore());
+        mCached.edit().setName("name").setCount(1).setEnabled(true).setTimestamp(1L).setRatio(0.5f).apply();
+        final SecretKey key = new SecretKeySpec(new byte[16], "AES");
+        PreferenceEncryption.setKeyProvider(new PreferenceEncryption.KeyProvider() {
+            @Override
+            public SecretKey getKey(String alias) {
+                return key;
+            }
+        });
+        mSecure = new SecurePrefs(new InMemoryPreferenceStore());
+        mSecure.setName("name");
+    }
+
+    @Benchmark
+    public int getterPlain() {
+        return mPlain.getCount();
+    }
+
+    @Benchmark
+    public int getterCached() {
+        return mCached.getCount();
+    }
+
+    @Benchmark
+    public String getterStringPlain() {
+        return mPlain.getName(null);
+    }
+
+    @Benchmark
+    public String getterStringCached() {
+        return mCached.getName(null);
+    }
+
+    @Benchmark
+    public String getterStringEncrypted() {
+        return mSecure.getName(null);
+    }
+
+    @Benchmark
+    public long defaultGetterPlain() {
+        return mPlain.getTimestamp(42L);
+    }
+
+    @Benchmark
+    public long defaultGetterCached() {
+        return mCached.getTimestamp(42L);
+    }
+
+    @Benchmark
+    public void setterPlain() {
+        mPlain.setCount(mCounter++);
+    }
+
+    @Benchmark
+    public void setterCached() {
+        mCached.setCount(mCounter++);
+    }
+
+    @Benchmark
+    public void setterStringEncrypted() {
+        mSecure.setName((mCounter++ & 1) == 0 ? "even" : "odd");
+    }
+
+    @Benchmark
+    public void editorPlain() {
+        final int value = mCounter++;
+        mPlain.edit().setCount(value).setTimestamp(value).setEnabled((value & 1) == 0).apply();
+    }
+
+    @Benchmark
+    public void editorCached() {
+        final int value = mCounter++;
+        mCached.edit().setCount(value).setTimestamp(value).setEnabled((value & 1) == 0).apply();
+    }
+
+    @Benchmark
+    public Map<String, ?> getAllPlain() {
+        return mPlain.getAll();
+    }
+
+    @Benchmark
+    public Map<String, ?> getAllCached() {
+        return mCached.getAll();
+    }
+}
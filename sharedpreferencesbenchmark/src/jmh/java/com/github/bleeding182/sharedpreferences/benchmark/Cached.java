@@ -0,0 +1,56 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.benchmark;
+
+import com.github.bleeding182.sharedpreferences.PreferenceType;
+import com.github.bleeding182.sharedpreferences.annotations.DefaultValue;
+import com.github.bleeding182.sharedpreferences.annotations.SharedPreference;
+import com.github.bleeding182.sharedpreferences.annotations.Type;
+
+/**
+ * The preferences of {@link Plain}, generated with cached values.
+ */
+@SharedPreference(cacheValues = true)
+public interface Cached {
+    String NAME = "name";
+
+    @Type(PreferenceType.INTEGER)
+    @DefaultValue("0")
+    String COUNT = "count";
+
+    @Type(PreferenceType.BOOLEAN)
+    @DefaultValue("false")
+    String ENABLED = "enabled";
+
+    @Type(PreferenceType.LONG)
+    @DefaultValue("0")
+    String TIMESTAMP = "timestamp";
+
+    @Type(PreferenceType.FLOAT)
+    @DefaultValue("1f")
+    String RATIO = "ratio";
+
+    @Type(PreferenceType.STRING_SET)
+    String TAGS = "tags";
+}
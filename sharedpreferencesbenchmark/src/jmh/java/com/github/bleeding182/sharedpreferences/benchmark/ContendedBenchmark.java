@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.benchmark;
+
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Three threads reading while another one keeps writing the same preferences,
+ * for every mode of code generation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ContendedBenchmark {
+
+    private PlainPrefs mPlain;
+    private CachedPrefs mCached;
+
+    @Setup
+    public void setUp() {
+        mPlain = new PlainPrefs(new InMemoryPreferenceStore());
+        mCached = new CachedPrefs(new InMemoryPreferenceStore());
+    }
+
+    @State(Scope.Thread)
+    public static class Counter {
+        int value;
+    }
+
+    @Benchmark
+    @Group("plain")
+    @GroupThreads(3)
+    public int readPlain() {
+        return mPlain.getCount();
+    }
+
+    @Benchmark
+    @Group("plain")
+    @GroupThreads(1)
+    public void writePlain(Counter counter) {
+        mPlain.setCount(counter.value++);
+    }
+
+    @Benchmark
+    @Group("cached")
+    @GroupThreads(3)
+    public int readCached() {
+        return mCached.getCount();
+    }
+
+    @Benchmark
+    @Group("cached")
+    @GroupThreads(1)
+    public void writeCached(Counter counter) {
+        mCached.setCount(counter.value++);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 David Medenjak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.github.bleeding182.sharedpreferences.benchmark;
+
+import com.github.bleeding182.sharedpreferences.store.InMemoryPreferenceStore;
+import com.github.bleeding182.sharedpreferences.store.PreferenceStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of backing up and restoring a large preferences file, by the generated {@code writeTo()} and
+ * {@code readFrom()} compared with serializing the map of {@code getAll()} and replaying it through an editor.
+ * The size is set by the number of Strings in the set of {@link Plain#TAGS}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExportBenchmark {
+
+    @Param({"100", "10000"})
+    public int mTagCount;
+
+    private PlainPrefs mSource;
+    private PlainPrefs mTarget;
+    private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+    private byte[] mExport;
+    private byte[] mSerialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        Set<String> tags = new HashSet<String>();
+        for (int i = 0; i < mTagCount; i++) {
+            tags.add("tag-" + i);
+        }
+        mSource = new PlainPrefs(new InMemoryPreferenceStore());
+        mSource.edit().setName("name").setCount(1).setEnabled(true).setTimestamp(1L).setRatio(0.5f).setTags(tags).apply();
+        mTarget = new PlainPrefs(new InMemoryPreferenceStore());
+        mExport = writeTo();
+        mSerialized = serializeAll();
+    }
+
+    @Benchmark
+    public byte[] writeTo() throws IOException {
+        mOut.reset();
+        mSource.writeTo(mOut);
+        return mOut.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serializeAll() throws IOException {
+        mOut.reset();
+        ObjectOutputStream out = new ObjectOutputStream(mOut);
+        out.writeObject(new HashMap<String, Object>(mSource.getAll()));
+        out.close();
+        return mOut.toByteArray();
+    }
+
+    @Benchmark
+    public boolean readFrom() throws IOException {
+        return mTarget.readFrom(new ByteArrayInputStream(mExport));
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public boolean replayAll() throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(mSerialized));
+        Map<String, Object> values = (Map<String, Object>) in.readObject();
+        PreferenceStore.Editor editor = mTarget.getPreferenceStore().edit();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            final Object value = entry.getValue();
+            if (value instanceof String)
+                editor.putString(entry.getKey(), (String) value);
+            else if (value instanceof Integer)
+                editor.putInt(entry.getKey(), (Integer) value);
+            else if (value instanceof Long)
+                editor.putLong(entry.getKey(), (Long) value);
+            else if (value instanceof Float)
+                editor.putFloat(entry.getKey(), (Float) value);
+            else if (value instanceof Boolean)
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            else
+                editor.putStringSet(entry.getKey(), (Set<String>) value);
+        }
+        return editor.commit();
+    }
+}